@@ -0,0 +1,64 @@
+package com.github.gslowikowski.floow;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building chunk document the way {@link Importer} saves chunks and encoding it to BSON.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkDocumentBenchmark {
+
+    @Param({ "1000", "100000" })
+    public int vocabularySize;
+
+    @Param({ "LIST", "COLUMNAR", "BLOB" })
+    public ChunkFormat format;
+
+    @Param({ "1000000" })
+    public int words;
+
+    private Importer importer;
+    private WordCountTable table = new WordCountTable();
+
+    @Setup
+    public void setUp() {
+        InMemoryCollection collection = new InMemoryCollection("words");
+        importer = new Importer("dump.txt", null, collection.asCollection());
+        importer.setChunkFormat(format);
+        ZipfText text = new ZipfText(vocabularySize, 1L);
+        for (int i = 0; i < words; i++) {
+            byte[] word = text.nextWord().getBytes(StandardCharsets.UTF_8);
+            table.add(word, word.length, WordCountTable.hash(word, 0, word.length));
+        }
+    }
+
+    @Benchmark
+    public Document build() {
+        return importer.buildChunkDocument(0, 0, 0, 0L, table, 0, table.size());
+    }
+
+    @Benchmark
+    public int buildAndEncode() {
+        return InMemoryCollection.encode(importer.buildChunkDocument(0, 0, 0, 0L, table, 0, table.size()));
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.github.gslowikowski.floow;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end {@link Importer#importInChunks(FileRange, int, int, int)} with chunks inserted into {@link InMemoryCollection}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImportBenchmark {
+
+    @Param({ "1000", "100000" })
+    public int vocabularySize;
+
+    @Param({ "33554432" })
+    public int fileBytes;
+
+    @Param({ "100000" })
+    public int chunkSize;
+
+    @Param({ "0", "1" })
+    public int writers;
+
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("floow-benchmark", ".txt");
+        new ZipfText(vocabularySize, 1L).write(file, fileBytes, 12);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public long importInChunks() throws IOException {
+        InMemoryCollection collection = new InMemoryCollection("words");
+        ChunkWriter writer = new ChunkWriter(collection.asCollection(), writers, ChunkWriter.DEFAULT_QUEUE_SIZE, ChunkWriter.DEFAULT_BATCH_SIZE);
+        try {
+            Importer importer = new Importer(file.getName(), null, collection.asCollection(), writer);
+            importer.importInChunks(new FileRange(file, 0L, file.length()), 0/*skipLines*/, 0/*limitLines*/, chunkSize);
+        }
+        catch (Throwable e) {
+            writer.closeAfter(e);
+            throw e;
+        }
+        writer.close();
+        return collection.getBytes();
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.github.gslowikowski.floow;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.result.DeleteResult;
+
+public class InMemoryCollection {
+
+    private static final DocumentCodec CODEC = new DocumentCodec();
+
+    private MongoNamespace namespace;
+    private AtomicLong documents = new AtomicLong();
+    private AtomicLong bytes = new AtomicLong();
+
+    /**
+     * Stand-in for a collection, which encodes inserted documents to BSON like the driver does and discards them.
+     *
+     * Only methods used by {@link Importer} and {@link ChunkWriter} are supported.
+     *
+     * @param name collection name
+     */
+    public InMemoryCollection(String name) {
+        this.namespace = new MongoNamespace("benchmark", name);
+    }
+
+    public long getDocuments() {
+        return documents.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Returns collection interface implemented by this stand-in.
+     *
+     * @return collection
+     */
+    @SuppressWarnings("unchecked")
+    public MongoCollection<Document> asCollection() {
+        return (MongoCollection<Document>) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { MongoCollection.class },
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "insertOne":
+                        insert((Document) args[0]);
+                        return null;
+                    case "insertMany":
+                        for (Object doc: (List<?>) args[0]) {
+                            insert((Document) doc);
+                        }
+                        return null;
+                    case "deleteMany":
+                        return DeleteResult.acknowledged(0L);
+                    case "getNamespace":
+                        return namespace;
+                    case "toString":
+                        return namespace.getFullName();
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+
+    /**
+     * Encodes document to BSON.
+     *
+     * @param doc document
+     * @return encoded size in bytes
+     */
+    public static int encode(Document doc) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        CODEC.encode(new BsonBinaryWriter(buffer), doc, EncoderContext.builder().isEncodingCollectibleDocument(true).build());
+        return buffer.getPosition();
+    }
+
+    private void insert(Document doc) {
+        documents.incrementAndGet();
+        bytes.addAndGet(encode(doc));
+    }
+
+}
@@ -0,0 +1,519 @@
+package com.github.gslowikowski.floow;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.bson.Document;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+/**
+ * End-to-end import and aggregation against a local mongod, for a matrix of file and chunk sizes.
+ */
+public class RegressionSuite {
+
+    public static final String PARAM_HELP = "help";
+    public static final String PARAM_MONGO_ADDRESS = "mongo";
+    public static final String PARAM_MONGO_DATABASE = "mongoDatabase";
+    public static final String PARAM_SIZES = "sizes";
+    public static final String PARAM_CHUNKS = "chunks";
+    public static final String PARAM_VOCABULARY = "vocabulary";
+    public static final String PARAM_WORDS_PER_LINE = "wordsPerLine";
+    public static final String PARAM_ALPHABET = "alphabet";
+    public static final String PARAM_CORPUS_DIR = "corpusDir";
+    public static final String PARAM_RUNS = "runs";
+    public static final String PARAM_REPORT = "report";
+    public static final String PARAM_BASELINE = "baseline";
+    public static final String PARAM_TOLERANCE = "tolerance";
+
+    public static final String DEFAULT_MONGO_HOST = "localhost";
+    public static final int DEFAULT_MONGO_PORT = 27017;
+    public static final String DEFAULT_MONGO_DATABASE = "floow_benchmark";
+    public static final String DEFAULT_SIZES = "64,256";
+    public static final String DEFAULT_CHUNKS = "1000,10000,100000";
+    public static final int DEFAULT_VOCABULARY = 100000;
+    public static final int DEFAULT_WORDS_PER_LINE = 12;
+    public static final int DEFAULT_RUNS = 1;
+    public static final String DEFAULT_REPORT = "regression-report.json";
+    public static final int DEFAULT_TOLERANCE = 10;
+
+    private static final String COLLECTION = "words";
+    private static final String AGGREGATE_COLLECTION = "words_aggr";
+    private static final String MAPREDUCE_COLLECTION = "words_mr";
+    private static final long SEED = 1L;
+    private static final double MEGABYTE = 1024.0 * 1024;
+
+    /**
+     * Measurements compared with the baseline, all of them are better when lower.
+     */
+    private static final List<String> COMPARED = Arrays.asList(
+            "importSeconds", "peakHeapMegabytes", "collectionMegabytes", "aggregateSeconds", "mapReduceSeconds");
+
+    private MongoDatabase db;
+    private int vocabulary;
+    private String alphabet;
+    private int wordsPerLine;
+    private File corpusDir;
+
+    /**
+     * Regression suite.
+     *
+     * Every case imports a synthetic corpus with {@link Importer}, then aggregates it by both
+     * {@link Aggregator#aggregate(String)} and {@link Aggregator#mapReduce(String)}. The corpus is generated
+     * by {@link ZipfText} with a fixed seed, so every run on every machine processes the same text,
+     * and it is kept in the corpus directory for next runs.
+     *
+     * @param db database used by the suite, its collections are dropped
+     * @param vocabulary number of distinct words of the corpus
+     * @param alphabet letters of the corpus words
+     * @param wordsPerLine average number of words in a line
+     * @param corpusDir directory of generated corpus files
+     */
+    public RegressionSuite(MongoDatabase db, int vocabulary, String alphabet, int wordsPerLine, File corpusDir) {
+        this.db = db;
+        this.vocabulary = vocabulary;
+        this.alphabet = alphabet;
+        this.wordsPerLine = wordsPerLine;
+        this.corpusDir = corpusDir;
+    }
+
+    public static void main(String[] args) throws IOException, ParseException {
+        CommandLine cmdLine = new DefaultParser().parse(createOptions(), args);
+        if (cmdLine.hasOption(PARAM_HELP)) {
+            new HelpFormatter().printHelp("java -cp target/benchmarks.jar " + RegressionSuite.class.getName(), createOptions());
+            return;
+        }
+
+        String mongoHost = cmdLine.getOptionValue(PARAM_MONGO_ADDRESS, DEFAULT_MONGO_HOST);
+        int mongoPort = DEFAULT_MONGO_PORT;
+        if (mongoHost.contains(":")) {
+            String[] parts = mongoHost.split(":", 2);
+            mongoHost = parts[0];
+            mongoPort = parseInt(parts[1]);
+        }
+        List<Integer> sizes = parseInts(cmdLine.getOptionValue(PARAM_SIZES, DEFAULT_SIZES));
+        List<Integer> chunks = parseInts(cmdLine.getOptionValue(PARAM_CHUNKS, DEFAULT_CHUNKS));
+        int vocabulary = parseInt(cmdLine.getOptionValue(PARAM_VOCABULARY, String.valueOf(DEFAULT_VOCABULARY)));
+        int wordsPerLine = parseInt(cmdLine.getOptionValue(PARAM_WORDS_PER_LINE, String.valueOf(DEFAULT_WORDS_PER_LINE)));
+        String alphabet = cmdLine.getOptionValue(PARAM_ALPHABET, ZipfText.LATIN);
+        int runs = parseInt(cmdLine.getOptionValue(PARAM_RUNS, String.valueOf(DEFAULT_RUNS)));
+        int tolerance = parseInt(cmdLine.getOptionValue(PARAM_TOLERANCE, String.valueOf(DEFAULT_TOLERANCE)));
+        if (vocabulary < 1 || wordsPerLine < 1 || runs < 1 || alphabet.length() < 2) {
+            throw new ParseException(String.format("-%s, -%s and -%s must be positive, -%s must have at least two letters",
+                    PARAM_VOCABULARY, PARAM_WORDS_PER_LINE, PARAM_RUNS, PARAM_ALPHABET));
+        }
+        File corpusDir = new File(cmdLine.getOptionValue(PARAM_CORPUS_DIR, System.getProperty("java.io.tmpdir")));
+        File report = new File(cmdLine.getOptionValue(PARAM_REPORT, DEFAULT_REPORT));
+        File baseline = cmdLine.hasOption(PARAM_BASELINE) ? new File(cmdLine.getOptionValue(PARAM_BASELINE)) : null;
+
+        Map<String, Object> results = new LinkedHashMap<String, Object>();
+        MongoClient client = new MongoClient(mongoHost, mongoPort);
+        try {
+            RegressionSuite suite = new RegressionSuite(client.getDatabase(cmdLine.getOptionValue(PARAM_MONGO_DATABASE, DEFAULT_MONGO_DATABASE)),
+                    vocabulary, alphabet, wordsPerLine, corpusDir);
+            results.put("corpus", suite.corpusParameters());
+            results.put("cases", suite.run(sizes, chunks, runs));
+        }
+        finally {
+            client.close();
+        }
+
+        OutputStream out = new FileOutputStream(report);
+        try {
+            out.write(toJson(results).getBytes(StandardCharsets.UTF_8));
+        }
+        finally {
+            out.close();
+        }
+        System.out.println("Report saved to " + report);
+
+        if (baseline != null) {
+            Document expected = Document.parse(new String(Files.readAllBytes(baseline.toPath()), StandardCharsets.UTF_8));
+            int regressions = compare(results, expected, tolerance);
+            if (regressions > 0) {
+                System.out.println(String.format("%d measurements regressed by more than %d%%", regressions, tolerance));
+                System.exit(1);
+            }
+            System.out.println(String.format("No measurement regressed by more than %d%%", tolerance));
+        }
+    }
+
+    /**
+     * Runs all cases of the matrix.
+     *
+     * @param sizes corpus sizes in megabytes
+     * @param chunks aggregation chunk sizes
+     * @param runs number of runs of every case, median of every measurement is reported
+     * @return measurements of cases
+     * @throws IOException in case of I/O problems
+     */
+    public List<Map<String, Object>> run(List<Integer> sizes, List<Integer> chunks, int runs) throws IOException {
+        List<Map<String, Object>> cases = new ArrayList<Map<String, Object>>();
+        System.out.println(String.format(Locale.ROOT, "%8s %8s %10s %10s %10s %10s %10s %10s %10s",
+                "MB", "chunk", "import s", "MB/s", "heap MB", "coll MB", "aggr s", "mr s", "speedup"));
+        for (int megabytes: sizes) {
+            File corpus = corpus(megabytes);
+            for (int chunkSize: chunks) {
+                List<Map<String, Object>> measured = new ArrayList<Map<String, Object>>();
+                for (int run = 0; run < runs; run++) {
+                    measured.add(runCase(corpus, megabytes, chunkSize));
+                }
+                Map<String, Object> result = median(measured);
+                System.out.println(String.format(Locale.ROOT, "%8d %8d %10.3f %10.3f %10.1f %10.1f %10.3f %10.3f %10.2f",
+                        megabytes, chunkSize, result.get("importSeconds"), result.get("importMegabytesPerSecond"),
+                        result.get("peakHeapMegabytes"), result.get("collectionMegabytes"),
+                        result.get("aggregateSeconds"), result.get("mapReduceSeconds"), result.get("aggregateSpeedup")));
+                cases.add(result);
+            }
+        }
+        return cases;
+    }
+
+    /**
+     * Returns parameters of generated corpus, reported with the measurements.
+     *
+     * @return corpus parameters
+     */
+    public Map<String, Object> corpusParameters() {
+        Map<String, Object> corpus = new LinkedHashMap<String, Object>();
+        corpus.put("vocabulary", vocabulary);
+        corpus.put("alphabet", alphabet);
+        corpus.put("wordsPerLine", wordsPerLine);
+        corpus.put("seed", SEED);
+        return corpus;
+    }
+
+    private Map<String, Object> runCase(File corpus, int megabytes, int chunkSize) throws IOException {
+        MongoCollection<Document> collection = db.getCollection(COLLECTION);
+        collection.drop();
+        db.getCollection(AGGREGATE_COLLECTION).drop();
+        db.getCollection(MAPREDUCE_COLLECTION).drop();
+
+        resetHeapPeak();
+        long startNanos = System.nanoTime();
+        ChunkWriter writer = new ChunkWriter(collection);
+        try {
+            Importer importer = new Importer(corpus.getName(), null, collection, writer);
+            importer.cleanData();
+            importer.importInChunks(new FileRange(corpus, 0L, corpus.length()), 0/*skipLines*/, 0/*limitLines*/, chunkSize);
+        }
+        catch (Throwable e) {
+            writer.closeAfter(e);
+            throw e;
+        }
+        writer.close(); // waits for queued chunks
+        double importSeconds = seconds(System.nanoTime() - startNanos);
+        double peakHeap = heapPeak() / MEGABYTE;
+        Document stats = db.runCommand(new Document("collStats", COLLECTION));
+
+        Aggregator aggr = new Aggregator(db, collection, corpus.getName());
+        startNanos = System.nanoTime();
+        aggr.aggregate(AGGREGATE_COLLECTION);
+        double aggregateSeconds = seconds(System.nanoTime() - startNanos);
+        startNanos = System.nanoTime();
+        aggr.mapReduce(MAPREDUCE_COLLECTION);
+        double mapReduceSeconds = seconds(System.nanoTime() - startNanos);
+
+        long words = db.getCollection(AGGREGATE_COLLECTION).count();
+        if (words != db.getCollection(MAPREDUCE_COLLECTION).count()) {
+            throw new IllegalStateException("Aggregation and mapReduce counted different numbers of words");
+        }
+
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("fileMegabytes", megabytes);
+        result.put("chunkSize", chunkSize);
+        result.put("importSeconds", importSeconds);
+        result.put("importMegabytesPerSecond", corpus.length() / MEGABYTE / importSeconds);
+        result.put("peakHeapMegabytes", peakHeap);
+        result.put("chunkDocuments", ((Number) stats.get("count")).longValue());
+        result.put("collectionMegabytes", ((Number) stats.get("size")).doubleValue() / MEGABYTE);
+        result.put("storageMegabytes", ((Number) stats.get("storageSize")).doubleValue() / MEGABYTE);
+        result.put("aggregateSeconds", aggregateSeconds);
+        result.put("mapReduceSeconds", mapReduceSeconds);
+        result.put("aggregateSpeedup", mapReduceSeconds / aggregateSeconds);
+        result.put("words", words);
+        return result;
+    }
+
+    /**
+     * Returns corpus file of given size, generating it unless it exists already.
+     */
+    private File corpus(int megabytes) throws IOException {
+        File file = new File(corpusDir, String.format("floow-corpus-%dm-v%d-w%d-%08x.txt",
+                megabytes, vocabulary, wordsPerLine, alphabet.hashCode()));
+        long bytes = megabytes * 1024L * 1024;
+        if (!file.isFile() || file.length() < bytes) {
+            System.out.println(String.format("Generating %d MB corpus %s", megabytes, file));
+            new ZipfText(vocabulary, alphabet, SEED).write(file, bytes, wordsPerLine);
+        }
+        return file;
+    }
+
+    /**
+     * Compares measurements of cases with the baseline report.
+     *
+     * @return number of measurements worse than the baseline by more than tolerance
+     */
+    private static int compare(Map<String, Object> results, Document baseline, int tolerance) {
+        if (!toJson(results.get("corpus")).equals(toJson(baseline.get("corpus")))) {
+            System.out.println("Baseline corpus differs: " + baseline.get("corpus"));
+        }
+        int regressions = 0;
+        for (Object value: (List<?>) results.get("cases")) {
+            Map<String, Object> result = asMap(value);
+            Document expected = null;
+            for (Object candidateValue: (List<?>) baseline.get("cases")) {
+                Document candidate = (Document) candidateValue;
+                if (candidate.getInteger("fileMegabytes").equals(result.get("fileMegabytes"))
+                        && candidate.getInteger("chunkSize").equals(result.get("chunkSize"))) {
+                    expected = candidate;
+                }
+            }
+            if (expected == null) {
+                System.out.println(String.format("%d MB, chunk %d: not in baseline", result.get("fileMegabytes"), result.get("chunkSize")));
+                continue;
+            }
+            for (String name: COMPARED) {
+                double was = ((Number) expected.get(name)).doubleValue();
+                double is = ((Number) result.get(name)).doubleValue();
+                double change = was > 0 ? (is - was) * 100.0 / was : 0.0;
+                boolean regressed = change > tolerance;
+                if (regressed) {
+                    regressions++;
+                }
+                System.out.println(String.format(Locale.ROOT, "%d MB, chunk %d: %s %.3f -> %.3f (%+.1f%%)%s",
+                        result.get("fileMegabytes"), result.get("chunkSize"), name, was, is, change, regressed ? " REGRESSION" : ""));
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * Returns median of every measurement of runs of one case.
+     */
+    private static Map<String, Object> median(List<Map<String, Object>> runs) {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        for (String name: runs.get(0).keySet()) {
+            Object first = runs.get(0).get(name);
+            if (first instanceof Double) {
+                double[] values = runs.stream().mapToDouble(run -> (Double) run.get(name)).sorted().toArray();
+                result.put(name, values[values.length / 2]);
+            }
+            else {
+                result.put(name, first); // parameters and counts are the same in all runs
+            }
+        }
+        return result;
+    }
+
+    private static void resetHeapPeak() {
+        System.gc();
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Returns sum of peak usage of heap pools, pools may peak at different times, so it is an upper bound.
+     */
+    private static long heapPeak() {
+        long bytes = 0L;
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                bytes += pool.getPeakUsage().getUsed();
+            }
+        }
+        return bytes;
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    private static int parseInt(String value) throws ParseException {
+        try {
+            return Integer.valueOf(value.trim()).intValue();
+        }
+        catch (NumberFormatException e) {
+            throw new ParseException(value + " is not a valid int value");
+        }
+    }
+
+    private static List<Integer> parseInts(String values) throws ParseException {
+        List<Integer> result = new ArrayList<Integer>();
+        for (String value: values.split(",")) {
+            int i = parseInt(value);
+            if (i < 1) {
+                throw new ParseException(value + " is not a positive value");
+            }
+            result.add(i);
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asMap(Object value) {
+        return (Map<String, Object>) value;
+    }
+
+    private static String toJson(Object value) {
+        StringBuilder sb = new StringBuilder();
+        appendJson(sb, value, "");
+        return sb.append('\n').toString();
+    }
+
+    private static void appendJson(StringBuilder sb, Object value, String indent) {
+        if (value instanceof Map) {
+            sb.append("{\n");
+            boolean first = true;
+            for (Map.Entry<String, Object> entry: asMap(value).entrySet()) {
+                if (!first) {
+                    sb.append(",\n");
+                }
+                first = false;
+                sb.append(indent).append("  \"").append(entry.getKey()).append("\": ");
+                appendJson(sb, entry.getValue(), indent + "  ");
+            }
+            sb.append('\n').append(indent).append('}');
+        }
+        else if (value instanceof List) {
+            sb.append("[\n");
+            boolean first = true;
+            for (Object element: (List<?>) value) {
+                if (!first) {
+                    sb.append(",\n");
+                }
+                first = false;
+                sb.append(indent).append("  ");
+                appendJson(sb, element, indent + "  ");
+            }
+            sb.append('\n').append(indent).append(']');
+        }
+        else if (value instanceof String) {
+            sb.append('"').append(((String) value).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        else if (value instanceof Double) {
+            sb.append(String.format(Locale.ROOT, "%.3f", (Double) value));
+        }
+        else {
+            sb.append(value);
+        }
+    }
+
+    private static Options createOptions() {
+        return new Options()
+        .addOption(
+            Option.builder(PARAM_HELP) // help
+                .desc("print this message")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_MONGO_ADDRESS) // mongo
+                .desc(String.format("MongoDB address (\"%s:%d\" by default)", DEFAULT_MONGO_HOST, DEFAULT_MONGO_PORT))
+                .hasArg()
+                .argName("host:port")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_MONGO_DATABASE) // mongoDatabase
+                .desc(String.format("MongoDB database, its collections are dropped (\"%s\" by default)", DEFAULT_MONGO_DATABASE))
+                .hasArg()
+                .argName("database_name")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_SIZES) // sizes
+                .desc(String.format("comma separated corpus sizes in megabytes (%s by default)", DEFAULT_SIZES))
+                .hasArg()
+                .argName("megabytes")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_CHUNKS) // chunks
+                .desc(String.format("comma separated aggregation chunk sizes (%s by default)", DEFAULT_CHUNKS))
+                .hasArg()
+                .argName("lines")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_VOCABULARY) // vocabulary
+                .desc(String.format("number of distinct words of the corpus (%d by default)", DEFAULT_VOCABULARY))
+                .hasArg()
+                .argName("words")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_WORDS_PER_LINE) // wordsPerLine
+                .desc(String.format("average number of words in a line (%d by default)", DEFAULT_WORDS_PER_LINE))
+                .hasArg()
+                .argName("words")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_ALPHABET) // alphabet
+                .desc(String.format("lower case letters of words (\"%s\" by default)", ZipfText.LATIN))
+                .hasArg()
+                .argName("letters")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_CORPUS_DIR) // corpusDir
+                .desc("directory of generated corpus files, reused by next runs (temporary directory by default)")
+                .hasArg()
+                .argName("directory")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_RUNS) // runs
+                .desc(String.format("number of runs of every case, medians are reported (%d by default)", DEFAULT_RUNS))
+                .hasArg()
+                .argName("runs")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_REPORT) // report
+                .desc(String.format("JSON report file (%s by default)", DEFAULT_REPORT))
+                .hasArg()
+                .argName("file")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_BASELINE) // baseline
+                .desc("report of a previous run to compare with, exit status is 1 if any measurement regressed")
+                .hasArg()
+                .argName("file")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_TOLERANCE) // tolerance
+                .desc(String.format("allowed regression in percent (%d by default)", DEFAULT_TOLERANCE))
+                .hasArg()
+                .argName("percent")
+                .build()
+        );
+    }
+
+}
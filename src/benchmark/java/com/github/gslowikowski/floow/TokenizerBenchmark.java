@@ -0,0 +1,114 @@
+package com.github.gslowikowski.floow;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Line tokenization: regular expression split (the original implementation) versus {@link AsciiTokenizer}
+ * and {@link UnicodeTokenizer}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    private static final Pattern NON_LETTERS = Pattern.compile("[^a-z]+");
+
+    @Param({ "1000", "100000" })
+    public int vocabularySize;
+
+    @Param({ "4194304" })
+    public int textBytes;
+
+    private byte[] text;
+    private String[] lines;
+
+    @Setup
+    public void setUp() {
+        text = new ZipfText(vocabularySize, 1L).generate(textBytes, 12);
+        lines = new String(text, StandardCharsets.UTF_8).split("\n");
+    }
+
+    @Benchmark
+    public void regexSplit(Blackhole bh) {
+        for (String line: lines) {
+            for (String word: line.toLowerCase(Locale.UK).split("[^a-z]")) {
+                if (word.length() > 0) {
+                    bh.consume(word);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void precompiledPatternSplit(Blackhole bh) {
+        for (String line: lines) {
+            for (String word: NON_LETTERS.split(line.toLowerCase(Locale.UK))) {
+                if (word.length() > 0) {
+                    bh.consume(word);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void asciiTokenizerLines(Blackhole bh) {
+        AsciiTokenizer tokenizer = new AsciiTokenizer(new ConsumingHandler(bh));
+        for (String line: lines) {
+            tokenizer.tokenize(line);
+        }
+    }
+
+    @Benchmark
+    public void asciiTokenizerBytes(Blackhole bh) {
+        AsciiTokenizer tokenizer = new AsciiTokenizer(new ConsumingHandler(bh));
+        tokenizer.tokenize(ByteBuffer.wrap(text));
+        tokenizer.finish();
+    }
+
+    @Benchmark
+    public void unicodeTokenizerBytes(Blackhole bh) {
+        UnicodeTokenizer tokenizer = new UnicodeTokenizer(new ConsumingHandler(bh));
+        tokenizer.tokenize(ByteBuffer.wrap(text));
+        tokenizer.finish();
+    }
+
+    private static class ConsumingHandler implements Tokenizer.Handler {
+
+        private Blackhole bh;
+
+        ConsumingHandler(Blackhole bh) {
+            this.bh = bh;
+        }
+
+        @Override
+        public void word(byte[] word, int length, int hash) {
+            bh.consume(hash);
+        }
+
+        @Override
+        public boolean endOfLine() {
+            return true;
+        }
+    }
+
+}
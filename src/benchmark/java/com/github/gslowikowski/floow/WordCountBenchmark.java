@@ -0,0 +1,75 @@
+package com.github.gslowikowski.floow;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Word count update: map of strings (the original implementation) versus {@link WordCountTable}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WordCountBenchmark {
+
+    @Param({ "1000", "100000" })
+    public int vocabularySize;
+
+    @Param({ "1000000" })
+    public int words;
+
+    private String[] strings;
+    private byte[][] bytes;
+    private int[] hashes;
+
+    private WordCountTable table = new WordCountTable();
+
+    @Setup
+    public void setUp() {
+        ZipfText text = new ZipfText(vocabularySize, 1L);
+        strings = new String[words];
+        bytes = new byte[words][];
+        hashes = new int[words];
+        for (int i = 0; i < words; i++) {
+            strings[i] = text.nextWord();
+            bytes[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+            hashes[i] = WordCountTable.hash(bytes[i], 0, bytes[i].length);
+        }
+    }
+
+    @Benchmark
+    public Map<String, Integer> hashMap() {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (String word: strings) {
+            Integer count = counts.get(word);
+            counts.put(word, count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+
+    @Benchmark
+    public WordCountTable wordCountTable() {
+        table.clear(); // reused like in importer
+        for (int i = 0; i < bytes.length; i++) {
+            table.add(bytes[i], bytes[i].length, hashes[i]);
+        }
+        return table;
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.github.gslowikowski.floow;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+public class ZipfText {
+
+    public static final String LATIN = "abcdefghijklmnopqrstuvwxyz";
+
+    private static final String[] PUNCTUATION = { " ", " ", " ", " ", ", ", ". ", "... ", "! " };
+    private static final int WRITE_BLOCK_BYTES = 4 * 1024 * 1024;
+
+    private String[] words;
+    private double[] cumulative;
+    private Random random;
+
+    /**
+     * Generator of synthetic text with Zipf-distributed word frequencies.
+     *
+     * The word of rank r occurs with probability proportional to 1 / r, like words of natural languages.
+     * Words are distinct letter sequences, some of them capitalized, separated by spaces and punctuation.
+     *
+     * @param vocabularySize number of distinct words
+     * @param seed random seed, the same seed gives the same text
+     */
+    public ZipfText(int vocabularySize, long seed) {
+        this(vocabularySize, LATIN, seed);
+    }
+
+    /**
+     * Generator of synthetic text with Zipf-distributed word frequencies made of letters of an alphabet.
+     *
+     * @param vocabularySize number of distinct words
+     * @param alphabet lower case letters of words (e.g. with diacritics, to exercise the Unicode tokenizer)
+     * @param seed random seed, the same seed gives the same text
+     */
+    public ZipfText(int vocabularySize, String alphabet, long seed) {
+        words = new String[vocabularySize];
+        cumulative = new double[vocabularySize];
+        double sum = 0.0;
+        for (int rank = 1; rank <= vocabularySize; rank++) {
+            words[rank - 1] = word(rank, alphabet);
+            sum += 1.0 / rank;
+            cumulative[rank - 1] = sum;
+        }
+        for (int i = 0; i < vocabularySize; i++) {
+            cumulative[i] /= sum;
+        }
+        random = new Random(seed);
+    }
+
+    /**
+     * Returns next random word.
+     *
+     * @return word
+     */
+    public String nextWord() {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return words[index >= 0 ? index : Math.min(-index - 1, words.length - 1)];
+    }
+
+    /**
+     * Generates text of given size.
+     *
+     * @param bytes minimum text size in bytes
+     * @param wordsPerLine average number of words in a line
+     * @return UTF-8 text, every line terminated by a line end
+     */
+    public byte[] generate(int bytes, int wordsPerLine) {
+        StringBuilder sb = new StringBuilder(bytes + 1024);
+        while (sb.length() < bytes) {
+            int lineWords = 1 + random.nextInt(wordsPerLine * 2);
+            for (int i = 0; i < lineWords; i++) {
+                String word = nextWord();
+                if (random.nextInt(10) == 0) {
+                    sb.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+                }
+                else {
+                    sb.append(word);
+                }
+                sb.append(i < lineWords - 1 ? PUNCTUATION[random.nextInt(PUNCTUATION.length)] : ".");
+            }
+            sb.append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes generated text to a file.
+     *
+     * Text is generated in blocks of whole lines, so files may be larger than memory.
+     *
+     * @param file destination file
+     * @param bytes minimum text size in bytes
+     * @param wordsPerLine average number of words in a line
+     * @throws IOException in case of I/O problems
+     */
+    public void write(File file, long bytes, int wordsPerLine) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            long written = 0L;
+            while (written < bytes) {
+                byte[] block = generate((int) Math.min(bytes - written, WRITE_BLOCK_BYTES), wordsPerLine);
+                out.write(block);
+                written += block.length;
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns distinct word for every rank, frequent words are shorter (at least three letters).
+     */
+    private static String word(int rank, String alphabet) {
+        // bijective numeration in base of the alphabet size, skipping one and two letter words
+        int base = alphabet.length();
+        StringBuilder sb = new StringBuilder();
+        long n = rank + base + (long) base * base;
+        while (n > 0) {
+            n--;
+            sb.append(alphabet.charAt((int) (n % base)));
+            n /= base;
+        }
+        return sb.reverse().toString();
+    }
+
+}
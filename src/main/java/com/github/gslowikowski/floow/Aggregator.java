@@ -1,15 +1,69 @@
 package com.github.gslowikowski.floow;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import org.bson.Document;
+import org.bson.types.ObjectId;
 
+import com.mongodb.MongoNamespace;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.RenameCollectionOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class Aggregator {
 
+    public static final Logger log = LoggerFactory.getLogger(Aggregator.class);
+
+    /**
+     * Suffix of collection keeping incremental aggregation state of an output collection.
+     */
+    public static final String STATE_SUFFIX = "_state";
+
+    /**
+     * Id of the state document counting rewrites of an output collection (see {@link QueryServer}).
+     */
+    public static final String GENERATION_ID = "$generation";
+
+    /**
+     * Maximum number of partitions of partitioned aggregation, one for every first letter.
+     */
+    public static final int MAX_PARTITIONS = 26;
+
+    private static final String TMP_SUFFIX = "_tmp";
+
+    private static final int BULK_WRITE_SIZE = 1000;
+    private static final int CURSOR_BATCH_SIZE = 16;
+    private static final int DOCUMENTS_PER_TASK = 4;
+    /**
+     * Partitions use high hash bits, low bits select slots inside partition tables.
+     */
+    private static final int PARTITION_SHIFT = 20;
+
+    private MongoDatabase database;
     private MongoCollection<Document> collection;
     private String inputFileName;
+    private List<String> sources;
 
     /**
      * Imported data aggregator.
@@ -18,8 +72,35 @@ public class Aggregator {
      * @param inputFileName name of the file to aggregate data
      */
     public Aggregator(MongoCollection<Document> collection, String inputFileName) {
+        this(null, collection, inputFileName);
+    }
+
+    /**
+     * Imported data aggregator supporting incremental aggregation.
+     * 
+     * @param database database containing input and output collections
+     * @param collection input collection
+     * @param inputFileName name of the file to aggregate data
+     */
+    public Aggregator(MongoDatabase database, MongoCollection<Document> collection, String inputFileName) {
+        this(database, collection, inputFileName, Collections.singletonList(inputFileName));
+    }
+
+    /**
+     * Imported data aggregator of many source files (see {@link FileScheduler}).
+     * 
+     * Word counts of all files are aggregated together. Incremental aggregation state is kept under the input name.
+     * 
+     * @param database database containing input and output collections
+     * @param collection input collection
+     * @param inputName name of all files, e.g. directory name
+     * @param sources source names of files to aggregate data
+     */
+    public Aggregator(MongoDatabase database, MongoCollection<Document> collection, String inputName, List<String> sources) {
+        this.database = database;
         this.collection = collection;
-        this.inputFileName = inputFileName;
+        this.inputFileName = inputName;
+        this.sources = sources;
     }
 
     /**
@@ -27,22 +108,562 @@ public class Aggregator {
      * 
      * db.words.aggregate(
      *   {$match: {'source': 'inputFileName'}},
-     *   {$project: {'words': 1, '_id': 0}},
+     *   {$project: {'words': <words>, '_id': 0}},
      *   {$unwind: '$words'},
      *   {$group: {'_id': '$words.word', 'count': {'$sum': '$words.cnt'}}},
      *   {$out: 'outputCollectionName'}
      * )
      * 
+     * where <words> converts columnar chunks to the list format (see {@link #wordsExpression()}).
+     * 
      * @param outputCollectionName collection for aggregated data
      */
     public void aggregate(String outputCollectionName) {
+        checkNotShared(outputCollectionName);
+        completePending();
+        checkServerReadable();
         collection.aggregate(Arrays.asList(
-            new Document("$match", new Document("source", inputFileName)),
-            new Document("$project", new Document("words", 1).append("_id", 0)),
+            new Document("$match", sourceFilter()),
+            new Document("$project", new Document("words", wordsExpression()).append("_id", 0)),
             new Document("$unwind", "$words"),
             new Document("$group", new Document("_id", "$words.word").append("count", new Document("$sum", "$words.cnt"))),
             new Document("$out", outputCollectionName)
         )).toCollection();
+        resetState(outputCollectionName);
+        outputChanged(outputCollectionName);
+    }
+
+    /**
+     * Aggregates data using aggregation framework, running concurrent pipelines for partitions of words.
+     * 
+     * Words are partitioned by their first letters, e.g. for two partitions:
+     * 
+     * db.words.aggregate(
+     *   {$match: {'source': 'inputFileName'}},
+     *   {$project: {'words': {$filter: {input: '$words', as: 'w', cond: {$lt: ['$$w.word', 'n']}}}, '_id': 0}},
+     *   {$unwind: '$words'},
+     *   {$group: {'_id': '$words.word', 'count': {'$sum': '$words.cnt'}}}
+     * )
+     * 
+     * and the same with {$gte: ['$$w.word', 'n']} condition. Pipelines may use disk for grouping, so
+     * they are not limited by aggregation memory limit. Results of all pipelines are written
+     * to a temporary collection which then replaces the output collection.
+     * 
+     * @param outputCollectionName collection for aggregated data
+     * @param partitions number of partitions (from 1 to {@value #MAX_PARTITIONS}) aggregated concurrently
+     * @throws InterruptedException if aggregation was interrupted
+     */
+    public void aggregatePartitioned(String outputCollectionName, int partitions) throws InterruptedException {
+        completePending();
+        checkServerReadable();
+        if (database == null) {
+            throw new IllegalStateException("Partitioned aggregation requires database");
+        }
+        if (partitions < 1 || partitions > MAX_PARTITIONS) {
+            throw new IllegalArgumentException("Number of partitions must be between 1 and " + MAX_PARTITIONS);
+        }
+        checkNotShared(outputCollectionName);
+        MongoCollection<Document> tmpOutput = database.getCollection(outputCollectionName + TMP_SUFFIX);
+        tmpOutput.drop();
+        // renamed even if no counts are inserted
+        database.createCollection(outputCollectionName + TMP_SUFFIX);
+
+        ExecutorService executor = Executors.newFixedThreadPool(partitions);
+        try {
+            List<Future<?>> results = new ArrayList<Future<?>>();
+            for (int p = 0; p < partitions; p++) {
+                // first and last partitions are open, so words starting with other characters are not lost
+                String from = p == 0 ? null : firstLetter(p, partitions);
+                String to = p == partitions - 1 ? null : firstLetter(p + 1, partitions);
+                results.add(executor.submit(() -> aggregatePartition(from, to, tmpOutput)));
+            }
+            for (Future<?> result: results) {
+                result.get();
+            }
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        tmpOutput.renameCollection(new MongoNamespace(tmpOutput.getNamespace().getDatabaseName(), outputCollectionName),
+                new RenameCollectionOptions().dropTarget(true));
+        resetState(outputCollectionName);
+        outputChanged(outputCollectionName);
+    }
+
+    private static String firstLetter(int partition, int partitions) {
+        return String.valueOf((char) ('a' + MAX_PARTITIONS * partition / partitions));
+    }
+
+    private void aggregatePartition(String from, String to, MongoCollection<Document> output) {
+        List<Document> conditions = new ArrayList<Document>();
+        if (from != null) {
+            conditions.add(new Document("$gte", Arrays.asList("$$w.word", from)));
+        }
+        if (to != null) {
+            conditions.add(new Document("$lt", Arrays.asList("$$w.word", to)));
+        }
+        Object words = wordsExpression();
+        if (!conditions.isEmpty()) {
+            words = new Document("$filter", new Document("input", words).append("as", "w")
+                    .append("cond", new Document("$and", conditions)));
+        }
+
+        List<Document> batch = new ArrayList<Document>(BULK_WRITE_SIZE);
+        MongoCursor<Document> counts = collection.aggregate(Arrays.asList(
+            new Document("$match", sourceFilter()),
+            new Document("$project", new Document("words", words).append("_id", 0)),
+            new Document("$unwind", "$words"),
+            new Document("$group", new Document("_id", "$words.word").append("count", new Document("$sum", "$words.cnt")))
+        )).allowDiskUse(true).batchSize(BULK_WRITE_SIZE).iterator();
+        try {
+            while (counts.hasNext()) {
+                batch.add(counts.next());
+                if (batch.size() == BULK_WRITE_SIZE) {
+                    output.insertMany(batch, new InsertManyOptions().ordered(false));
+                    batch.clear();
+                }
+            }
+        }
+        finally {
+            counts.close();
+        }
+        if (!batch.isEmpty()) {
+            output.insertMany(batch, new InsertManyOptions().ordered(false));
+        }
+    }
+
+    /**
+     * Finds approximately the most frequent words using only top-K summaries of chunks.
+     * 
+     * Every chunk keeps its most frequent words ({@code topK} array) and the count of the least frequent
+     * of them ({@code topKMin}), which is the upper bound of count of any other word in the chunk.
+     * Merging the summaries gives for every summarized word its minimum count (sum of known counts)
+     * and maximum count (plus {@code topKMin} of chunks not listing the word). Words are ordered
+     * by maximum count and stored in the output collection as {_id: word, count: minCount, maxCount: maxCount}.
+     * Any word not found in the output occurs at most as many times as the sum of all {@code topKMin}.
+     * 
+     * @param outputCollectionName collection for the most frequent words
+     * @param k number of words to find
+     * @return the most frequent words, ordered by descending maximum count
+     */
+    public List<Document> topK(String outputCollectionName, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("Number of words must be positive");
+        }
+        if (database == null) {
+            throw new IllegalStateException("Top-K aggregation requires database");
+        }
+        checkNotShared(outputCollectionName);
+        completePending();
+        // minimum count and sum of topKMin of chunks listing the word
+        Map<String, long[]> bounds = new HashMap<String, long[]>();
+        long topKMinSum = 0L;
+        for (Document doc: collection.find(sourceFilter())
+                .projection(new Document("topK", 1).append("topKMin", 1))
+                .batchSize(CURSOR_BATCH_SIZE * 64)) {
+            @SuppressWarnings("unchecked")
+            List<Document> topWords = (List<Document>) doc.get("topK");
+            if (topWords == null) {
+                throw new IllegalStateException("Chunk " + doc.get("_id") + " has no top-K summary, import it again or use full aggregation");
+            }
+            long topKMin = ((Number) doc.get("topKMin")).longValue();
+            topKMinSum += topKMin;
+            for (Document topWord: topWords) {
+                long[] wordBounds = bounds.get(topWord.getString("word"));
+                if (wordBounds == null) {
+                    wordBounds = new long[2];
+                    bounds.put(topWord.getString("word"), wordBounds);
+                }
+                wordBounds[0] += ((Number) topWord.get("cnt")).longValue();
+                wordBounds[1] += topKMin;
+            }
+        }
+
+        List<Document> result = new ArrayList<Document>(bounds.size());
+        for (Map.Entry<String, long[]> e: bounds.entrySet()) {
+            long minCount = e.getValue()[0];
+            long maxCount = minCount + topKMinSum - e.getValue()[1];
+            result.add(new Document("_id", e.getKey()).append("count", toBsonNumber(minCount)).append("maxCount", toBsonNumber(maxCount)));
+        }
+        result.sort((d1, d2) -> {
+            int cmp = Long.compare(((Number) d2.get("maxCount")).longValue(), ((Number) d1.get("maxCount")).longValue());
+            return cmp != 0 ? cmp : Long.compare(((Number) d2.get("count")).longValue(), ((Number) d1.get("count")).longValue());
+        });
+        if (result.size() > k) {
+            result = new ArrayList<Document>(result.subList(0, k));
+        }
+
+        MongoCollection<Document> output = database.getCollection(outputCollectionName);
+        output.drop();
+        if (!result.isEmpty()) {
+            output.insertMany(result);
+        }
+        resetState(outputCollectionName);
+        outputChanged(outputCollectionName);
+        log.debug(String.format("Top-K error bound for words not found: %d", topKMinSum));
+        return result;
+    }
+
+    /**
+     * Aggregates incrementally, only data imported since previous incremental aggregation.
+     * 
+     * Chunks not aggregated yet into the output collection are grouped by word using aggregation
+     * framework and the resulting counts are added to the output collection with bulk upserts.
+     * Aggregated chunks are marked with the output collection name in their {@code folded} array.
+     * When any aggregated chunk was removed (e.g. part of the source was imported again)
+     * or the output collection was never aggregated incrementally, it is rebuilt from all chunks.
+     * 
+     * Chunks are first tagged with a fold token (in their {@code folding} array), which is recorded
+     * in the state of the output collection until the chunks are marked as aggregated. Chunks imported
+     * in the meantime are not tagged, so they are left for the next aggregation. If the process
+     * is interrupted while adding counts, the next aggregation finds the token in the state
+     * and rebuilds the output collection, so no chunk is counted twice.
+     * 
+     * The same output collection may be shared by many sources aggregated incrementally,
+     * but it cannot be rebuilt then, because counts of other sources would be lost.
+     * 
+     * @param outputCollectionName collection for aggregated data
+     * @param serverId aggregate only chunks imported with this additional identifier (all chunks if {@code null})
+     */
+    public void aggregateIncremental(String outputCollectionName, String serverId) {
+        completePending();
+        checkServerReadable();
+        if (database == null) {
+            throw new IllegalStateException("Incremental aggregation requires database");
+        }
+        MongoCollection<Document> state = database.getCollection(outputCollectionName + STATE_SUFFIX);
+        Document stateDoc = state.find(new Document("_id", inputFileName)).first();
+        Document sourceFilter = sourceFilter();
+        if (stateDoc == null && isShared(state)) {
+            // the first source added to a shared output, nothing to rebuild
+            collection.updateMany(sourceFilter, new Document("$pull", new Document("folded", outputCollectionName)));
+            stateDoc = new Document("_id", inputFileName).append("folded", 0L);
+            state.insertOne(stateDoc);
+        }
+        long folded = countChunks(new Document(sourceFilter).append("folded", outputCollectionName));
+        if (stateDoc == null || stateDoc.containsKey("folding") || folded < ((Number) stateDoc.get("folded")).longValue()) {
+            if (stateDoc != null && isShared(state)) {
+                throw sharedOutput(outputCollectionName);
+            }
+            log.info("Rebuilding " + outputCollectionName + " from all imported chunks");
+            rebuild(outputCollectionName, state);
+            outputChanged(outputCollectionName);
+            return;
+        }
+
+        Document filter = new Document(sourceFilter).append("folded", new Document("$ne", outputCollectionName));
+        if (serverId != null) {
+            filter.append("id", serverId);
+        }
+        ObjectId token = tagChunks(outputCollectionName, filter);
+        Document tagged = new Document("folding.token", token);
+        long chunks = countChunks(tagged);
+        log.info(String.format("Aggregating %d new chunks into %s", chunks, outputCollectionName));
+        if (chunks == 0) {
+            return;
+        }
+        state.updateOne(new Document("_id", inputFileName), new Document("$set", new Document("folding", token)));
+
+        MongoCollection<Document> output = database.getCollection(outputCollectionName);
+        UpdateOptions upsert = new UpdateOptions().upsert(true);
+        List<WriteModel<Document>> updates = new ArrayList<WriteModel<Document>>();
+        MongoCursor<Document> deltas = collection.aggregate(Arrays.asList(
+            new Document("$match", tagged),
+            new Document("$project", new Document("words", wordsExpression()).append("_id", 0)),
+            new Document("$unwind", "$words"),
+            new Document("$group", new Document("_id", "$words.word").append("count", new Document("$sum", "$words.cnt")))
+        )).allowDiskUse(true).iterator();
+        try {
+            while (deltas.hasNext()) {
+                Document delta = deltas.next();
+                updates.add(new UpdateOneModel<Document>(new Document("_id", delta.get("_id")),
+                        new Document("$inc", new Document("count", delta.get("count"))), upsert));
+                if (updates.size() == BULK_WRITE_SIZE) {
+                    output.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+                    updates.clear();
+                }
+            }
+        }
+        finally {
+            deltas.close();
+        }
+        if (!updates.isEmpty()) {
+            output.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+        }
+
+        markFolded(outputCollectionName, token);
+        state.updateOne(new Document("_id", inputFileName).append("folding", token),
+                new Document("$inc", new Document("folded", chunks)).append("$unset", new Document("folding", "")));
+        outputChanged(outputCollectionName);
+    }
+
+    private void rebuild(String outputCollectionName, MongoCollection<Document> state) {
+        Document sourceFilter = sourceFilter();
+        collection.updateMany(sourceFilter, new Document("$pull", new Document("folded", outputCollectionName)));
+        ObjectId token = tagChunks(outputCollectionName, sourceFilter);
+        Document tagged = new Document("folding.token", token);
+        collection.aggregate(Arrays.asList(
+            new Document("$match", tagged),
+            new Document("$project", new Document("words", wordsExpression()).append("_id", 0)),
+            new Document("$unwind", "$words"),
+            new Document("$group", new Document("_id", "$words.word").append("count", new Document("$sum", "$words.cnt"))),
+            new Document("$out", outputCollectionName)
+        )).allowDiskUse(true).toCollection();
+        long chunks = countChunks(tagged);
+        markFolded(outputCollectionName, token);
+        state.replaceOne(new Document("_id", inputFileName),
+                new Document("_id", inputFileName).append("folded", chunks),
+                new UpdateOptions().upsert(true));
+    }
+
+    /**
+     * Fails before the output collection is rewritten from scratch, if other sources are aggregated
+     * incrementally into it, because their counts would be lost and their next incremental runs corrupted.
+     */
+    private void checkNotShared(String outputCollectionName) {
+        if (database != null && isShared(database.getCollection(outputCollectionName + STATE_SUFFIX))) {
+            throw sharedOutput(outputCollectionName);
+        }
+    }
+
+    private static IllegalStateException sharedOutput(String outputCollectionName) {
+        return new IllegalStateException(String.format("%s cannot be rebuilt, because it is aggregated from other sources too, "
+                + "aggregate all sources into a new collection", outputCollectionName));
+    }
+
+    /**
+     * Checks if other sources are aggregated incrementally into the output collection.
+     */
+    private boolean isShared(MongoCollection<Document> state) {
+        return state.count(new Document("_id", new Document("$nin", Arrays.asList(inputFileName, GENERATION_ID)))) > 0;
+    }
+
+    /**
+     * Returns number of imported chunk documents matching filter, compacted documents count
+     * as all documents merged into them (see {@link Compactor}), so compaction does not look like removal.
+     */
+    private long countChunks(Document filter) {
+        Document result = collection.aggregate(Arrays.asList(
+            new Document("$match", filter),
+            new Document("$group", new Document("_id", null)
+                    .append("chunks", new Document("$sum", new Document("$ifNull", Arrays.asList("$chunks", 1)))))
+        )).first();
+        return result != null ? ((Number) result.get("chunks")).longValue() : 0L;
+    }
+
+    /**
+     * Tags chunks matching filter with a new fold token of the output collection.
+     * 
+     * Tokens left by interrupted aggregations into the output collection are removed first.
+     * 
+     * @return fold token
+     */
+    private ObjectId tagChunks(String outputCollectionName, Document filter) {
+        ObjectId token = new ObjectId();
+        collection.updateMany(new Document(sourceFilter()).append("folding.output", outputCollectionName),
+                new Document("$pull", new Document("folding", new Document("output", outputCollectionName))));
+        collection.updateMany(filter,
+                new Document("$push", new Document("folding", new Document("output", outputCollectionName).append("token", token))));
+        return token;
+    }
+
+    private void markFolded(String outputCollectionName, ObjectId token) {
+        collection.updateMany(new Document("folding.token", token),
+                new Document("$addToSet", new Document("folded", outputCollectionName))
+                        .append("$pull", new Document("folding", new Document("token", token))));
+    }
+
+    /**
+     * Forgets incremental aggregation state of an output collection rewritten from scratch.
+     */
+    private void resetState(String outputCollectionName) {
+        if (database != null) {
+            database.getCollection(outputCollectionName + STATE_SUFFIX).deleteOne(new Document("_id", inputFileName));
+        }
+    }
+
+    /**
+     * Increments generation of an output collection, so query servers reload it.
+     */
+    private void outputChanged(String outputCollectionName) {
+        if (database != null) {
+            database.getCollection(outputCollectionName + STATE_SUFFIX).updateOne(new Document("_id", GENERATION_ID),
+                    new Document("$inc", new Document("generation", 1L)), new UpdateOptions().upsert(true));
+        }
+    }
+
+    /**
+     * Aggregates data in this process, using multiple threads.
+     * 
+     * Chunk documents are streamed from the database in batches and their word counts are reduced
+     * in a fork-join pool into hash-partitioned word count tables. Final counts are written
+     * to a temporary collection in parallel, with unordered bulk inserts, which then replaces
+     * the output collection. Only the database storage is used, not its CPU.
+     * 
+     * @param outputCollectionName collection for aggregated data
+     * @param threads number of reducing and writing threads
+     * @throws InterruptedException if aggregation was interrupted
+     */
+    public void clientAggregate(String outputCollectionName, int threads) throws InterruptedException {
+        if (database == null) {
+            throw new IllegalStateException("Client aggregation requires database");
+        }
+        checkNotShared(outputCollectionName);
+        completePending();
+        int partitionCount = Integer.highestOneBit(threads * 4 - 1) * 2;
+        WordCountTable[] partitions = new WordCountTable[partitionCount];
+        for (int p = 0; p < partitionCount; p++) {
+            partitions[p] = new WordCountTable();
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            // limit number of fetched documents waiting for reducing
+            Semaphore inFlight = new Semaphore(threads * 2);
+            List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+            List<Document> docs = new ArrayList<Document>(DOCUMENTS_PER_TASK);
+            for (Document doc: collection.find(sourceFilter())
+                    .projection(new Document("words", 1).append("counts", 1).append("blob", 1).append("_id", 0))
+                    .batchSize(CURSOR_BATCH_SIZE)) {
+                docs.add(doc);
+                if (docs.size() == DOCUMENTS_PER_TASK) {
+                    tasks.add(submitReduce(pool, inFlight, docs, partitions));
+                    docs = new ArrayList<Document>(DOCUMENTS_PER_TASK);
+                }
+            }
+            if (!docs.isEmpty()) {
+                tasks.add(submitReduce(pool, inFlight, docs, partitions));
+            }
+            for (ForkJoinTask<?> task: tasks) {
+                task.join();
+            }
+
+            MongoCollection<Document> tmpOutput = database.getCollection(outputCollectionName + TMP_SUFFIX);
+            tmpOutput.drop();
+            // renamed even if no counts are inserted
+            database.createCollection(outputCollectionName + TMP_SUFFIX);
+            tasks.clear();
+            for (WordCountTable partition: partitions) {
+                tasks.add(pool.submit(() -> insertCounts(tmpOutput, partition)));
+            }
+            for (ForkJoinTask<?> task: tasks) {
+                task.join();
+            }
+            tmpOutput.renameCollection(new MongoNamespace(tmpOutput.getNamespace().getDatabaseName(), outputCollectionName),
+                    new RenameCollectionOptions().dropTarget(true));
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        resetState(outputCollectionName);
+        outputChanged(outputCollectionName);
+    }
+
+    private ForkJoinTask<?> submitReduce(ForkJoinPool pool, Semaphore inFlight, List<Document> docs,
+            WordCountTable[] partitions) throws InterruptedException {
+        inFlight.acquire();
+        return pool.submit(() -> {
+            try {
+                reduce(docs, partitions);
+            }
+            finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    /**
+     * Adds word counts of chunk documents to partitions.
+     * 
+     * Counts are reduced locally first, so every partition is locked only once per task.
+     */
+    private static void reduce(List<Document> docs, WordCountTable[] partitions) {
+        int mask = partitions.length - 1;
+        WordCountTable[] local = new WordCountTable[partitions.length];
+        for (Document doc: docs) {
+            ChunkFormat.decode(doc, (word, offset, length, count) -> {
+                int hash = WordCountTable.hash(word, offset, length);
+                int p = WordCountTable.mix(hash) >>> PARTITION_SHIFT & mask;
+                if (local[p] == null) {
+                    local[p] = new WordCountTable();
+                }
+                local[p].add(word, offset, length, hash, count);
+            });
+        }
+        for (int p = 0; p < local.length; p++) {
+            if (local[p] != null) {
+                synchronized (partitions[p]) {
+                    partitions[p].addAll(local[p]);
+                }
+            }
+        }
+    }
+
+    private static void insertCounts(MongoCollection<Document> output, WordCountTable partition) {
+        List<Document> batch = new ArrayList<Document>(BULK_WRITE_SIZE);
+        for (int i = 0; i < partition.size(); i++) {
+            batch.add(new Document("_id", partition.getWord(i)).append("count", toBsonNumber(partition.getCount(i))));
+            if (batch.size() == BULK_WRITE_SIZE) {
+                output.insertMany(batch, new InsertManyOptions().ordered(false));
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            output.insertMany(batch, new InsertManyOptions().ordered(false));
+        }
+    }
+
+    /**
+     * Returns expression converting words of columnar chunks to the list format.
+     * 
+     * {$cond: [{$isArray: '$counts'},
+     *   {$map: {input: {$zip: {inputs: ['$words', '$counts']}}, as: 'p',
+     *     in: {'word': {$arrayElemAt: ['$$p', 0]}, 'cnt': {$arrayElemAt: ['$$p', 1]}}}},
+     *   '$words'
+     * ]}
+     */
+    private static Document wordsExpression() {
+        return new Document("$cond", Arrays.asList(
+            new Document("$isArray", "$counts"),
+            new Document("$map", new Document("input", new Document("$zip", new Document("inputs", Arrays.asList("$words", "$counts"))))
+                .append("as", "p")
+                .append("in", new Document("word", new Document("$arrayElemAt", Arrays.asList("$$p", 0)))
+                    .append("cnt", new Document("$arrayElemAt", Arrays.asList("$$p", 1))))),
+            "$words"
+        ));
+    }
+
+    /**
+     * Completes swaps of compacted documents interrupted before they were unmarked as pending
+     * (see {@link Compactor#completePending(MongoCollection, Document)}), otherwise their counts would be skipped
+     * when merged chunks were already removed.
+     */
+    private void completePending() {
+        Compactor.completePending(collection, sourceNameFilter());
+    }
+
+    /**
+     * Fails if there are chunks in the blob format, which can be aggregated only in this process.
+     */
+    private void checkServerReadable() {
+        if (collection.count(sourceFilter().append("blob", new Document("$exists", true))) > 0) {
+            throw new IllegalStateException("Chunks stored in blob format can be aggregated only by client aggregation");
+        }
+    }
+
+    /**
+     * Returns count as int if possible, like {@code $sum} operator does.
+     */
+    static Number toBsonNumber(long count) {
+        return count <= Integer.MAX_VALUE ? (Number) Integer.valueOf((int) count) : (Number) Long.valueOf(count);
     }
 
     /**
@@ -51,13 +672,34 @@ public class Aggregator {
      * @param outputCollectionName collection for aggregated data
      */
     public void mapReduce(String outputCollectionName) {
-        String mapper = "function() { for (var i = 0, len = this.words.length; i < len; i++) { emit(this.words[i].word, this.words[i].cnt) } }";
+        checkNotShared(outputCollectionName);
+        completePending();
+        checkServerReadable();
+        String mapper = "function() { for (var i = 0, len = this.words.length; i < len; i++) { "
+                + "if (this.counts) { emit(this.words[i], this.counts[i]) } else { emit(this.words[i].word, this.words[i].cnt) } } }";
         String reducer = "function(key, values) { return Array.sum(values) }";
         collection.mapReduce(mapper, reducer)
             .collectionName(outputCollectionName)
-            .filter(new Document("source", inputFileName))
+            .filter(sourceFilter())
             //GS???.verbose(true)
             .toCollection();
+        resetState(outputCollectionName);
+        outputChanged(outputCollectionName);
+    }
+
+    /**
+     * Returns filter of chunks of all aggregated files.
+     * 
+     * Compacted documents not swapped in yet are skipped, their chunks are still counted separately.
+     */
+    private Document sourceFilter() {
+        return sourceNameFilter().append(Compactor.PENDING_FIELD, new Document("$exists", false));
+    }
+
+    private Document sourceNameFilter() {
+        return sources.size() == 1
+                ? new Document("source", sources.get(0))
+                : new Document("source", new Document("$in", sources));
     }
 
 }
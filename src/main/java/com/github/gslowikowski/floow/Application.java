@@ -1,6 +1,15 @@
 package com.github.gslowikowski.floow;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import javax.management.JMException;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.DefaultParser;
@@ -29,6 +38,8 @@ public class Application {
     public static final int DEFAULT_IMPORT_SKIP = 0;
     public static final int DEFAULT_IMPORT_LIMIT = 1000000;//TEMP 0;
     public static final int DEFAULT_CHUNK_SIZE = 100000;
+    public static final int DEFAULT_THREADS = 1;
+    public static final int DEFAULT_WINDOW_SECONDS = 10;
 
     public static final String PARAM_HELP = "help";
 
@@ -37,18 +48,49 @@ public class Application {
     public static final String PARAM_MONGO_ADDRESS = "mongo";
     public static final String PARAM_MONGO_DATABASE = "mongoDatabase";
     public static final String PARAM_MONGO_COLLECTION = "mongoCollection";
+    public static final String PARAM_PARTITIONED = "partitioned";
 
     public static final String PARAM_SKIP = "sourceLinesSkip";
     public static final String PARAM_LIMIT = "sourceLinesLimit";
     public static final String PARAM_CHUNK_SIZE = "chunk";
+    public static final String PARAM_CHUNK_WORDS = "chunkWords";
+    public static final String PARAM_CHUNK_BYTES = "chunkBytes";
+    public static final String PARAM_CHUNK_TOP_K = "chunkTopK";
+    public static final String PARAM_CHUNK_FORMAT = "chunkFormat";
+    public static final String PARAM_TOKENIZER = "tokenizer";
+    public static final String PARAM_MIN_WORD_LENGTH = "minWordLength";
+    public static final String PARAM_STOPWORDS = "stopwords";
+    public static final String PARAM_THREADS = "threads";
+    public static final String PARAM_LINE_INDEX = "lineIndex";
+    public static final String PARAM_WRITERS = "writers";
+    public static final String PARAM_WRITE_QUEUE = "writeQueue";
+    public static final String PARAM_RESUME = "resume";
+    public static final String PARAM_WORKER = "worker";
+    public static final String PARAM_LEASE = "lease";
+    public static final String PARAM_SPILL = "spill";
+    public static final String PARAM_SPILL_DIR = "spillDir";
+    public static final String PARAM_WHOLE_RANGE = "wholeRange";
+    public static final String PARAM_METRICS_PORT = "metricsPort";
+    public static final String PARAM_METRICS_REPORT = "metricsReport";
+    public static final String PARAM_FOLLOW = "follow";
+    public static final String PARAM_WINDOW = "window";
+    public static final String PARAM_COMPACT = "compact";
 
     public static final String PARAM_NOIMPORT = "noImport";
     public static final String PARAM_AGGREGATE = "aggregate";
+    public static final String PARAM_AGGREGATE_INCREMENTAL = "aggregateIncremental";
+    public static final String PARAM_AGGREGATE_PARTITIONS = "aggregatePartitions";
+    public static final String PARAM_CLIENT_AGGREGATE = "clientAggregate";
     public static final String PARAM_MAPREDUCE = "mapReduce";
+    public static final String PARAM_TOP_K = "topK";
+
+    public static final String PARAM_SERVE = "serve";
+    public static final String PARAM_SERVE_PORT = "servePort";
+    public static final String PARAM_SERVE_CACHE = "serveCache";
 
     public static final Logger log = LoggerFactory.getLogger(Application.class);
 
-    public static void main(String[] args) throws IOException, ParseException {
+    public static void main(String[] args) throws IOException, ParseException, InterruptedException {
         if (args.length == 0) {
             usage();
         }
@@ -83,6 +125,7 @@ public class Application {
 
                 String mongoDatabase = cmdLine.getOptionValue(PARAM_MONGO_DATABASE, DEFAULT_MONGO_DATABASE);
                 String mongoCollection = cmdLine.getOptionValue(PARAM_MONGO_COLLECTION, DEFAULT_MONGO_COLLECTION);
+                boolean isPartitioned = cmdLine.hasOption(PARAM_PARTITIONED);
 
                 boolean isNoImport = cmdLine.hasOption(PARAM_NOIMPORT);
 
@@ -90,73 +133,521 @@ public class Application {
                 String aggregateOutputCollection = isAggregate
                         ? cmdLine.getOptionValue(PARAM_AGGREGATE, mongoCollection + "_aggr") : null;
 
+                int aggregatePartitions = getIntOption(cmdLine, PARAM_AGGREGATE_PARTITIONS, 1);
+                if (aggregatePartitions < 1 || aggregatePartitions > Aggregator.MAX_PARTITIONS) {
+                    throw new ParseException(String.format("%d is not a valid number of partitions (1-%d)", aggregatePartitions, Aggregator.MAX_PARTITIONS));
+                }
+
+                boolean isAggregateIncremental = cmdLine.hasOption(PARAM_AGGREGATE_INCREMENTAL);
+                String aggregateIncrementalOutputCollection = isAggregateIncremental
+                        ? cmdLine.getOptionValue(PARAM_AGGREGATE_INCREMENTAL, mongoCollection + "_aggr") : null;
+
+                boolean isClientAggregate = cmdLine.hasOption(PARAM_CLIENT_AGGREGATE);
+                String clientAggregateOutputCollection = isClientAggregate
+                        ? cmdLine.getOptionValue(PARAM_CLIENT_AGGREGATE, mongoCollection + "_client") : null;
+
                 boolean isMapReduce = cmdLine.hasOption(PARAM_MAPREDUCE);
                 String mapReduceOutputCollection = isMapReduce
                         ? cmdLine.getOptionValue(PARAM_MAPREDUCE, mongoCollection + "_mr") : null;
 
+                boolean isTopK = cmdLine.hasOption(PARAM_TOP_K);
+                int topK = getIntOption(cmdLine, PARAM_TOP_K, 0);
+                if (isTopK && topK < 1) {
+                    throw new ParseException(String.format("-%s must be positive", PARAM_TOP_K));
+                }
+                String topKOutputCollection = mongoCollection + "_topk";
+
+                boolean isServe = cmdLine.hasOption(PARAM_SERVE);
+                String serveCollection = isServe
+                        ? cmdLine.getOptionValue(PARAM_SERVE, mongoCollection + "_aggr") : null;
+                int servePort = getIntOption(cmdLine, PARAM_SERVE_PORT, QueryServer.DEFAULT_PORT);
+                int serveCache = getIntOption(cmdLine, PARAM_SERVE_CACHE, QueryServer.DEFAULT_CACHE_SIZE);
+                if (servePort < 0 || serveCache < 0) {
+                    throw new ParseException(String.format("-%s and -%s must not be negative", PARAM_SERVE_PORT, PARAM_SERVE_CACHE));
+                }
+
                 String serverId = cmdLine.getOptionValue(PARAM_ID);
 
                 int importSkip = getIntOption(cmdLine, PARAM_SKIP, DEFAULT_IMPORT_SKIP);
                 int importLimit = getIntOption(cmdLine, PARAM_LIMIT, DEFAULT_IMPORT_LIMIT);
                 int chunkSize = getIntOption(cmdLine, PARAM_CHUNK_SIZE, DEFAULT_CHUNK_SIZE);
+                int chunkWords = getIntOption(cmdLine, PARAM_CHUNK_WORDS, 0);
+                int chunkBytes = getIntOption(cmdLine, PARAM_CHUNK_BYTES, 0);
+                int chunkTopK = getIntOption(cmdLine, PARAM_CHUNK_TOP_K, Importer.DEFAULT_TOP_K);
+                ChunkFormat chunkFormat = getChunkFormatOption(cmdLine, PARAM_CHUNK_FORMAT, ChunkFormat.LIST);
+                int threads = getIntOption(cmdLine, PARAM_THREADS, DEFAULT_THREADS);
+                if (threads < 1) {
+                    throw new ParseException(threads + " is not a valid number of threads");
+                }
+                boolean isGzip = new File(source).isFile() && GzipSource.isGzip(new File(source));
+                if (threads > 1 && !isGzip && (cmdLine.hasOption(PARAM_SKIP) || cmdLine.hasOption(PARAM_LIMIT))) {
+                    throw new ParseException(String.format("-%s cannot be used with -%s or -%s", PARAM_THREADS, PARAM_SKIP, PARAM_LIMIT));
+                }
 
-                MongoClient client = new MongoClient(mongoHost, mongoPort);
-                try {
-                    MongoDatabase db = client.getDatabase(mongoDatabase);
+                boolean isResume = cmdLine.hasOption(PARAM_RESUME);
+                if (isResume && (threads > 1 || isGzip)) {
+                    throw new ParseException(String.format("-%s cannot be used with -%s or compressed source", PARAM_RESUME, PARAM_THREADS));
+                }
 
-                    MongoCollection<Document> collection = db.getCollection(mongoCollection);
+                boolean isWorker = cmdLine.hasOption(PARAM_WORKER);
+                int segmentMegabytes = getIntOption(cmdLine, PARAM_WORKER, (int) (Worker.DEFAULT_SEGMENT_BYTES / (1024 * 1024)));
+                int leaseSeconds = getIntOption(cmdLine, PARAM_LEASE, Worker.DEFAULT_LEASE_SECONDS);
+                if (isWorker && isGzip) {
+                    throw new ParseException(String.format("-%s cannot be used with compressed source", PARAM_WORKER));
+                }
+                if (isWorker && (serverId != null || isResume || cmdLine.hasOption(PARAM_SKIP) || cmdLine.hasOption(PARAM_LIMIT))) {
+                    throw new ParseException(String.format("-%s cannot be used with -%s, -%s, -%s or -%s", PARAM_WORKER, PARAM_ID, PARAM_RESUME, PARAM_SKIP, PARAM_LIMIT));
+                }
+                if (segmentMegabytes < 1 || leaseSeconds < 1) {
+                    throw new ParseException(String.format("-%s and -%s must be positive", PARAM_WORKER, PARAM_LEASE));
+                }
 
-                    // Import only when -noimport parameter not specified
-                    if (!isNoImport) {
-                        File f = new File(source);
-                        if (!f.exists()) {
-                            throw new IllegalArgumentException("Source does not exist");
-                        }
-                        if (!f.isFile()) {
-                            throw new IllegalArgumentException("Source is not a file");
-                        }
+                boolean isLineIndex = cmdLine.hasOption(PARAM_LINE_INDEX);
+                int lineIndexInterval = getIntOption(cmdLine, PARAM_LINE_INDEX, LineIndex.DEFAULT_INTERVAL);
+                if (lineIndexInterval < 1) {
+                    throw new ParseException(lineIndexInterval + " is not a valid line index interval");
+                }
 
-                        Importer imp = new Importer(source, serverId, collection);
-                        BufferedReader r = new BufferedReader(
-                                new InputStreamReader(new FileInputStream(f), "UTF-8"));
+                boolean isMultiFile = FileScheduler.isMultiFile(source);
+                if (isMultiFile && (isResume || isWorker || isLineIndex || cmdLine.hasOption(PARAM_SKIP) || cmdLine.hasOption(PARAM_LIMIT))) {
+                    throw new ParseException(String.format("Directory or pattern source cannot be used with -%s, -%s, -%s, -%s or -%s",
+                            PARAM_RESUME, PARAM_WORKER, PARAM_LINE_INDEX, PARAM_SKIP, PARAM_LIMIT));
+                }
+                List<File> sourceFiles = isMultiFile ? FileScheduler.expand(source) : null;
+                if (isMultiFile && sourceFiles.isEmpty()) {
+                    throw new IllegalArgumentException("No source files match " + source);
+                }
+
+                boolean isFollow = cmdLine.hasOption(PARAM_FOLLOW);
+                boolean isStream = isFollow || StreamSource.STDIN.equals(source);
+                if (isFollow && !isNoImport && !new File(source).isFile()) {
+                    throw new IllegalArgumentException("Source is not a file");
+                }
+                int windowSeconds = getIntOption(cmdLine, PARAM_WINDOW, DEFAULT_WINDOW_SECONDS);
+                if (windowSeconds < 1) {
+                    throw new ParseException(String.format("-%s must be positive", PARAM_WINDOW));
+                }
+                if (isStream && (isResume || isWorker || isLineIndex || isMultiFile || isGzip || threads > 1
+                        || cmdLine.hasOption(PARAM_SKIP) || cmdLine.hasOption(PARAM_LIMIT))) {
+                    throw new ParseException(String.format("Standard input or -%s cannot be used with -%s, -%s, -%s, -%s, -%s, -%s, directory, pattern or compressed source",
+                            PARAM_FOLLOW, PARAM_RESUME, PARAM_WORKER, PARAM_LINE_INDEX, PARAM_THREADS, PARAM_SKIP, PARAM_LIMIT));
+                }
+
+                boolean isCompact = cmdLine.hasOption(PARAM_COMPACT);
+                int compactMegabytes = getIntOption(cmdLine, PARAM_COMPACT, (int) (Compactor.DEFAULT_TARGET_BYTES / (1024 * 1024)));
+                if (compactMegabytes < 1) {
+                    throw new ParseException(String.format("-%s must be positive", PARAM_COMPACT));
+                }
+                if (isCompact && isStream) {
+                    throw new ParseException(String.format("-%s cannot be used with -%s or standard input", PARAM_COMPACT, PARAM_FOLLOW));
+                }
+
+                int writers = getIntOption(cmdLine, PARAM_WRITERS, ChunkWriter.DEFAULT_THREADS);
+                int writeQueue = getIntOption(cmdLine, PARAM_WRITE_QUEUE, ChunkWriter.DEFAULT_QUEUE_SIZE);
+                if (writers < 0 || writeQueue < 1) {
+                    throw new ParseException(String.format("-%s must not be negative and -%s must be positive", PARAM_WRITERS, PARAM_WRITE_QUEUE));
+                }
+
+                int spillMegabytes = getIntOption(cmdLine, PARAM_SPILL, 0);
+                if (spillMegabytes < 0) {
+                    throw new ParseException(String.format("-%s must not be negative", PARAM_SPILL));
+                }
+                File spillDir = cmdLine.hasOption(PARAM_SPILL_DIR) ? new File(cmdLine.getOptionValue(PARAM_SPILL_DIR)) : null;
+
+                boolean isWholeRange = cmdLine.hasOption(PARAM_WHOLE_RANGE);
+                if (isWholeRange && (isStream || spillMegabytes > 0)) {
+                    throw new ParseException(String.format("-%s cannot be used with -%s, -%s or standard input", PARAM_WHOLE_RANGE, PARAM_SPILL, PARAM_FOLLOW));
+                }
+
+                TokenizerType tokenizer = getTokenizerOption(cmdLine, PARAM_TOKENIZER, TokenizerType.ASCII);
+                int minWordLength = getIntOption(cmdLine, PARAM_MIN_WORD_LENGTH, 0);
+                WordFilter wordFilter = null;
+                if (minWordLength > 1 || cmdLine.hasOption(PARAM_STOPWORDS)) {
+                    wordFilter = new WordFilter(minWordLength);
+                    if (cmdLine.hasOption(PARAM_STOPWORDS)) {
+                        String stopwords = cmdLine.getOptionValue(PARAM_STOPWORDS);
+                        BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(stopwords), StandardCharsets.UTF_8));
                         try {
-                            long startTs = System.currentTimeMillis();
-                            imp.cleanData();
-                            imp.importInChunks(r, importSkip, importLimit, chunkSize);
-                            long endTs = System.currentTimeMillis();
-                            log.info(String.format("Imported data in %d seconds.", (endTs-startTs)/1000));
+                            wordFilter.addStopwords(r, tokenizer);
                         }
                         finally {
                             r.close();
                         }
+                        log.info(String.format("Loaded %d stopwords from %s", wordFilter.getStopwordCount(), stopwords));
                     }
+                }
+                WordFilter importWordFilter = wordFilter;
+
+                int metricsPort = getIntOption(cmdLine, PARAM_METRICS_PORT, -1);
+                File metricsReport = cmdLine.hasOption(PARAM_METRICS_REPORT) ? new File(cmdLine.getOptionValue(PARAM_METRICS_REPORT)) : null;
 
-                    // Aggregate only if -aggregate or -mapReduce parameter specified
-                    if (isAggregate || isMapReduce) {
-                        Aggregator aggr = new Aggregator(collection, source);
+                Metrics metrics = new Metrics();
+                try {
+                    metrics.register();
+                }
+                catch (JMException e) {
+                    log.warn("Cannot publish metrics via JMX", e);
+                }
+                if (metricsPort >= 0) {
+                    metrics.startHttpServer(metricsPort);
+                }
 
-                        if (isAggregate) {
-                            long startTs = System.currentTimeMillis();
-                            aggr.aggregate(aggregateOutputCollection);
-                            long endTs = System.currentTimeMillis();
-                            log.info(String.format("Aggregated results in %d seconds.", (endTs-startTs)/1000));
+                MongoClient client = new MongoClient(mongoHost, mongoPort);
+                try {
+                    MongoDatabase db = client.getDatabase(mongoDatabase);
+
+                    // chunks of the source only in partitioned layout
+                    MongoCollection<Document> collection = db.getCollection(isPartitioned ? Importer.partitionName(mongoCollection, source) : mongoCollection);
+
+                    // the same settings for importers of all import modes
+                    Consumer<Importer> configureImporter = importer -> {
+                        importer.setChunkLimits(chunkWords, chunkBytes);
+                        importer.setChunkTopK(chunkTopK);
+                        importer.setChunkFormat(chunkFormat);
+                        importer.setSpillLimit(spillMegabytes * 1024L * 1024, spillDir);
+                        importer.setWholeRange(isWholeRange);
+                        importer.setTokenizer(tokenizer);
+                        importer.setWordFilter(importWordFilter);
+                        importer.setMetrics(metrics);
+                    };
+                    // compacted documents have the same format as imported ones
+                    Function<String, Compactor> newCompactor = compactedSource -> {
+                        Compactor compactor = new Compactor(compactedSource, collection);
+                        compactor.setChunkFormat(chunkFormat);
+                        compactor.setChunkTopK(chunkTopK);
+                        compactor.setTargetBytes(compactMegabytes * 1024L * 1024);
+                        return compactor;
+                    };
+                    Supplier<ChunkWriter> newWriter = () -> {
+                        ChunkWriter writer = new ChunkWriter(collection, writers, writeQueue, ChunkWriter.DEFAULT_BATCH_SIZE);
+                        writer.setMetrics(metrics);
+                        return writer;
+                    };
+                    List<String> sourceNames = isMultiFile
+                            ? sourceFiles.stream().map(FileScheduler::sourceName).collect(Collectors.toList())
+                            : Collections.singletonList(source);
+
+                    // Import only when -noimport parameter not specified
+                    QueryServer server = null;
+                    if (!isNoImport && isStream) {
+                        if (isServe) {
+                            // serve counts aggregated after every window
+                            server = startQueryServer(db, serveCollection, serveCache, servePort, tokenizer);
                         }
+                        importStream(db, collection, configureImporter, metrics, newWriter, source, serverId, isFollow, isPartitioned,
+                                chunkSize, windowSeconds, aggregateIncrementalOutputCollection);
+                    }
+                    else if (!isNoImport && isMultiFile) {
+                        importFiles(collection, configureImporter, newWriter, sourceFiles, serverId, isPartitioned, threads, chunkSize);
+                    }
+                    else if (!isNoImport && isWorker) {
+                        // segments are compacted while other segments are imported
+                        importSegments(db, collection, configureImporter, metrics, source, writers, writeQueue, leaseSeconds,
+                                isCompact ? newCompactor.apply(source) : null, threads, segmentMegabytes, chunkSize);
+                    }
+                    else if (!isNoImport) {
+                        importFile(collection, configureImporter, newWriter, source, serverId, isPartitioned, isResume, isGzip,
+                                isLineIndex ? lineIndexInterval : 0, importSkip, importLimit, threads, chunkSize);
+                    }
 
-                        if (isMapReduce) {
-                            long startTs = System.currentTimeMillis();
-                            aggr.mapReduce(mapReduceOutputCollection);
-                            long endTs = System.currentTimeMillis();
-                            log.info(String.format("MapReduced results in %d seconds.", (endTs-startTs)/1000));
+                    // Compact chunks imported above (or before, with -noImport), unless compacted by workers
+                    if (isCompact && (isNoImport || !isWorker)) {
+                        compact(newCompactor, sourceNames, serverId);
+                    }
+
+                    // Aggregate only if -aggregate, -aggregateIncremental, -clientAggregate, -mapReduce or -topK parameter specified
+                    if (isAggregate || isAggregateIncremental || isClientAggregate || isMapReduce || isTopK) {
+                        // all processors by default, import threads do not work at the same time
+                        int aggregateThreads = cmdLine.hasOption(PARAM_THREADS) ? threads : Runtime.getRuntime().availableProcessors();
+                        aggregate(new Aggregator(db, collection, source, sourceNames), metrics, serverId,
+                                aggregateOutputCollection, aggregatePartitions, aggregateIncrementalOutputCollection,
+                                clientAggregateOutputCollection, aggregateThreads, mapReduceOutputCollection, topKOutputCollection, topK);
+                    }
+
+                    // Serve results until the process is stopped
+                    if (isServe) {
+                        if (server == null) {
+                            startQueryServer(db, serveCollection, serveCache, servePort, tokenizer);
                         }
+                        serve(serveCollection);
                     }
                 }
                 finally {
                     client.close();
+                    if (metricsReport != null) {
+                        metrics.writeReport(metricsReport);
+                        log.info("Saved metrics report to " + metricsReport);
+                    }
+                    metrics.close();
                 }
             }
         }
     }
 
+    /**
+     * Imports standard input or a followed file window by window, aggregating every window incrementally
+     * into the output collection, if given.
+     */
+    private static void importStream(MongoDatabase db, MongoCollection<Document> collection, Consumer<Importer> configureImporter,
+            Metrics metrics, Supplier<ChunkWriter> newWriter, String source, String serverId, boolean isFollow, boolean isPartitioned,
+            int chunkSize, int windowSeconds, String aggregateIncrementalOutputCollection) throws IOException {
+        ChunkWriter writer = newWriter.get();
+        Importer imp = new Importer(source, serverId, collection, writer);
+        configureImporter.accept(imp);
+        imp.setPartitioned(isPartitioned);
+        imp.cleanData();
+        Aggregator streamAggr = aggregateIncrementalOutputCollection != null ? new Aggregator(db, collection, source) : null;
+        StreamSource stream = isFollow ? new StreamSource(new File(source), StreamSource.DEFAULT_POLL_MILLIS) : new StreamSource(System.in);
+        try {
+            imp.importStream(stream, chunkSize, windowSeconds * 1000L, (windowStart, windowEnd) -> {
+                writer.flush(); // all chunks of the window are aggregated
+                if (streamAggr != null) {
+                    long startTs = System.currentTimeMillis();
+                    streamAggr.aggregateIncremental(aggregateIncrementalOutputCollection, serverId);
+                    metrics.addPhase(Metrics.Phase.AGGREGATE, (System.currentTimeMillis()-startTs) * 1000000L);
+                }
+                log.info(String.format("Imported window %tT-%tT (%d lines so far).", windowStart, windowEnd, metrics.getLines()));
+            });
+        }
+        catch (Throwable e) {
+            writer.closeAfter(e);
+            throw e;
+        }
+        finally {
+            stream.close();
+        }
+        writer.close(); // waits for queued chunks
+    }
+
+    /**
+     * Imports many files, every file by its own importer, all of them sharing writers.
+     */
+    private static void importFiles(MongoCollection<Document> collection, Consumer<Importer> configureImporter,
+            Supplier<ChunkWriter> newWriter, List<File> sourceFiles, String serverId, boolean isPartitioned,
+            int threads, int chunkSize) throws IOException {
+        if (isPartitioned) {
+            collection.drop(); // the partition of all the files
+        }
+        ChunkWriter writer = newWriter.get();
+        FileScheduler scheduler = new FileScheduler(sourceFiles, fileSource -> {
+            Importer fileImporter = new Importer(fileSource, serverId, collection, writer);
+            configureImporter.accept(fileImporter);
+            return fileImporter;
+        });
+        long startTs = System.currentTimeMillis();
+        try {
+            scheduler.run(threads, chunkSize);
+        }
+        catch (Throwable e) {
+            writer.closeAfter(e);
+            throw e;
+        }
+        writer.close(); // waits for queued chunks
+        long endTs = System.currentTimeMillis();
+        log.info(String.format("Imported %d files in %d seconds using %d threads.", sourceFiles.size(), (endTs-startTs)/1000, threads));
+    }
+
+    /**
+     * Imports segments of the source file not imported by other workers yet, every segment by a new importer
+     * with its own writer.
+     *
+     * @param compactor compactor of imported segments ({@code null} if they are not compacted)
+     */
+    private static void importSegments(MongoDatabase db, MongoCollection<Document> collection, Consumer<Importer> configureImporter,
+            Metrics metrics, String source, int writers, int writeQueue, int leaseSeconds, Compactor compactor,
+            int threads, int segmentMegabytes, int chunkSize) throws IOException {
+        Worker worker = new Worker(db, collection, source, sourceFile(source), (id, segmentWriter) -> {
+            Importer segmentImporter = new Importer(source, id, collection, segmentWriter);
+            configureImporter.accept(segmentImporter);
+            segmentWriter.setMetrics(metrics);
+            return segmentImporter;
+        });
+        worker.setLeaseSeconds(leaseSeconds);
+        worker.setWriters(writers, writeQueue);
+        worker.setCompactor(compactor);
+        long startTs = System.currentTimeMillis();
+        int segments = worker.run(threads, segmentMegabytes * 1024L * 1024, chunkSize);
+        long endTs = System.currentTimeMillis();
+        log.info(String.format("Imported %d segments in %d seconds using %d threads.", segments, (endTs-startTs)/1000, threads));
+    }
+
+    /**
+     * Imports single source file, resuming interrupted import or seeking skipped lines via line index if requested.
+     *
+     * @param lineIndexInterval interval of line index (0 if skipped lines are read)
+     */
+    private static void importFile(MongoCollection<Document> collection, Consumer<Importer> configureImporter,
+            Supplier<ChunkWriter> newWriter, String source, String serverId, boolean isPartitioned, boolean isResume, boolean isGzip,
+            int lineIndexInterval, int importSkip, int importLimit, int threads, int chunkSize) throws IOException {
+        File f = sourceFile(source);
+        ChunkWriter writer = newWriter.get();
+        Importer imp = new Importer(source, serverId, collection, writer);
+        configureImporter.accept(imp);
+        imp.setPartitioned(isPartitioned);
+        long startTs = System.currentTimeMillis();
+        try {
+            if (!isResume) {
+                imp.cleanData();
+            }
+            if (isGzip) {
+                imp.importGzip(f, importSkip, importLimit, chunkSize, threads);
+            }
+            else if (threads > 1) {
+                imp.importInParallel(f, threads, chunkSize);
+            }
+            else {
+                FileRange range = new FileRange(f, 0L, f.length());
+                Checkpoint checkpoint = isResume ? imp.resume() : null;
+                boolean isComplete = false;
+                if (checkpoint != null) {
+                    // seek to the first line after the last saved chunk, skipped lines are before it
+                    log.info("Resuming import after " + checkpoint);
+                    range = new FileRange(f, checkpoint.getOffset(), f.length());
+                    importSkip = 0;
+                    if (importLimit > 0) {
+                        isComplete = checkpoint.getLines() >= importLimit;
+                        importLimit -= (int) Math.min(checkpoint.getLines(), importLimit);
+                    }
+                }
+                else if (lineIndexInterval > 0 && importSkip > 0) {
+                    // seek to the nearest indexed line, skip only the remaining lines
+                    LineIndex index = LineIndex.loadOrBuild(f, lineIndexInterval);
+                    int startLine = index.floorLine(importSkip);
+                    range = new FileRange(f, index.offsetOf(startLine), f.length());
+                    importSkip -= startLine;
+                }
+                if (!isComplete) {
+                    imp.importInChunks(range, importSkip, importLimit, chunkSize);
+                }
+            }
+        }
+        catch (Throwable e) {
+            writer.closeAfter(e);
+            throw e;
+        }
+        writer.close(); // waits for queued chunks
+        long endTs = System.currentTimeMillis();
+        log.info(String.format("Imported data in %d seconds using %d threads.", (endTs-startTs)/1000, threads));
+    }
+
+    private static File sourceFile(String source) {
+        File f = new File(source);
+        if (!f.exists()) {
+            throw new IllegalArgumentException("Source does not exist");
+        }
+        if (!f.isFile()) {
+            throw new IllegalArgumentException("Source is not a file");
+        }
+        return f;
+    }
+
+    private static void compact(Function<String, Compactor> newCompactor, List<String> sourceNames, String serverId) {
+        long startTs = System.currentTimeMillis();
+        int merged = 0;
+        int created = 0;
+        for (String compactSource: sourceNames) {
+            Compactor compactor = newCompactor.apply(compactSource);
+            compactor.compact(serverId);
+            merged += compactor.getMergedDocuments();
+            created += compactor.getCreatedDocuments();
+        }
+        long endTs = System.currentTimeMillis();
+        log.info(String.format("Compacted %d chunk documents into %d in %d seconds.", merged, created, (endTs-startTs)/1000));
+    }
+
+    /**
+     * Runs requested aggregations one after another, every output collection is {@code null} if it is not requested.
+     *
+     * @param topK number of the most frequent words to find (0 if they are not requested)
+     */
+    private static void aggregate(Aggregator aggr, Metrics metrics, String serverId,
+            String aggregateOutputCollection, int aggregatePartitions, String aggregateIncrementalOutputCollection,
+            String clientAggregateOutputCollection, int aggregateThreads, String mapReduceOutputCollection,
+            String topKOutputCollection, int topK) throws InterruptedException {
+        if (aggregateOutputCollection != null) {
+            long startTs = System.currentTimeMillis();
+            if (aggregatePartitions > 1) {
+                aggr.aggregatePartitioned(aggregateOutputCollection, aggregatePartitions);
+            }
+            else {
+                aggr.aggregate(aggregateOutputCollection);
+            }
+            long endTs = System.currentTimeMillis();
+            metrics.addPhase(Metrics.Phase.AGGREGATE, (endTs-startTs) * 1000000L);
+            log.info(String.format("Aggregated results in %d seconds.", (endTs-startTs)/1000));
+        }
+
+        if (aggregateIncrementalOutputCollection != null) {
+            long startTs = System.currentTimeMillis();
+            aggr.aggregateIncremental(aggregateIncrementalOutputCollection, serverId);
+            long endTs = System.currentTimeMillis();
+            metrics.addPhase(Metrics.Phase.AGGREGATE, (endTs-startTs) * 1000000L);
+            log.info(String.format("Aggregated new results incrementally in %d seconds.", (endTs-startTs)/1000));
+        }
+
+        if (clientAggregateOutputCollection != null) {
+            long startTs = System.currentTimeMillis();
+            aggr.clientAggregate(clientAggregateOutputCollection, aggregateThreads);
+            long endTs = System.currentTimeMillis();
+            metrics.addPhase(Metrics.Phase.AGGREGATE, (endTs-startTs) * 1000000L);
+            log.info(String.format("Aggregated results in this process in %d seconds using %d threads.", (endTs-startTs)/1000, aggregateThreads));
+        }
+
+        if (mapReduceOutputCollection != null) {
+            long startTs = System.currentTimeMillis();
+            aggr.mapReduce(mapReduceOutputCollection);
+            long endTs = System.currentTimeMillis();
+            metrics.addPhase(Metrics.Phase.AGGREGATE, (endTs-startTs) * 1000000L);
+            log.info(String.format("MapReduced results in %d seconds.", (endTs-startTs)/1000));
+        }
+
+        if (topK > 0) {
+            long startTs = System.currentTimeMillis();
+            List<Document> topWords = aggr.topK(topKOutputCollection, topK);
+            long endTs = System.currentTimeMillis();
+            metrics.addPhase(Metrics.Phase.AGGREGATE, (endTs-startTs) * 1000000L);
+            for (Document topWord: topWords) {
+                log.info(String.format("%s: %s (at most %s)", topWord.get("_id"), topWord.get("count"), topWord.get("maxCount")));
+            }
+            log.info(String.format("Found top %d words in %d milliseconds.", topWords.size(), endTs-startTs));
+        }
+    }
+
+    /**
+     * Waits until the process is stopped, while query servers answer requests.
+     *
+     * When the process is stopped, the main thread is interrupted and the shutdown waits for it,
+     * so the client is closed and the metrics report saved by the caller.
+     */
+    private static void serve(String serveCollection) {
+        Thread serving = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            serving.interrupt();
+            try {
+                serving.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        try {
+            serving.join();
+        }
+        catch (InterruptedException e) {
+            log.info("Stopped serving " + serveCollection);
+        }
+    }
+
+    private static QueryServer startQueryServer(MongoDatabase db, String collection, int cacheSize, int port,
+            TokenizerType tokenizer) throws IOException {
+        QueryServer server = new QueryServer(db.getCollection(collection), db.getCollection(collection + Aggregator.STATE_SUFFIX));
+        server.setCacheSize(cacheSize);
+        server.setTokenizer(tokenizer);
+        server.start(port);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        return server;
+    }
+
     private static void usage() {
         HelpFormatter formatter = new HelpFormatter();
         formatter.printHelp( "java -jar challenge.jar", createOptions() );
@@ -170,7 +661,7 @@ public class Application {
         )
         .addOption(
             Option.builder(PARAM_SOURCE) // source
-                .desc("source file name")
+                .desc(String.format("source file name (\"%s\" for standard input), directory or pattern (e.g. \"dumps/*.txt\") of many source files", StreamSource.STDIN))
                 .hasArg()
                 .argName("file_name")
                 .build()
@@ -196,6 +687,11 @@ public class Application {
                 .argName("collection_name")
                 .build()
         )
+        .addOption(
+            Option.builder(PARAM_PARTITIONED) // partitioned
+                .desc("store chunks of the source in its own collection <collection_name>.<source>, dropped instead of removing chunks when the source is imported again")
+                .build()
+        )
         .addOption(
             Option.builder(PARAM_ID) // id
                 .desc("server hostname/id string (null by default)")
@@ -220,15 +716,181 @@ public class Application {
         )
         .addOption(
             Option.builder(PARAM_CHUNK_SIZE) // chunk
-                .desc("number of lines to preaggregate into single document (100000 by default)")
+                .desc("number of lines to preaggregate into single document (100000 by default, 0 means no line limit)")
                 .hasArg()
                 .type(Integer.class)
                 .argName("chunk_size")
                 .build()
         )
+        .addOption(
+            Option.builder(PARAM_CHUNK_WORDS) // chunkWords
+                .desc("maximum number of distinct words preaggregated into single document (unlimited by default)")
+                .hasArg()
+                .type(Integer.class)
+                .argName("words")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_CHUNK_BYTES) // chunkBytes
+                .desc("maximum estimated size of single document in bytes (unlimited by default)")
+                .hasArg()
+                .type(Integer.class)
+                .argName("bytes")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_CHUNK_TOP_K) // chunkTopK
+                .desc(String.format("number of the most frequent words summarized in every document for -%s (%d by default)", PARAM_TOP_K, Importer.DEFAULT_TOP_K))
+                .hasArg()
+                .type(Integer.class)
+                .argName("k")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_CHUNK_FORMAT) // chunkFormat
+                .desc(String.format("format of word counts in documents: list, columnar or blob (list by default, blob can be aggregated only with -%s)", PARAM_CLIENT_AGGREGATE))
+                .hasArg()
+                .argName("format")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_TOKENIZER) // tokenizer
+                .desc(String.format("words of source file and of -%s queries: ascii (ASCII letters only) or unicode (case-folded letters of all scripts) (ascii by default)", PARAM_SERVE))
+                .hasArg()
+                .argName("tokenizer")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_MIN_WORD_LENGTH) // minWordLength
+                .desc("do not count words shorter than n characters (all words by default)")
+                .hasArg()
+                .type(Integer.class)
+                .argName("n")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_STOPWORDS) // stopwords
+                .desc("do not count words listed in UTF-8 file, one or more per line (all words by default)")
+                .hasArg()
+                .argName("file_name")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_THREADS) // threads
+                .desc(String.format("number of threads importing source file byte ranges concurrently or decompressing gzip source (%d by default, cannot be used with -%s or -%s for uncompressed source)", DEFAULT_THREADS, PARAM_SKIP, PARAM_LIMIT))
+                .hasArg()
+                .type(Integer.class)
+                .argName("threads")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_LINE_INDEX) // lineIndex
+                .desc(String.format("use line offsets index stored next to source file (built if missing or out of date) to seek to the first line to import, index every n-th line (%d by default)", LineIndex.DEFAULT_INTERVAL))
+                .hasArg()
+                .optionalArg(true)
+                .type(Integer.class)
+                .argName("n")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_WRITERS) // writers
+                .desc(String.format("number of threads inserting chunk documents in the background, 0 means inserting by import threads (%d by default)", ChunkWriter.DEFAULT_THREADS))
+                .hasArg()
+                .type(Integer.class)
+                .argName("threads")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_WRITE_QUEUE) // writeQueue
+                .desc(String.format("maximum number of chunk documents waiting for background insert (%d by default)", ChunkWriter.DEFAULT_QUEUE_SIZE))
+                .hasArg()
+                .type(Integer.class)
+                .argName("chunks")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_RESUME) // resume
+                .desc(String.format("resume interrupted import after the last saved chunk instead of importing the source again (cannot be used with -%s)", PARAM_THREADS))
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_WORKER) // worker
+                .desc(String.format("import segments of source file claimed in <collection_name>%s collection, together with other workers started with the same parameters, split file into segments of about mb megabytes (%d by default, cannot be used with -%s, -%s, -%s or -%s)",
+                        Worker.SEGMENTS_SUFFIX, Worker.DEFAULT_SEGMENT_BYTES / (1024 * 1024), PARAM_ID, PARAM_RESUME, PARAM_SKIP, PARAM_LIMIT))
+                .hasArg()
+                .optionalArg(true)
+                .type(Integer.class)
+                .argName("mb")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_LEASE) // lease
+                .desc(String.format("time after which segments of a worker, which stopped working, are imported by other workers (%d by default)", Worker.DEFAULT_LEASE_SECONDS))
+                .hasArg()
+                .type(Integer.class)
+                .argName("seconds")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_SPILL) // spill
+                .desc("maximum memory used for counting words of a chunk by every import thread, word counts above it are spilled to sorted temporary files merged when the chunk is saved (unlimited by default)")
+                .hasArg()
+                .type(Integer.class)
+                .argName("mb")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_SPILL_DIR) // spillDir
+                .desc(String.format("directory of temporary files written by -%s (system temporary directory by default)", PARAM_SPILL))
+                .hasArg()
+                .argName("dir")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_WHOLE_RANGE) // wholeRange
+                .desc(String.format("count words of the whole range imported by every thread (segment of -%s, file of a directory) in off-heap memory and save them once, split only by -%s, instead of chunks of -%s lines", PARAM_WORKER, PARAM_CHUNK_BYTES, PARAM_CHUNK_SIZE))
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_METRICS_PORT) // metricsPort
+                .desc(String.format("serve live metrics as JSON at http://localhost:port%s (metrics are always published via JMX as %s)", Metrics.HTTP_PATH, Metrics.OBJECT_NAME))
+                .hasArg()
+                .type(Integer.class)
+                .argName("port")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_METRICS_REPORT) // metricsReport
+                .desc("save metrics of the whole run as JSON report")
+                .hasArg()
+                .argName("file")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_FOLLOW) // follow
+                .desc(String.format("import lines appended to the source file until stopped, like tail -F (source \"%s\" means standard input)", StreamSource.STDIN))
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_WINDOW) // window
+                .desc(String.format("length of time windows of -%s or standard input import, chunks are saved and aggregated with -%s at the end of every window (%d by default)", PARAM_FOLLOW, PARAM_AGGREGATE_INCREMENTAL, DEFAULT_WINDOW_SECONDS))
+                .hasArg()
+                .type(Integer.class)
+                .argName("seconds")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_COMPACT) // compact
+                .desc(String.format("merge consecutive chunks of the source into pre-reduced documents of at most megabytes each (%d by default), imported segments are compacted in the background with -%s", Compactor.DEFAULT_TARGET_BYTES / (1024 * 1024), PARAM_WORKER))
+                .hasArg()
+                .optionalArg(true)
+                .type(Integer.class)
+                .argName("megabytes")
+                .build()
+        )
         .addOption(
             Option.builder(PARAM_NOIMPORT) // noImport
-                .desc(String.format("source is already imported, aggregate only (used with -%s or -%s)", PARAM_AGGREGATE, PARAM_MAPREDUCE))
+                .desc(String.format("source is already imported, aggregate or compact only (used with -%s, -%s, -%s, -%s, -%s or -%s)", PARAM_COMPACT, PARAM_AGGREGATE, PARAM_AGGREGATE_INCREMENTAL, PARAM_CLIENT_AGGREGATE, PARAM_MAPREDUCE, PARAM_TOP_K))
                 .build()
         )
         .addOption(
@@ -239,6 +901,30 @@ public class Application {
                 .argName("output_collection")
                 .build()
         )
+        .addOption(
+            Option.builder(PARAM_AGGREGATE_PARTITIONS) // aggregatePartitions
+                .desc(String.format("number of concurrent -%s pipelines, each for words with different first letters (1-%d, 1 by default)", PARAM_AGGREGATE, Aggregator.MAX_PARTITIONS))
+                .hasArg()
+                .type(Integer.class)
+                .argName("partitions")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_AGGREGATE_INCREMENTAL) // aggregateIncremental
+                .desc(String.format("after importing add counts of chunks not aggregated yet (only chunks with given -%s, if specified) to output collection using aggregation framework", PARAM_ID))
+                .hasArg()
+                .optionalArg(true)
+                .argName("output_collection")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_CLIENT_AGGREGATE) // clientAggregate
+                .desc(String.format("after importing aggregate data to output collection in this process, using -%s threads (all processors by default)", PARAM_THREADS))
+                .hasArg()
+                .optionalArg(true)
+                .argName("output_collection")
+                .build()
+        )
         .addOption(
             Option.builder(PARAM_MAPREDUCE) // mapReduce
                 .desc("after importing aggregate data to output collection using mapReduce")
@@ -246,6 +932,38 @@ public class Application {
                 .optionalArg(true)
                 .argName("output_collection")
                 .build()
+        )
+        .addOption(
+            Option.builder(PARAM_TOP_K) // topK
+                .desc(String.format("after importing find approximately n most frequent words merging only document summaries (see -%s), store them in <collection_name>_topk collection", PARAM_CHUNK_TOP_K))
+                .hasArg()
+                .type(Integer.class)
+                .argName("n")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_SERVE) // serve
+                .desc(String.format("after importing and aggregating serve word counts of output collection (<collection_name>_aggr by default) via HTTP at http://localhost:port/words until stopped (see -%s)", PARAM_SERVE_PORT))
+                .hasArg()
+                .optionalArg(true)
+                .argName("output_collection")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_SERVE_PORT) // servePort
+                .desc(String.format("HTTP port of -%s (%d by default)", PARAM_SERVE, QueryServer.DEFAULT_PORT))
+                .hasArg()
+                .type(Integer.class)
+                .argName("port")
+                .build()
+        )
+        .addOption(
+            Option.builder(PARAM_SERVE_CACHE) // serveCache
+                .desc(String.format("number of responses of -%s cached in memory (%d by default)", PARAM_SERVE, QueryServer.DEFAULT_CACHE_SIZE))
+                .hasArg()
+                .type(Integer.class)
+                .argName("n")
+                .build()
         );
 
         return options;
@@ -253,8 +971,8 @@ public class Application {
 
     private static int getIntOption(CommandLine cmdLine, String opt, int defaultValue) throws ParseException {
         int result = defaultValue;
-        if (cmdLine.hasOption(opt)) {
-            String strVal = cmdLine.getOptionValue(opt);
+        String strVal = cmdLine.getOptionValue(opt);
+        if (strVal != null) { // options with optional value may be given without it
             try {
                 result = Integer.valueOf(strVal).intValue();
             }
@@ -265,4 +983,32 @@ public class Application {
         return result;
     }
 
+    private static TokenizerType getTokenizerOption(CommandLine cmdLine, String opt, TokenizerType defaultValue) throws ParseException {
+        TokenizerType result = defaultValue;
+        String strVal = cmdLine.getOptionValue(opt);
+        if (strVal != null) {
+            try {
+                result = TokenizerType.fromName(strVal);
+            }
+            catch (IllegalArgumentException e) {
+                throw new ParseException(strVal + " is not a valid tokenizer");
+            }
+        }
+        return result;
+    }
+
+    private static ChunkFormat getChunkFormatOption(CommandLine cmdLine, String opt, ChunkFormat defaultValue) throws ParseException {
+        ChunkFormat result = defaultValue;
+        String strVal = cmdLine.getOptionValue(opt);
+        if (strVal != null) {
+            try {
+                result = ChunkFormat.fromName(strVal);
+            }
+            catch (IllegalArgumentException e) {
+                throw new ParseException(strVal + " is not a valid chunk format");
+            }
+        }
+        return result;
+    }
+
 }
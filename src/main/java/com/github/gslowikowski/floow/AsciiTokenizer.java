@@ -0,0 +1,130 @@
+package com.github.gslowikowski.floow;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class AsciiTokenizer implements Tokenizer {
+
+    private static final int INITIAL_WORD_CAPACITY = 64;
+
+    /**
+     * Lower-cased letter for every byte value, zero for non-letters.
+     */
+    private static final byte[] FOLD = new byte[256];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            FOLD[c] = (byte) c;
+            FOLD[Character.toUpperCase(c)] = (byte) c;
+        }
+    }
+
+    private Handler handler;
+
+    private byte[] word = new byte[INITIAL_WORD_CAPACITY];
+    private int length = 0;
+    private int hash = 0;
+    private boolean lineStarted = false;
+
+    /**
+     * Number of bytes tokenized in previous buffers and offset of the end of the last line.
+     */
+    private long consumed = 0L;
+    private long lineEnd = 0L;
+
+    /**
+     * Tokenizer splitting text into lower-cased ASCII words.
+     *
+     * Word boundaries are the same as in {@code line.toLowerCase(Locale.UK).split("[^a-z]")}: every byte
+     * (or character) not being an ASCII letter is a separator, all non-ASCII characters included.
+     * The only differences are the two non-ASCII characters which lower-case to ASCII letters
+     * (KELVIN SIGN and LATIN CAPITAL LETTER I WITH DOT ABOVE) and a single carriage return,
+     * which is not a line end here. Tokenizer keeps its state between calls, so words and lines
+     * may span many buffers.
+     *
+     * @param handler receiver of words and line ends
+     */
+    public AsciiTokenizer(Handler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public boolean tokenize(ByteBuffer buf) {
+        int limit = buf.limit();
+        long base = consumed - buf.position();
+        for (int i = buf.position(); i < limit; i++) {
+            byte b = buf.get(i);
+            byte folded = FOLD[b & 0xff];
+            if (folded != 0) {
+                append(folded);
+            }
+            else {
+                endOfWord();
+                if (b == '\n') {
+                    lineStarted = false;
+                    lineEnd = base + i + 1;
+                    if (!handler.endOfLine()) {
+                        buf.position(i + 1);
+                        consumed = lineEnd;
+                        return false;
+                    }
+                    continue;
+                }
+            }
+            lineStarted = true;
+        }
+        buf.position(limit);
+        consumed = base + limit;
+        return true;
+    }
+
+    @Override
+    public boolean tokenize(CharSequence line) {
+        for (int i = 0, len = line.length(); i < len; i++) {
+            char c = line.charAt(i);
+            byte folded = c < 0x80 ? FOLD[c] : 0;
+            if (folded != 0) {
+                append(folded);
+            }
+            else {
+                endOfWord();
+            }
+        }
+        endOfWord();
+        lineStarted = false;
+        return handler.endOfLine();
+    }
+
+    @Override
+    public boolean finish() {
+        endOfWord();
+        if (lineStarted) {
+            lineStarted = false;
+            lineEnd = consumed;
+            return handler.endOfLine();
+        }
+        return true;
+    }
+
+    @Override
+    public long getLineEnd() {
+        return lineEnd;
+    }
+
+    private void append(byte b) {
+        if (length == word.length) {
+            word = Arrays.copyOf(word, length * 2);
+        }
+        word[length++] = b;
+        hash = 31 * hash + b;
+    }
+
+    private void endOfWord() {
+        if (length > 0) {
+            handler.word(word, length, hash);
+            length = 0;
+            hash = 0;
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.github.gslowikowski.floow;
+
+public class Checkpoint {
+
+    private int chunkNo;
+    private long offset;
+    private long lines;
+
+    /**
+     * Position in source file reached by an interrupted import.
+     *
+     * @param chunkNo number of the last chunk saved together with all previous chunks
+     * @param offset byte offset of the first line after that chunk
+     * @param lines number of lines imported up to that chunk
+     */
+    public Checkpoint(int chunkNo, long offset, long lines) {
+        this.chunkNo = chunkNo;
+        this.offset = offset;
+        this.lines = lines;
+    }
+
+    public int getChunkNo() {
+        return chunkNo;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("chunk %d, offset %d, %d lines", chunkNo, offset, lines);
+    }
+
+}
@@ -0,0 +1,221 @@
+package com.github.gslowikowski.floow;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+
+/**
+ * Storage format of word counts in chunk documents.
+ */
+public enum ChunkFormat {
+
+    /**
+     * Array of subdocuments: {words: [{word: 'mongo', cnt: 2}, ...]}.
+     */
+    LIST(32) {
+        @Override
+        void append(Document doc, WordCountTable wordCounts, int fromEntry, int toEntry) {
+            List<Document> wordsWithCounts = new ArrayList<Document>(toEntry - fromEntry);
+            for (int i = fromEntry; i < toEntry; i++) {
+                wordsWithCounts.add(new Document("word", wordCounts.getWord(i)).append("cnt", Aggregator.toBsonNumber(wordCounts.getCount(i))));
+            }
+            doc.append("words", wordsWithCounts);
+        }
+    },
+
+    /**
+     * Parallel arrays of words and counts: {words: ['mongo', ...], counts: [2, ...]}.
+     */
+    COLUMNAR(18) {
+        @Override
+        void append(Document doc, WordCountTable wordCounts, int fromEntry, int toEntry) {
+            List<String> words = new ArrayList<String>(toEntry - fromEntry);
+            List<Number> counts = new ArrayList<Number>(toEntry - fromEntry);
+            for (int i = fromEntry; i < toEntry; i++) {
+                words.add(wordCounts.getWord(i));
+                counts.add(Aggregator.toBsonNumber(wordCounts.getCount(i)));
+            }
+            doc.append("words", words);
+            doc.append("counts", counts);
+        }
+    },
+
+    /**
+     * Binary blob of entries sorted by word: {blob: BinData(...)}.
+     *
+     * Every entry is a varint word length, UTF-8 word bytes and a varint count.
+     * Blobs cannot be read by the database server, only by {@link Aggregator#clientAggregate(String, int)}.
+     */
+    BLOB(3) {
+        @Override
+        void append(Document doc, WordCountTable wordCounts, int fromEntry, int toEntry) {
+            int[] entries = wordCounts.sortedEntries(fromEntry, toEntry);
+            ByteSink blob = new ByteSink((toEntry - fromEntry) * 16);
+            for (int entry: entries) {
+                blob.writeVarint(wordCounts.getWordLength(entry));
+                wordCounts.copyWord(entry, blob);
+                blob.writeVarint(wordCounts.getCount(entry));
+            }
+            doc.append("blob", new Binary(blob.toByteArray()));
+        }
+    };
+
+    /**
+     * Receiver of decoded word counts.
+     */
+    public interface WordVisitor {
+
+        /**
+         * Called for every word of a chunk.
+         *
+         * @param word buffer containing UTF-8 word bytes (must not be retained)
+         * @param offset word offset in the buffer
+         * @param length word length in bytes
+         * @param count word count
+         */
+        void visit(byte[] word, int offset, int length, long count);
+
+    }
+
+    private int entryBytes;
+
+    ChunkFormat(int entryBytes) {
+        this.entryBytes = entryBytes;
+    }
+
+    /**
+     * Returns approximate number of bytes taken by one entry in a chunk document, excluding word bytes.
+     *
+     * @return entry overhead in bytes
+     */
+    public int getEntryBytes() {
+        return entryBytes;
+    }
+
+    /**
+     * Appends word counts to chunk document.
+     */
+    abstract void append(Document doc, WordCountTable wordCounts, int fromEntry, int toEntry);
+
+    /**
+     * Returns format by name, ignoring case.
+     *
+     * @param name format name
+     * @return chunk format
+     * @throws IllegalArgumentException for unknown names
+     */
+    public static ChunkFormat fromName(String name) {
+        return valueOf(name.toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Reads word counts of chunk document stored in any format.
+     *
+     * @param doc chunk document
+     * @param visitor receiver of word counts
+     */
+    public static void decode(Document doc, WordVisitor visitor) {
+        Object blob = doc.get("blob");
+        if (blob != null) {
+            byte[] data = ((Binary) blob).getData();
+            int[] position = new int[1];
+            while (position[0] < data.length) {
+                int length = (int) readVarint(data, position);
+                int offset = position[0];
+                position[0] += length;
+                visitor.visit(data, offset, length, readVarint(data, position));
+            }
+            return;
+        }
+        List<?> words = (List<?>) doc.get("words");
+        if (words == null) {
+            return;
+        }
+        List<?> counts = (List<?>) doc.get("counts");
+        for (int i = 0; i < words.size(); i++) {
+            String word;
+            long count;
+            if (counts != null) {
+                word = (String) words.get(i);
+                count = ((Number) counts.get(i)).longValue();
+            }
+            else {
+                Document wordWithCount = (Document) words.get(i);
+                word = wordWithCount.getString("word");
+                count = ((Number) wordWithCount.get("cnt")).longValue();
+            }
+            byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+            visitor.visit(bytes, 0, bytes.length, count);
+        }
+    }
+
+    private static long readVarint(byte[] data, int[] position) {
+        long result = 0L;
+        int shift = 0;
+        while (true) {
+            byte b = data[position[0]++];
+            result |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return result;
+            }
+            shift += 7;
+        }
+    }
+
+    /**
+     * Growable byte array.
+     */
+    static class ByteSink {
+
+        private byte[] bytes;
+        private int size = 0;
+
+        ByteSink(int capacity) {
+            bytes = new byte[Math.max(capacity, 16)];
+        }
+
+        void write(byte[] b, int offset, int length) {
+            ensureCapacity(length);
+            System.arraycopy(b, offset, bytes, size, length);
+            size += length;
+        }
+
+        void writeVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7fL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(bytes, 0, size);
+        }
+
+        byte[] toByteArray() {
+            byte[] result = new byte[size];
+            System.arraycopy(bytes, 0, result, 0, size);
+            return result;
+        }
+
+        private void ensureCapacity(int length) {
+            if (size + length > bytes.length) {
+                byte[] newBytes = new byte[Math.max(bytes.length * 2, size + length)];
+                System.arraycopy(bytes, 0, newBytes, 0, size);
+                bytes = newBytes;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,241 @@
+package com.github.gslowikowski.floow;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.bson.Document;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ChunkWriter implements Closeable {
+
+    public static final Logger log = LoggerFactory.getLogger(ChunkWriter.class);
+
+    public static final int DEFAULT_THREADS = 1;
+    public static final int DEFAULT_QUEUE_SIZE = 4;
+    public static final int DEFAULT_BATCH_SIZE = 16;
+
+    private static final Document END_OF_QUEUE = new Document();
+
+    private MongoCollection<Document> collection;
+    private int batchSize;
+
+    private BlockingQueue<Document> queue;
+    private List<Thread> writers = new ArrayList<Thread>();
+    private volatile Throwable failure = null;
+    private boolean closed = false;
+    private long queuedDocuments = 0L; // guarded by this
+    private long writtenDocuments = 0L; // guarded by this
+    private Metrics metrics = new Metrics();
+
+    /**
+     * Synchronous chunk documents writer.
+     *
+     * @param collection collection storing imported data
+     */
+    public ChunkWriter(MongoCollection<Document> collection) {
+        this(collection, 0, 0, 1);
+    }
+
+    /**
+     * Chunk documents writer.
+     *
+     * With at least one writer thread documents are put into a bounded queue and inserted in the background,
+     * in unordered batches of queued documents, so importing threads do not wait for the database.
+     * When the queue is full, importing threads are blocked until there is room for next document.
+     *
+     * @param collection collection storing imported data
+     * @param threads number of writer threads (zero means writing synchronously in importing thread)
+     * @param queueSize maximum number of documents waiting for writing
+     * @param batchSize maximum number of documents inserted at once
+     */
+    public ChunkWriter(MongoCollection<Document> collection, int threads, int queueSize, int batchSize) {
+        this.collection = collection;
+        this.batchSize = batchSize;
+        if (threads > 0) {
+            queue = new ArrayBlockingQueue<Document>(queueSize);
+            for (int i = 0; i < threads; i++) {
+                Thread writer = new Thread(this::writeQueued, "chunk-writer-" + i);
+                writer.setDaemon(true);
+                writer.start();
+                writers.add(writer);
+            }
+        }
+    }
+
+    /**
+     * Sets metrics of written documents (write latency and queue depth).
+     *
+     * @param metrics run metrics, must be set before writing the first document
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Writes chunk document.
+     *
+     * @param doc chunk document
+     * @throws IOException if writing was interrupted
+     * @throws IllegalStateException if writing of previous document failed
+     */
+    public void write(Document doc) throws IOException {
+        checkFailure();
+        if (queue == null) {
+            long startNanos = System.nanoTime();
+            collection.insertOne(doc);
+            metrics.addMongoWrite(System.nanoTime() - startNanos);
+        }
+        else {
+            metrics.addWriteQueueDepth(1);
+            synchronized (this) {
+                queuedDocuments++;
+            }
+            try {
+                queue.put(doc);
+            }
+            catch (InterruptedException e) {
+                metrics.addWriteQueueDepth(-1);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Writing chunk interrupted");
+            }
+        }
+    }
+
+    /**
+     * Waits until all documents queued so far are written, without stopping writer threads.
+     *
+     * @throws IOException if waiting was interrupted
+     * @throws IllegalStateException if writing of any document failed
+     */
+    public void flush() throws IOException {
+        if (queue != null) {
+            try {
+                synchronized (this) {
+                    long target = queuedDocuments;
+                    while (writtenDocuments < target && failure == null) {
+                        wait();
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Writing chunks interrupted");
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * Stops writer threads after the import failed.
+     *
+     * Failure of writing, if any, is added to the import failure as suppressed, so it does not replace it.
+     *
+     * @param importFailure failure of the import
+     */
+    public void closeAfter(Throwable importFailure) {
+        try {
+            close();
+        }
+        catch (IOException | RuntimeException e) {
+            importFailure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Waits until all queued documents are written and stops writer threads.
+     *
+     * @throws IOException if waiting was interrupted
+     * @throws IllegalStateException if writing of any document failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            for (int i = 0; i < writers.size(); i++) {
+                queue.put(END_OF_QUEUE);
+            }
+            for (Thread writer: writers) {
+                writer.join();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Writing chunks interrupted");
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new IllegalStateException("Writing chunk failed", failure);
+        }
+    }
+
+    private void writeQueued() {
+        List<Document> batch = new ArrayList<Document>(batchSize);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+                int ends = removeEndMarkers(batch);
+                metrics.addWriteQueueDepth(-batch.size());
+                for (int i = 1; i < ends; i++) {
+                    queue.put(END_OF_QUEUE); // end markers of other writers
+                }
+                boolean end = ends > 0;
+                if (!batch.isEmpty() && failure == null) {
+                    try {
+                        log.debug(" writing " + batch.size() + " chunks");
+                        long startNanos = System.nanoTime();
+                        collection.insertMany(batch, new InsertManyOptions().ordered(false));
+                        metrics.addMongoWrite(System.nanoTime() - startNanos);
+                    }
+                    catch (RuntimeException e) {
+                        // keep taking documents, so importing threads are not blocked forever
+                        log.error("Writing chunks failed", e);
+                        failure = e;
+                    }
+                }
+                written(batch.size());
+                batch.clear();
+                if (end) {
+                    return;
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            failure = e;
+            written(0);
+        }
+    }
+
+    private synchronized void written(int count) {
+        writtenDocuments += count;
+        notifyAll();
+    }
+
+    private static int removeEndMarkers(List<Document> batch) {
+        int count = 0;
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            if (batch.get(i) == END_OF_QUEUE) {
+                batch.remove(i);
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,264 @@
+package com.github.gslowikowski.floow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+
+public class Compactor {
+
+    public static final Logger log = LoggerFactory.getLogger(Compactor.class);
+
+    /**
+     * Field of compacted document listing documents it replaces, until they are removed.
+     */
+    public static final String PENDING_FIELD = "compacting";
+
+    public static final long DEFAULT_TARGET_BYTES = Importer.MAX_DOCUMENT_BYTES;
+
+    private static final int CURSOR_BATCH_SIZE = 16;
+
+    private String source;
+    private MongoCollection<Document> collection;
+    private ChunkFormat chunkFormat = ChunkFormat.LIST;
+    private int chunkTopK = Importer.DEFAULT_TOP_K;
+    private long targetBytes = DEFAULT_TARGET_BYTES;
+
+    private int mergedCounter = 0;
+    private int createdCounter = 0;
+
+    /**
+     * Compactor of imported chunks.
+     *
+     * Runs of consecutive chunk documents of a source are merged into larger documents holding
+     * their summed word counts, so aggregation unwinds and groups fewer, already reduced entries.
+     * Only chunks of the same additional identifier, aggregated into the same output collections
+     * (see {@link Aggregator#aggregateIncremental(String, String)}) and of the same streaming window
+     * are merged, and a run ends before its estimated size exceeds the target size.
+     *
+     * Every compacted document records the number of chunks merged into it ({@code chunks}),
+     * the number of the first of them and the offset of the last one, so resumed imports
+     * and incremental aggregation see the same chunks as before.
+     *
+     * Documents are swapped per run: the compacted document is inserted marked as pending
+     * (ignored by aggregation), then merged documents are removed and the mark is cleared.
+     * Runs interrupted in between are completed by the next compaction, resumed import or aggregation.
+     * Only chunks of the compacted source (and additional identifier) are touched, so imports
+     * of other sources and identifiers may run at the same time.
+     *
+     * @param source source file name
+     * @param collection collection storing imported data
+     */
+    public Compactor(String source, MongoCollection<Document> collection) {
+        this.source = source;
+        this.collection = collection;
+    }
+
+    /**
+     * Sets format of compacted documents.
+     *
+     * @param format chunk format ({@link ChunkFormat#LIST} by default), merged documents may have any format
+     */
+    public void setChunkFormat(ChunkFormat format) {
+        this.chunkFormat = format;
+    }
+
+    /**
+     * Sets number of the most frequent words stored separately in every compacted document.
+     *
+     * @param k number of words (see {@link Importer#setChunkTopK(int)}), 0 disables
+     */
+    public void setChunkTopK(int k) {
+        this.chunkTopK = k;
+    }
+
+    /**
+     * Sets maximum estimated size of compacted documents.
+     *
+     * @param bytes target size, at most {@value Importer#MAX_DOCUMENT_BYTES} ({@value #DEFAULT_TARGET_BYTES} by default)
+     */
+    public void setTargetBytes(long bytes) {
+        this.targetBytes = Math.min(bytes, Importer.MAX_DOCUMENT_BYTES);
+    }
+
+    /**
+     * Returns number of chunk documents merged by this compactor.
+     *
+     * @return number of removed documents
+     */
+    public int getMergedDocuments() {
+        return mergedCounter;
+    }
+
+    /**
+     * Returns number of compacted documents created by this compactor.
+     *
+     * @return number of inserted documents
+     */
+    public int getCreatedDocuments() {
+        return createdCounter;
+    }
+
+    /**
+     * Compacts chunks of the source.
+     *
+     * Import of the compacted chunks must not run at the same time.
+     *
+     * @param serverId compact only chunks imported with this additional identifier (all chunks if {@code null})
+     */
+    public void compact(String serverId) {
+        Document filter = new Document("source", source);
+        if (serverId != null) {
+            filter.append("id", serverId);
+        }
+        Importer.ensureIndex(collection);
+        completePending(collection, filter);
+
+        Run run = null;
+        // chunks being aggregated incrementally are left as they are
+        MongoCursor<Document> chunks = collection.find(new Document(filter).append(PENDING_FIELD, new Document("$exists", false))
+                    .append("folding.token", new Document("$exists", false)))
+                .sort(new Document("id", 1).append("chunkNo", 1))
+                .batchSize(CURSOR_BATCH_SIZE)
+                .iterator();
+        try {
+            while (chunks.hasNext()) {
+                Document doc = chunks.next();
+                WordCountTable wordCounts = new WordCountTable();
+                ChunkFormat.decode(doc, (word, offset, length, count) ->
+                    wordCounts.add(word, offset, length, WordCountTable.hash(word, offset, length), count));
+                if (run != null && !run.accepts(doc, wordCounts)) {
+                    save(run);
+                    run = null;
+                }
+                if (run == null) {
+                    run = new Run(doc);
+                }
+                run.add(doc, wordCounts);
+            }
+        }
+        finally {
+            chunks.close();
+        }
+        if (run != null) {
+            save(run);
+        }
+    }
+
+    /**
+     * Completes swaps of compacted documents interrupted after the compacted document was inserted.
+     *
+     * @param collection collection storing imported data
+     * @param filter filter of chunks (by source and additional identifier)
+     */
+    public static void completePending(MongoCollection<Document> collection, Document filter) {
+        for (Document doc: collection.find(new Document(filter).append(PENDING_FIELD, new Document("$exists", true)))
+                .projection(new Document(PENDING_FIELD, 1))) {
+            log.debug("completing compaction of chunk " + doc.get("_id"));
+            swap(collection, doc.getObjectId("_id"), doc.get(PENDING_FIELD, List.class));
+        }
+    }
+
+    private void save(Run run) {
+        if (run.ids.size() < 2) {
+            return; // nothing to merge
+        }
+        Document doc = run.importer.buildChunkDocument(run.chunkNo, run.chunkSize, run.lines, run.offset,
+                run.wordCounts, 0, run.wordCounts.size());
+        doc.append("chunks", run.chunks);
+        if (!run.folded.isEmpty()) {
+            doc.append("folded", new ArrayList<String>(run.folded));
+        }
+        if (run.window != null) {
+            doc.append("window", run.window);
+        }
+        doc.append(PENDING_FIELD, run.ids);
+        collection.insertOne(doc);
+        swap(collection, doc.getObjectId("_id"), run.ids);
+        log.debug(String.format(" compacted chunks %d-%d of %s into %d words", run.chunkNo, run.chunkNo + run.chunks - 1,
+                source, run.wordCounts.size()));
+        mergedCounter += run.ids.size();
+        createdCounter++;
+    }
+
+    private static void swap(MongoCollection<Document> collection, ObjectId compactedId, List<?> mergedIds) {
+        collection.deleteMany(new Document("_id", new Document("$in", mergedIds)));
+        collection.updateOne(new Document("_id", compactedId), new Document("$unset", new Document(PENDING_FIELD, "")));
+    }
+
+    /**
+     * Consecutive chunks merged into one document.
+     */
+    private class Run {
+
+        private String serverId;
+        private Set<String> folded;
+        private Object window;
+        private int chunkSize;
+        private int chunkNo;
+        private int chunks = 0;
+        private int lines = 0;
+        private long offset = -1L;
+        private List<ObjectId> ids = new ArrayList<ObjectId>();
+        private WordCountTable wordCounts = new WordCountTable();
+        /**
+         * Builds compacted document, nothing is imported.
+         */
+        private Importer importer;
+
+        Run(Document first) {
+            serverId = first.getString("id");
+            folded = foldedOf(first);
+            window = first.get("window");
+            chunkSize = first.getInteger("chunkSize");
+            chunkNo = first.getInteger("chunkNo");
+            importer = new Importer(source, serverId, collection, null);
+            importer.setChunkFormat(chunkFormat);
+            importer.setChunkTopK(chunkTopK);
+        }
+
+        /**
+         * Checks if chunk continues the run and fits into the compacted document.
+         */
+        boolean accepts(Document doc, WordCountTable docCounts) {
+            return Objects.equals(doc.getString("id"), serverId)
+                && doc.getInteger("chunkNo") == chunkNo + chunks
+                && foldedOf(doc).equals(folded)
+                && Objects.equals(doc.get("window"), window)
+                // merged words may be shared, so the sum is an upper bound
+                && importer.estimateDocumentSize(wordCounts) + importer.estimateDocumentSize(docCounts) <= targetBytes;
+        }
+
+        void add(Document doc, WordCountTable docCounts) {
+            ids.add(doc.getObjectId("_id"));
+            chunks += doc.getInteger("chunks", 1);
+            Object docOffset = doc.get("offset");
+            // lines are counted once per checkpoint, like by resumed import
+            if (docOffset != null || doc.getInteger("chunks", 1) > 1) {
+                lines += doc.getInteger("lines");
+            }
+            offset = docOffset != null ? ((Number) docOffset).longValue() : -1L;
+            wordCounts.addAll(docCounts);
+        }
+
+        private Set<String> foldedOf(Document doc) {
+            List<?> names = doc.get("folded", List.class);
+            Set<String> result = new HashSet<String>();
+            for (Object name: names != null ? names : Collections.emptyList()) {
+                result.add((String) name);
+            }
+            return result;
+        }
+    }
+
+}
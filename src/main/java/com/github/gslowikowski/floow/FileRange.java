@@ -0,0 +1,177 @@
+package com.github.gslowikowski.floow;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FileRange {
+
+    private static final int SCAN_BUFFER_SIZE = 8192;
+
+    private File file;
+    private long start;
+    private long end;
+
+    /**
+     * Byte range of a file.
+     *
+     * @param file source file
+     * @param start first byte of the range (inclusive)
+     * @param end last byte of the range (exclusive)
+     */
+    public FileRange(File file, long start, long end) {
+        this.file = file;
+        this.start = start;
+        this.end = end;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long length() {
+        return end - start;
+    }
+
+    /**
+     * Splits file into byte ranges of similar length.
+     *
+     * Every range (except the first one) starts at the beginning of a line,
+     * so no line is split between two ranges. Less than requested number of ranges
+     * is returned if the file is too small or its lines are too long.
+     *
+     * @param file source file
+     * @param parts requested number of ranges
+     * @return list of adjacent ranges covering the whole file
+     * @throws IOException in case of I/O problems
+     */
+    public static List<FileRange> split(File file, int parts) throws IOException {
+        List<FileRange> result = new ArrayList<FileRange>();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            long rangeStart = 0L;
+            for (int i = 1; i < parts && rangeStart < size; i++) {
+                long rangeEnd = nextLineStart(channel, Math.max(rangeStart, size * i / parts));
+                if (rangeEnd > rangeStart) {
+                    result.add(new FileRange(file, rangeStart, rangeEnd));
+                    rangeStart = rangeEnd;
+                }
+            }
+            if (rangeStart < size || result.isEmpty()) {
+                result.add(new FileRange(file, rangeStart, size));
+            }
+        }
+        finally {
+            raf.close();
+        }
+        return result;
+    }
+
+    /**
+     * Finds the beginning of the first line starting at or after given position.
+     */
+    static long nextLineStart(FileChannel channel, long position) throws IOException {
+        if (position == 0L) {
+            return 0L;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long pos = position - 1; // the byte before position may be the end of previous line
+        while (true) {
+            buf.clear();
+            int read = channel.read(buf, pos);
+            if (read <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < read; i++) {
+                if (buf.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += read;
+        }
+    }
+
+    /**
+     * Opens stream reading only bytes of this range.
+     *
+     * @return range input stream
+     * @throws IOException in case of I/O problems
+     */
+    public InputStream openStream() throws IOException {
+        return new RangeInputStream(new RandomAccessFile(file, "r"), start, end);
+    }
+
+    /**
+     * Opens UTF-8 reader reading only lines of this range.
+     *
+     * @return range reader
+     * @throws IOException in case of I/O problems
+     */
+    public BufferedReader openReader() throws IOException {
+        return new BufferedReader(new InputStreamReader(openStream(), "UTF-8"));
+    }
+
+    @Override
+    public String toString() {
+        return file.getPath() + "[" + start + ".." + end + ")";
+    }
+
+    private static class RangeInputStream extends InputStream {
+
+        private RandomAccessFile raf;
+        private long remaining;
+
+        RangeInputStream(RandomAccessFile raf, long start, long end) throws IOException {
+            this.raf = raf;
+            this.remaining = end - start;
+            raf.seek(start);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = raf.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = raf.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            raf.close();
+        }
+    }
+
+}
@@ -0,0 +1,247 @@
+package com.github.gslowikowski.floow;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class FileScheduler {
+
+    public static final Logger log = LoggerFactory.getLogger(FileScheduler.class);
+
+    public static final long DEFAULT_SPLIT_BYTES = 64L * 1024 * 1024;
+
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    /**
+     * Creates importer of one source file.
+     */
+    public interface ImporterFactory {
+
+        /**
+         * Creates importer.
+         *
+         * @param source source name stored in chunk documents (see {@link FileScheduler#sourceName(File)})
+         * @return importer
+         */
+        Importer create(String source);
+
+    }
+
+    private List<File> files;
+    private ImporterFactory importers;
+    private long splitBytes = DEFAULT_SPLIT_BYTES;
+
+    /**
+     * Importer of many source files in one process.
+     *
+     * Every file is imported by its own importer, so its chunks are tagged with its own source name,
+     * but all importers share threads, writers and the database connection pool. Files are scheduled
+     * in a work-stealing pool, the largest first: small files are imported whole, by one thread,
+     * files larger than the split size are divided into byte ranges imported concurrently,
+     * so idle threads take over ranges of large files instead of waiting for them.
+     *
+     * @param files source files
+     * @param importers factory of importers (importers may share a {@link ChunkWriter})
+     */
+    public FileScheduler(List<File> files, ImporterFactory importers) {
+        this.files = files;
+        this.importers = importers;
+    }
+
+    /**
+     * Sets size above which files are divided into byte ranges.
+     *
+     * @param bytes maximum range size ({@value #DEFAULT_SPLIT_BYTES} by default)
+     */
+    public void setSplitBytes(long bytes) {
+        this.splitBytes = bytes;
+    }
+
+    /**
+     * Returns source name of file, stored in its chunk documents.
+     *
+     * @param file source file
+     * @return file path
+     */
+    public static String sourceName(File file) {
+        return file.getPath();
+    }
+
+    /**
+     * Checks if source is a directory or a glob pattern rather than a single file.
+     *
+     * @param source source given by the user
+     * @return {@code true} for directories and patterns
+     */
+    public static boolean isMultiFile(String source) {
+        return new File(source).isDirectory() || (!new File(source).exists() && globStart(source) >= 0);
+    }
+
+    /**
+     * Lists source files of a directory (recursively) or matching a glob pattern (like {@code dumps/2017-*.txt}
+     * or {@code dumps/**.txt}), skipping line index files.
+     *
+     * @param source directory or glob pattern
+     * @return matching regular files sorted by path
+     * @throws IOException in case of I/O problems
+     */
+    public static List<File> expand(String source) throws IOException {
+        Path base;
+        PathMatcher matcher;
+        if (new File(source).isDirectory()) {
+            base = Paths.get(source);
+            matcher = path -> true;
+        }
+        else {
+            // walk the deepest directory without wildcards, paths of files found keep it as given
+            int separator = source.lastIndexOf(File.separatorChar, globStart(source));
+            base = Paths.get(separator >= 0 ? source.substring(0, separator + 1) : "");
+            PathMatcher pattern = FileSystems.getDefault().getPathMatcher("glob:" + source.substring(separator + 1));
+            matcher = path -> pattern.matches(base.relativize(path));
+        }
+
+        Stream<Path> paths = Files.walk(base);
+        try {
+            return paths
+                .filter(path -> Files.isRegularFile(path) && matcher.matches(path))
+                .filter(path -> !path.toString().endsWith(LineIndex.FILE_SUFFIX))
+                .map(Path::toFile)
+                .sorted()
+                .collect(Collectors.toList());
+        }
+        finally {
+            paths.close();
+        }
+    }
+
+    /**
+     * Imports all files.
+     *
+     * Previously imported data of every file is removed before importing it.
+     *
+     * @param threads number of import threads
+     * @param chunkSize aggregation chunk size
+     * @throws IOException in case of I/O problems
+     */
+    public void run(int threads, int chunkSize) throws IOException {
+        List<FileTask> tasks = new ArrayList<FileTask>(files.size());
+        files.stream()
+            .sorted(Comparator.comparingLong(File::length).reversed())
+            .forEach(file -> tasks.add(new FileTask(file, chunkSize)));
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    ForkJoinTask.invokeAll(tasks);
+                }
+            });
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause(); // thrown by importer
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static int globStart(String source) {
+        for (int i = 0; i < source.length(); i++) {
+            if (GLOB_CHARACTERS.indexOf(source.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Imports one file, whole or divided into concurrently imported ranges.
+     */
+    private class FileTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private File file;
+        private int chunkSize;
+
+        FileTask(File file, int chunkSize) {
+            this.file = file;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                Importer importer = importers.create(sourceName(file));
+                importer.cleanData();
+                if (GzipSource.isGzip(file)) {
+                    log.debug("importing compressed file " + file);
+                    importer.importGzip(file, 0/*skipLines*/, 0/*limitLines*/, chunkSize, 1/*threads*/);
+                }
+                else if (file.length() > splitBytes) {
+                    int parts = (int) ((file.length() + splitBytes - 1) / splitBytes);
+                    List<RangeTask> ranges = new ArrayList<RangeTask>(parts);
+                    for (FileRange range: FileRange.split(file, parts)) {
+                        ranges.add(new RangeTask(importer, range, chunkSize));
+                    }
+                    log.debug(String.format("importing file %s in %d ranges", file, ranges.size()));
+                    ForkJoinTask.invokeAll(ranges);
+                }
+                else {
+                    log.debug("importing file " + file);
+                    importer.importInChunks(new FileRange(file, 0L, file.length()), 0/*skipLines*/, 0/*limitLines*/, chunkSize);
+                }
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Imports one range of a file.
+     */
+    private static class RangeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private Importer importer;
+        private FileRange range;
+        private int chunkSize;
+
+        RangeTask(Importer importer, FileRange range, int chunkSize) {
+            this.importer = importer;
+            this.range = range;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                // chunks of concurrent ranges are numbered in any order, so they cannot be checkpoints
+                importer.importRange(range, 0/*skipLines*/, 0/*limitLines*/, chunkSize, false);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,286 @@
+package com.github.gslowikowski.floow;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class GzipSource implements Closeable {
+
+    public static final Logger log = LoggerFactory.getLogger(GzipSource.class);
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FEXTRA = 4;
+    private static final int BGZF_HEADER_BYTES = 18;
+    private static final int TRAILER_BYTES = 8;
+
+    /**
+     * Number of BGZF blocks (up to 64 KB each) decompressed by one task.
+     */
+    private static final int BLOCKS_PER_TASK = 16;
+    private static final int STREAM_BUFFER_SIZE = 1024 * 1024;
+    private static final int TASKS_PER_THREAD = 2;
+
+    private ExecutorService executor;
+    private Deque<Future<ByteBuffer>> pending = new ArrayDeque<Future<ByteBuffer>>();
+    private int maxPending;
+
+    private FileChannel channel = null;
+    private List<FileRange> blocks = null;
+    private int nextBlock = 0;
+
+    private InputStream in = null;
+    private volatile boolean endOfStream = false;
+
+    /**
+     * Decompressed gzip file, read buffer by buffer.
+     *
+     * Blocks of BGZF files (gzip files consisting of members not longer than 64 KB, each one recording
+     * its length in the header) are decompressed by many threads at once. Other gzip files, including
+     * multi-member ones, are decompressed by one background thread, while previously decompressed
+     * buffers are processed. Buffers are always returned in file order.
+     *
+     * @param file gzip file
+     * @param threads number of decompressing threads
+     * @throws IOException in case of I/O problems
+     */
+    public GzipSource(File file, int threads) throws IOException {
+        blocks = threads > 1 ? bgzfBlocks(file) : null;
+        if (blocks != null) {
+            log.debug(String.format(" decompressing %d BGZF blocks using %d threads", blocks.size(), threads));
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            executor = Executors.newFixedThreadPool(threads);
+            maxPending = threads * TASKS_PER_THREAD;
+        }
+        else {
+            in = new GZIPInputStream(new FileInputStream(file), STREAM_BUFFER_SIZE);
+            executor = Executors.newSingleThreadExecutor();
+            maxPending = TASKS_PER_THREAD;
+        }
+    }
+
+    /**
+     * Checks if file starts with gzip header.
+     *
+     * @param file source file
+     * @return {@code true} for gzip files
+     * @throws IOException in case of I/O problems
+     */
+    public static boolean isGzip(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return in.read() == (GZIP_MAGIC & 0xff) && in.read() == (GZIP_MAGIC >> 8);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Finds blocks of BGZF file by reading their headers.
+     *
+     * @param file gzip file
+     * @return byte ranges of all blocks or {@code null} if the file is not a BGZF file
+     * @throws IOException in case of I/O problems
+     */
+    public static List<FileRange> bgzfBlocks(File file) throws IOException {
+        List<FileRange> result = new ArrayList<FileRange>();
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(BGZF_HEADER_BYTES);
+            long position = 0L;
+            while (position < size) {
+                header.clear();
+                readFully(channel, header, position);
+                int blockSize = bgzfBlockSize(header.array());
+                if (blockSize < 0 || position + blockSize > size) {
+                    return null;
+                }
+                result.add(new FileRange(file, position, position + blockSize));
+                position += blockSize;
+            }
+        }
+        catch (EOFException e) {
+            return null;
+        }
+        finally {
+            channel.close();
+        }
+        return result;
+    }
+
+    /**
+     * Returns total block size recorded in BGZF header ('BC' extra subfield) or -1 for other headers.
+     */
+    private static int bgzfBlockSize(byte[] header) {
+        boolean isBgzf = (header[0] & 0xff) == (GZIP_MAGIC & 0xff) && (header[1] & 0xff) == (GZIP_MAGIC >> 8)
+                && header[2] == 8 /* deflate */ && (header[3] & FEXTRA) != 0
+                && uint16(header, 10) == 6 /* XLEN */ && header[12] == 'B' && header[13] == 'C' && uint16(header, 14) == 2;
+        return isBgzf ? uint16(header, 16) + 1 : -1;
+    }
+
+    /**
+     * Returns next decompressed buffer.
+     *
+     * @return buffer or {@code null} at the end of file
+     * @throws IOException in case of I/O problems or corrupted data
+     */
+    public ByteBuffer next() throws IOException {
+        while (pending.size() < maxPending && submitNext()) {
+            // keep decompressing threads busy
+        }
+        Future<ByteBuffer> result = pending.poll();
+        if (result == null) {
+            return null;
+        }
+        try {
+            ByteBuffer buf = result.get();
+            return buf != null ? buf : next();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Decompression interrupted");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private boolean submitNext() {
+        if (blocks != null) {
+            if (nextBlock == blocks.size()) {
+                return false;
+            }
+            List<FileRange> task = blocks.subList(nextBlock, Math.min(nextBlock + BLOCKS_PER_TASK, blocks.size()));
+            nextBlock += task.size();
+            pending.add(executor.submit(() -> inflateBlocks(task)));
+        }
+        else {
+            if (endOfStream) {
+                return false;
+            }
+            // tasks of single thread executor read the stream one after another
+            pending.add(executor.submit(this::readStream));
+        }
+        return true;
+    }
+
+    private ByteBuffer readStream() throws IOException {
+        byte[] buf = new byte[STREAM_BUFFER_SIZE];
+        int length = 0;
+        while (length < buf.length) {
+            int read = in.read(buf, length, buf.length - length);
+            if (read < 0) {
+                endOfStream = true;
+                break;
+            }
+            length += read;
+        }
+        return length > 0 ? ByteBuffer.wrap(buf, 0, length) : null;
+    }
+
+    private ByteBuffer inflateBlocks(List<FileRange> task) throws IOException {
+        // blocks are adjacent, read them at once
+        long start = task.get(0).getStart();
+        ByteBuffer compressed = ByteBuffer.allocate((int) (task.get(task.size() - 1).getEnd() - start));
+        readFully(channel, compressed, start);
+        byte[] data = compressed.array();
+
+        int outputSize = 0;
+        for (FileRange block: task) {
+            outputSize += int32(data, (int) (block.getEnd() - start) - 4); // ISIZE
+        }
+        byte[] output = new byte[outputSize];
+        int outputPosition = 0;
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        try {
+            for (FileRange block: task) {
+                int offset = (int) (block.getStart() - start);
+                int end = (int) (block.getEnd() - start);
+                int blockOutputSize = int32(data, end - 4);
+                inflater.reset();
+                inflater.setInput(data, offset + BGZF_HEADER_BYTES, end - offset - BGZF_HEADER_BYTES - TRAILER_BYTES);
+                int inflated = 0;
+                while (inflated < blockOutputSize && !inflater.finished()) {
+                    int n = inflater.inflate(output, outputPosition + inflated, blockOutputSize - inflated);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    inflated += n;
+                }
+                crc.reset();
+                crc.update(output, outputPosition, inflated);
+                if (inflated != blockOutputSize || (int) crc.getValue() != int32(data, end - 8)) {
+                    throw new ZipException("Corrupted BGZF block at offset " + block.getStart());
+                }
+                outputPosition += inflated;
+            }
+        }
+        catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        }
+        finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(output);
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdownNow();
+        if (channel != null) {
+            channel.close();
+        }
+        if (in != null) {
+            in.close();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static int uint16(byte[] b, int offset) {
+        return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8;
+    }
+
+    private static int int32(byte[] b, int offset) {
+        return uint16(b, offset) | uint16(b, offset + 2) << 16;
+    }
+
+}
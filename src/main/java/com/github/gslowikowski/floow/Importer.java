@@ -1,16 +1,28 @@
 package com.github.gslowikowski.floow;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Date;
 import java.util.List;
-import java.util.Locale;
-import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bson.Document;
 
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.IndexOptions;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,9 +31,57 @@ public class Importer {
 
     public static final Logger log = LoggerFactory.getLogger(Importer.class);
 
+    private static final long MAP_WINDOW_SIZE = 256L * 1024 * 1024;
+
+    /**
+     * Maximum estimated chunk document size, safely below 16 MB BSON document size limit.
+     */
+    public static final long MAX_DOCUMENT_BYTES = 12L * 1024 * 1024;
+
+    public static final int DEFAULT_TOP_K = 100;
+
+    private static final int HEADER_BYTES = 256;
+
+    private static final String PARTITION_SEPARATOR = ".";
+    /**
+     * Maximum length of source name in partition name, the namespace of the partition and its index must fit in 120 bytes.
+     */
+    private static final int MAX_PARTITION_SOURCE_LENGTH = 48;
+
     private String source;
     private String serverId;
     private MongoCollection<Document> collection;
+    private ChunkWriter writer;
+
+    private ChunkFormat chunkFormat = ChunkFormat.LIST;
+    private int chunkTopK = DEFAULT_TOP_K;
+    private int maxChunkWords = 0;
+    private long maxChunkBytes = 0L;
+    private long spillBytes = 0L;
+    private File spillDirectory = null;
+    private Metrics metrics = new Metrics();
+    private TokenizerType tokenizerType = TokenizerType.ASCII;
+    private WordFilter wordFilter = null;
+    private boolean partitioned = false;
+    private boolean wholeRange = false;
+
+    private AtomicInteger chunkCounter = new AtomicInteger();
+
+    /**
+     * Receives ends of time windows of streaming import.
+     */
+    public interface WindowListener {
+
+        /**
+         * Called when all chunks of a window have been passed to the writer.
+         *
+         * @param windowStart window start time in milliseconds
+         * @param windowEnd window end time in milliseconds
+         * @throws IOException in case of I/O problems
+         */
+        void windowClosed(long windowStart, long windowEnd) throws IOException;
+
+    }
 
     /**
      * Data importer.
@@ -31,22 +91,129 @@ public class Importer {
      * @param collection collection storing imported data
      */
     public Importer(String source, String serverId, MongoCollection<Document> collection) {
+        this(source, serverId, collection, new ChunkWriter(collection));
+    }
+
+    /**
+     * Data importer.
+     * 
+     * @param source source file name
+     * @param serverId additional identifier
+     * @param collection collection storing imported data
+     * @param writer chunk documents writer (closed by the caller after import)
+     */
+    public Importer(String source, String serverId, MongoCollection<Document> collection, ChunkWriter writer) {
         this.source = source;
         this.serverId = serverId;
         this.collection = collection;
+        this.writer = writer;
+    }
+
+    /**
+     * Returns name of collection storing chunks of one source only (see {@link #setPartitioned(boolean)}).
+     * 
+     * Characters other than letters, digits, dots, underscores and hyphens are replaced, so the name
+     * of such a source (or of a long one) is followed by its hash to keep partitions of different sources apart.
+     * 
+     * @param collectionName name of collection storing chunks of all sources
+     * @param source source name
+     * @return partition collection name, e.g. {@code words.dump.txt}
+     */
+    public static String partitionName(String collectionName, String source) {
+        String name = source.replaceAll("[^A-Za-z0-9_.-]", "_");
+        if (!name.equals(source) || name.length() > MAX_PARTITION_SOURCE_LENGTH) {
+            name = name.substring(0, Math.min(name.length(), MAX_PARTITION_SOURCE_LENGTH)) + "_" + Integer.toHexString(source.hashCode());
+        }
+        return collectionName + PARTITION_SEPARATOR + name;
+    }
+
+    /**
+     * Creates index of chunks by source, additional identifier and number, unless it exists.
+     * 
+     * The index is used to find chunks of a source when they are removed, resumed or aggregated.
+     * It is built in the background, so creating it on a large collection does not block the database.
+     * 
+     * @param collection collection storing imported data
+     */
+    public static void ensureIndex(MongoCollection<Document> collection) {
+        collection.createIndex(new Document("source", 1).append("id", 1).append("chunkNo", 1), new IndexOptions().background(true));
     }
 
     /**
      * Cleans collection before import.
      * 
-     * Removes only data related to the source (and additional identifier).
+     * Removes only data related to the source (and additional identifier). A partition holding
+     * only chunks of the source (see {@link #setPartitioned(boolean)}) is dropped instead,
+     * when no additional identifier is given.
      */
     public void cleanData() {
-        Document deleteFilter = new Document("source", source);
+        if (partitioned && serverId == null) {
+            collection.drop();
+            ensureIndex(collection);
+        }
+        else {
+            ensureIndex(collection);
+            collection.deleteMany(sourceFilter());
+        }
+    }
+
+    /**
+     * Prepares collection for resuming interrupted import.
+     * 
+     * Every chunk saved by {@link #importInChunks(FileRange, int, int, int)} records offset of the first line after it.
+     * The import is resumed after the last chunk, which was saved together with all previous chunks.
+     * Chunks saved after it (out of order, by background writers) are removed and chunk numbering is continued.
+     * If there is no such chunk, all data related to the source is removed, like by {@link #cleanData()}.
+     * Compacted chunks (see {@link Compactor}) stand for all chunks merged into them.
+     * 
+     * @return checkpoint to resume the import from or {@code null} if the import has to be started from the beginning
+     */
+    public Checkpoint resume() {
+        ensureIndex(collection);
+        Compactor.completePending(collection, sourceFilter());
+        Checkpoint checkpoint = null;
+        int expectedChunkNo = 0;
+        long lines = 0L;
+        MongoCursor<Document> chunks = collection.find(sourceFilter())
+                .projection(new Document("chunkNo", 1).append("chunks", 1).append("lines", 1).append("offset", 1).append("_id", 0))
+                .sort(new Document("chunkNo", 1))
+                .iterator();
+        try {
+            while (chunks.hasNext()) {
+                Document chunk = chunks.next();
+                if (chunk.getInteger("chunkNo") != expectedChunkNo) {
+                    break; // missing chunk
+                }
+                Object offset = chunk.get("offset");
+                int merged = chunk.getInteger("chunks", 1);
+                if (offset != null || merged > 1) {
+                    // only the last part of split chunk has offset and lines (earlier imports repeated lines in every part),
+                    // compacted chunk counts lines of its checkpoints
+                    lines += chunk.getInteger("lines");
+                }
+                if (offset != null) {
+                    checkpoint = new Checkpoint(expectedChunkNo + merged - 1, ((Number) offset).longValue(), lines);
+                }
+                expectedChunkNo += merged;
+            }
+        }
+        finally {
+            chunks.close();
+        }
+
+        int lastChunkNo = checkpoint != null ? checkpoint.getChunkNo() : -1;
+        long deleted = collection.deleteMany(new Document(sourceFilter()).append("chunkNo", new Document("$gt", lastChunkNo))).getDeletedCount();
+        log.debug(String.format(" resuming after %s, removed %d chunks", checkpoint, deleted));
+        chunkCounter.set(lastChunkNo + 1);
+        return checkpoint;
+    }
+
+    private Document sourceFilter() {
+        Document filter = new Document("source", source);
         if (serverId != null) {
-            deleteFilter.append("id", serverId);
+            filter.append("id", serverId);
         }
-        collection.deleteMany(deleteFilter);
+        return filter;
     }
 
     /**
@@ -59,10 +226,10 @@ public class Importer {
      * @throws IOException in case of I/O problems
      */
     public void importInChunks(BufferedReader r, int skipLines, int limitLines, int chunkSize) throws IOException {
-        int lineCounter = 0;
-        int chunkNo = 0;
-        Map<String, Long> wordCounts = new HashMap<String, Long>();
+        ChunkBuilder builder = new ChunkBuilder(0/*skipLines*/, limitLines, chunkSize);
+        Tokenizer tokenizer = newTokenizer(builder);
 
+        long startNanos = System.nanoTime();
         String line = r.readLine();
 
         if (skipLines > 0) {
@@ -73,48 +240,618 @@ public class Importer {
             }
         }
 
-        while (line != null && (limitLines == 0 || lineCounter < limitLines)) {
-            String[] words = line.toLowerCase(Locale.UK).split("[^a-z]");
-            for (String word: words) {
-                if (word.length() > 0) {
-                    Long count = wordCounts.get(word);
-                    count = count != null ? Long.valueOf(count.longValue() + 1) : Long.valueOf(1L);
-                    wordCounts.put(word, count);
+        try {
+            long bytes = 0L;
+            while (line != null && tokenizer.tokenize(line)) {
+                bytes += line.length() + 1;
+                line = r.readLine();
+            }
+            // lines are read and tokenized one by one, too short to time them separately
+            metrics.addRead(bytes, 0L);
+            builder.tokenized(System.nanoTime() - startNanos);
+            builder.finish();
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause(); // thrown by chunk builder while saving chunk
+        }
+        finally {
+            builder.close();
+        }
+    }
+
+    /**
+     * Imports file byte range into collection.
+     * 
+     * The range is memory-mapped and tokenized byte by byte, without decoding it into strings.
+     * Every chunk records offset of the first line after it, so the import can be resumed (see {@link #resume()}).
+     * 
+     * @param range source file byte range
+     * @param skipLines number of lines to skip
+     * @param limitLines number of lines to import
+     * @param chunkSize aggregation chunk size
+     * @throws IOException in case of I/O problems
+     */
+    public void importInChunks(FileRange range, int skipLines, int limitLines, int chunkSize) throws IOException {
+        importRange(range, skipLines, limitLines, chunkSize, true);
+    }
+
+    /**
+     * Imports file byte range, which may be imported concurrently with other ranges of the same file.
+     * 
+     * @param checkpoints {@code true} if chunks should record source file offsets (only for sequential import)
+     */
+    void importRange(FileRange range, int skipLines, int limitLines, int chunkSize, boolean checkpoints) throws IOException {
+        ChunkBuilder builder = new ChunkBuilder(skipLines, limitLines, chunkSize);
+        Tokenizer tokenizer = newTokenizer(builder);
+        if (checkpoints) {
+            builder.trackOffsets(tokenizer, range.getStart());
+        }
+
+        FileChannel channel = FileChannel.open(range.getFile().toPath(), StandardOpenOption.READ);
+        try {
+            boolean more = true;
+            long position = range.getStart();
+            while (more && position < range.getEnd()) {
+                long size = Math.min(MAP_WINDOW_SIZE, range.getEnd() - position);
+                long startNanos = System.nanoTime();
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                buf.load(); // page in the window, so reading is timed apart from tokenizing
+                long readNanos = System.nanoTime();
+                metrics.addRead(size, readNanos - startNanos);
+                more = tokenizer.tokenize(buf);
+                builder.tokenized(System.nanoTime() - readNanos);
+                position += size;
+            }
+            if (more) {
+                tokenizer.finish();
+            }
+            builder.finish();
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause(); // thrown by chunk builder while saving chunk
+        }
+        finally {
+            builder.close();
+            channel.close();
+        }
+    }
+
+    /**
+     * Imports gzip file into collection.
+     * 
+     * The file is decompressed in memory, in parallel if possible (see {@link GzipSource}), and decompressed buffers
+     * are tokenized in file order, so skipping and limiting lines works as for uncompressed files.
+     * 
+     * @param file gzip file
+     * @param skipLines number of lines to skip
+     * @param limitLines number of lines to import
+     * @param chunkSize aggregation chunk size
+     * @param threads number of decompressing threads
+     * @throws IOException in case of I/O problems
+     */
+    public void importGzip(File file, int skipLines, int limitLines, int chunkSize, int threads) throws IOException {
+        ChunkBuilder builder = new ChunkBuilder(skipLines, limitLines, chunkSize);
+        Tokenizer tokenizer = newTokenizer(builder);
+
+        GzipSource gzip = new GzipSource(file, threads);
+        try {
+            boolean more = true;
+            while (more) {
+                long startNanos = System.nanoTime();
+                ByteBuffer buf = gzip.next();
+                if (buf == null) {
+                    break;
                 }
+                long readNanos = System.nanoTime();
+                metrics.addRead(buf.remaining(), readNanos - startNanos);
+                more = tokenizer.tokenize(buf);
+                builder.tokenized(System.nanoTime() - readNanos);
             }
-            lineCounter++;
-            if (chunkSize > 0 && lineCounter % chunkSize == 0) {
-                log.debug(" saving chunk " + chunkNo);
-                saveChunkDocument(source, serverId, chunkNo, chunkSize, collection, wordCounts);
+            if (more) {
+                tokenizer.finish();
+            }
+            builder.finish();
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause(); // thrown by chunk builder while saving chunk
+        }
+        finally {
+            builder.close();
+            gzip.close();
+        }
+    }
 
-                wordCounts = new HashMap<String, Long>(); // reset word map after saving a chunk
-                chunkNo++;
+    /**
+     * Imports whole file into collection using multiple threads.
+     * 
+     * The file is split into byte ranges aligned to line boundaries, one range per thread.
+     * Every thread counts words of its range separately, all chunks get distinct numbers.
+     * 
+     * @param file source file
+     * @param threads number of import threads
+     * @param chunkSize aggregation chunk size
+     * @throws IOException in case of I/O problems
+     */
+    public void importInParallel(File file, int threads, int chunkSize) throws IOException {
+        List<FileRange> ranges = FileRange.split(file, threads);
+        ExecutorService executor = Executors.newFixedThreadPool(ranges.size());
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (final FileRange range: ranges) {
+                results.add(executor.submit(() -> {
+                    log.debug("importing range " + range);
+                    // chunks of concurrent ranges are numbered in any order, so they cannot be checkpoints
+                    importRange(range, 0/*skipLines*/, 0/*limitLines*/, chunkSize, false);
+                    return null;
+                }));
             }
-            line = r.readLine();
+            for (Future<Void> result: results) {
+                result.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        finally {
+            executor.shutdownNow();
         }
+    }
+
+    /**
+     * Imports live stream of lines, e.g. standard input or a growing file, until its end.
+     * 
+     * Time is divided into windows of equal length, aligned to multiples of the window length.
+     * Chunks are saved when they reach the chunk size (or other chunk limits) and at the end of every window,
+     * even if no new lines were read, so word counts of every window are saved soon after it ends.
+     * Every chunk records start time of its window in {@code window} field. Lines are counted
+     * in the window in which they end.
+     * 
+     * @param stream source stream
+     * @param chunkSize aggregation chunk size
+     * @param windowMillis window length in milliseconds
+     * @param listener receiver of window ends
+     * @throws IOException in case of I/O problems
+     */
+    public void importStream(StreamSource stream, int chunkSize, long windowMillis, WindowListener listener) throws IOException {
+        ChunkBuilder builder = new ChunkBuilder(0/*skipLines*/, 0/*limitLines*/, chunkSize);
+        Tokenizer tokenizer = newTokenizer(builder);
 
-        // save the rest
-        if (!wordCounts.isEmpty()) {
-            log.debug(".saving chunk " + chunkNo);
-            saveChunkDocument(source, serverId, chunkNo, chunkSize, collection, wordCounts);
+        long windowStart = System.currentTimeMillis() / windowMillis * windowMillis;
+        builder.window = windowStart;
+        try {
+            while (true) {
+                ByteBuffer buf = stream.next(Math.max(windowStart + windowMillis - System.currentTimeMillis(), 1L));
+                if (buf == null) {
+                    break;
+                }
+                if (buf.hasRemaining()) {
+                    // time of waiting for data is not reading time
+                    metrics.addRead(buf.remaining(), 0L);
+                    long startNanos = System.nanoTime();
+                    tokenizer.tokenize(buf);
+                    builder.tokenized(System.nanoTime() - startNanos);
+                }
+                long now = System.currentTimeMillis();
+                if (now >= windowStart + windowMillis) {
+                    builder.finish();
+                    listener.windowClosed(windowStart, windowStart + windowMillis);
+                    windowStart = now / windowMillis * windowMillis;
+                    builder.window = windowStart;
+                }
+            }
+            tokenizer.finish();
+            builder.finish();
+            listener.windowClosed(windowStart, windowStart + windowMillis);
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause(); // thrown by chunk builder while saving chunk
+        }
+        finally {
+            builder.close();
         }
     }
 
-    private void saveChunkDocument(String source, String serverId, int chunkNo, int chunkSize,
-            MongoCollection<Document> collection, Map<String, Long> wordCounts) {
-        List<Document> wordsWithCounts = new ArrayList<Document>();
-        for (Map.Entry<String, Long> e: wordCounts.entrySet()) {
-            wordsWithCounts.add(new Document("word", e.getKey()).append("cnt", e.getValue().intValue()));
+    /**
+     * Declares that the collection stores chunks of the source only, e.g. {@link #partitionName(String, String)}
+     * collection, so it can be dropped instead of removing chunks one by one.
+     * 
+     * @param partitioned {@code true} if the collection stores only chunks of the source
+     */
+    public void setPartitioned(boolean partitioned) {
+        this.partitioned = partitioned;
+    }
+
+    /**
+     * Counts words of every imported range (or whole file) in one off-heap table, instead of chunks of lines.
+     * 
+     * Words of the range are counted in {@link OffHeapWordCountTable} outside of the heap, so the table may hold
+     * the whole vocabulary without slowing down the garbage collector. At the end of the range one chunk
+     * is saved, split into parts holding every word once, so far fewer documents are written and aggregated.
+     * Chunk size and other chunk limits are ignored, except the limit of part size ({@link #setChunkLimits(int, long)}).
+     * 
+     * @param wholeRange {@code true} to count whole ranges ({@code false} by default)
+     */
+    public void setWholeRange(boolean wholeRange) {
+        this.wholeRange = wholeRange;
+    }
+
+    /**
+     * Sets additional chunk size limits.
+     * 
+     * A chunk is saved when it reaches any of the limits (or the number of lines given to import methods).
+     * 
+     * @param maxWords maximum number of distinct words in a chunk (0 means no limit)
+     * @param maxBytes maximum estimated size of chunk document in bytes (0 means no limit)
+     */
+    public void setChunkLimits(int maxWords, long maxBytes) {
+        this.maxChunkWords = maxWords;
+        this.maxChunkBytes = maxBytes;
+    }
+
+    /**
+     * Limits memory used for counting words of a chunk.
+     * 
+     * When word counts take more memory, they are written to a temporary file sorted by word (a run)
+     * and counting continues with an empty table. Runs of a chunk are merged while saving the chunk,
+     * so chunks may contain more distinct words than fit in memory. Every import thread has its own limit.
+     * 
+     * @param maxBytes maximum memory used by word counts of a chunk (0 means no limit)
+     * @param directory directory of temporary files ({@code null} means the default temporary directory)
+     */
+    public void setSpillLimit(long maxBytes, File directory) {
+        this.spillBytes = maxBytes;
+        this.spillDirectory = directory;
+    }
+
+    /**
+     * Sets tokenizer splitting source lines into words.
+     * 
+     * @param type tokenizer type ({@link TokenizerType#ASCII} by default)
+     */
+    public void setTokenizer(TokenizerType type) {
+        this.tokenizerType = type;
+    }
+
+    /**
+     * Sets filter of words, applied before words are counted.
+     * 
+     * @param filter word filter ({@code null} means counting all words)
+     */
+    public void setWordFilter(WordFilter filter) {
+        this.wordFilter = filter;
+    }
+
+    /**
+     * Sets metrics updated during import.
+     * 
+     * @param metrics run metrics (by default metrics of this importer only, not published anywhere)
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets format of word counts in chunk documents.
+     * 
+     * @param format chunk format ({@link ChunkFormat#LIST} by default)
+     */
+    public void setChunkFormat(ChunkFormat format) {
+        this.chunkFormat = format;
+    }
+
+    /**
+     * Sets number of the most frequent words summarized in every chunk document.
+     * 
+     * The summary ({@code topK} array and {@code topKMin} count) lets {@link Aggregator#topK(String, int)}
+     * find the most frequent words without aggregating all words.
+     * 
+     * @param k number of words, 0 means no summary
+     */
+    public void setChunkTopK(int k) {
+        this.chunkTopK = k;
+    }
+
+    private Tokenizer newTokenizer(ChunkBuilder builder) {
+        return tokenizerType.create(wordFilter != null ? wordFilter.wrap(builder) : builder);
+    }
+
+    /**
+     * Estimates encoded size of chunk document.
+     * 
+     * Every entry takes about {@link ChunkFormat#getEntryBytes()} bytes plus word length.
+     * 
+     * @param wordCounts chunk word counts
+     * @return estimated BSON document size in bytes
+     */
+    long estimateDocumentSize(WordCountTable wordCounts) {
+        return HEADER_BYTES + (long) wordCounts.size() * chunkFormat.getEntryBytes() + wordCounts.getWordBytes();
+    }
+
+    private void saveChunk(int chunkSize, int lines, long offset, long window, WordCountTable wordCounts) throws IOException {
+        // split chunks which would not fit into a single document into parts of similar size
+        long size = estimateDocumentSize(wordCounts);
+        int parts = (int) ((size + MAX_DOCUMENT_BYTES - 1) / MAX_DOCUMENT_BYTES);
+        long partSize = size / parts;
+
+        int first = 0;
+        for (int part = 1; part <= parts; part++) {
+            int last = first;
+            long lastSize = HEADER_BYTES;
+            while (last < wordCounts.size() && (part == parts || lastSize < partSize)) {
+                lastSize += chunkFormat.getEntryBytes() + wordCounts.getWordLength(last);
+                last++;
+            }
+            // lines and offset are recorded by the last part only, so lines of all documents add up
+            saveChunkDocument(chunkSize, part == parts ? lines : 0, part == parts ? offset : -1L, window, wordCounts, first, last);
+            first = last;
+        }
+    }
+
+    private void saveMergedChunk(int chunkSize, int lines, long offset, long window, WordSource words) throws IOException {
+        // merged words are distinct, so parts are filled one after another
+        long maxPartBytes = maxChunkBytes > 0 ? Math.min(maxChunkBytes, MAX_DOCUMENT_BYTES) : MAX_DOCUMENT_BYTES;
+        WordCountTable part = new WordCountTable();
+        try {
+            words.forEach((word, wordOffset, length, count) -> {
+                if (!part.isEmpty() && estimateDocumentSize(part) + chunkFormat.getEntryBytes() + length > maxPartBytes) {
+                    try {
+                        saveChunkDocument(chunkSize, 0, -1L, window, part, 0, part.size());
+                    }
+                    catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    part.clear();
+                }
+                part.add(word, wordOffset, length, WordCountTable.hash(word, wordOffset, length), count);
+            });
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause(); // thrown while saving part
+        }
+        saveChunkDocument(chunkSize, lines, offset, window, part, 0, part.size());
+    }
+
+    private void saveChunkDocument(int chunkSize, int lines, long offset, long window, WordCountTable wordCounts, int fromEntry, int toEntry) throws IOException {
+        int chunkNo = chunkCounter.getAndIncrement();
+        log.debug(String.format(" saving chunk %d (%d words, %d lines)", chunkNo, toEntry - fromEntry, lines));
+        long startNanos = System.nanoTime();
+        Document doc = buildChunkDocument(chunkNo, chunkSize, lines, offset, wordCounts, fromEntry, toEntry);
+        if (window >= 0) {
+            doc.append("window", new Date(window));
         }
+        long encodedNanos = System.nanoTime();
+        metrics.addPhase(Metrics.Phase.ENCODE, encodedNanos - startNanos);
+        writer.write(doc);
+        metrics.addPhase(Metrics.Phase.WRITE, System.nanoTime() - encodedNanos);
+        metrics.addChunkDocument();
+    }
 
+    /**
+     * Builds chunk document of word counts table entries.
+     * 
+     * @param chunkNo chunk number
+     * @param chunkSize aggregation chunk size
+     * @param lines number of lines in the chunk
+     * @param offset source file offset of the first line after the chunk, -1 if unknown
+     * @param wordCounts chunk word counts
+     * @param fromEntry first entry (inclusive)
+     * @param toEntry last entry (exclusive)
+     * @return chunk document
+     */
+    Document buildChunkDocument(int chunkNo, int chunkSize, int lines, long offset,
+            WordCountTable wordCounts, int fromEntry, int toEntry) {
         Document doc = new Document("source", source);
         if (serverId != null) {
             doc.append("id", serverId);
         }
         doc.append("chunkNo", chunkNo);
         doc.append("chunkSize", chunkSize);
-        doc.append("words", wordsWithCounts);
-        collection.insertOne(doc);
+        doc.append("lines", lines);
+        if (offset >= 0) {
+            doc.append("offset", offset);
+        }
+        chunkFormat.append(doc, wordCounts, fromEntry, toEntry);
+        if (chunkTopK > 0) {
+            // words not in topK array occur in the chunk at most topKMin times
+            int[] top = wordCounts.topEntries(fromEntry, toEntry, chunkTopK);
+            List<Document> topWords = new ArrayList<Document>(top.length);
+            for (int entry: top) {
+                topWords.add(new Document("word", wordCounts.getWord(entry)).append("cnt", Aggregator.toBsonNumber(wordCounts.getCount(entry))));
+            }
+            long topKMin = top.length < toEntry - fromEntry ? wordCounts.getCount(top[top.length - 1]) : 0L;
+            doc.append("topK", topWords);
+            doc.append("topKMin", Aggregator.toBsonNumber(topKMin));
+        }
+        return doc;
+    }
+
+    /**
+     * Distinct words of a chunk counted outside of {@link WordCountTable}.
+     */
+    private interface WordSource {
+
+        void forEach(ChunkFormat.WordVisitor visitor) throws IOException;
+
+    }
+
+    /**
+     * Collects word counts of consecutive lines and saves them in chunks.
+     */
+    private class ChunkBuilder implements Tokenizer.Handler {
+
+        private int skipLines;
+        private int limitLines;
+        private int chunkSize;
+
+        private int skippedLineCounter = 0;
+        private int lineCounter = 0;
+        private int chunkLineCounter = 0;
+        private WordCountTable wordCounts = new WordCountTable();
+
+        private Tokenizer tokenizer = null;
+        private long rangeStart = 0L;
+
+        /**
+         * Start time of the time window of streamed lines, -1 if not streaming.
+         */
+        long window = -1L;
+
+        private SpilledRuns runs = spillBytes > 0 ? new SpilledRuns(spillDirectory) : null;
+        private OffHeapWordCountTable rangeCounts = wholeRange ? new OffHeapWordCountTable() : null;
+
+        // metrics not reported yet
+        private int tokenCounter = 0;
+        private int reportedLines = 0;
+        private int reportedWords = 0;
+        private long savingNanos = 0L;
+
+        ChunkBuilder(int skipLines, int limitLines, int chunkSize) {
+            this.skipLines = skipLines;
+            this.limitLines = limitLines;
+            // the whole range is one chunk
+            this.chunkSize = wholeRange ? 0 : chunkSize;
+        }
+
+        /**
+         * Records source file offset of the end of every chunk.
+         */
+        void trackOffsets(Tokenizer tokenizer, long rangeStart) {
+            this.tokenizer = tokenizer;
+            this.rangeStart = rangeStart;
+        }
+
+        @Override
+        public void word(byte[] word, int length, int hash) {
+            if (skippedLineCounter < skipLines) {
+                return;
+            }
+            tokenCounter++;
+            if (rangeCounts != null) {
+                rangeCounts.add(word, 0, length, hash, 1);
+                return;
+            }
+            wordCounts.add(word, length, hash);
+            if (runs != null && wordCounts.getMemoryBytes() >= spillBytes) {
+                try {
+                    runs.spill(wordCounts);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                wordCounts.clear();
+            }
+        }
+
+        @Override
+        public boolean endOfLine() {
+            if (skippedLineCounter < skipLines) {
+                skippedLineCounter++;
+                return true;
+            }
+            lineCounter++;
+            chunkLineCounter++;
+            if (isFull()) {
+                try {
+                    save();
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return limitLines == 0 || lineCounter < limitLines;
+        }
+
+        /**
+         * Reports metrics after tokenizing a buffer.
+         * 
+         * @param nanos time of tokenizing, including saving chunks
+         */
+        void tokenized(long nanos) {
+            metrics.addPhase(Metrics.Phase.TOKENIZE, nanos - savingNanos);
+            savingNanos = 0L;
+            report();
+        }
+
+        void finish() throws IOException {
+            // save the rest
+            if (!wordCounts.isEmpty() || (runs != null && !runs.isEmpty()) || (rangeCounts != null && !rangeCounts.isEmpty())) {
+                save();
+            }
+            report();
+        }
+
+        /**
+         * Removes temporary files left by failed import.
+         */
+        void close() {
+            metrics.addCurrentChunkWords(-reportedWords);
+            reportedWords = 0;
+            if (runs != null) {
+                runs.close();
+            }
+        }
+
+        private void report() {
+            metrics.addTokens(tokenCounter);
+            tokenCounter = 0;
+            metrics.addLines(lineCounter - reportedLines);
+            reportedLines = lineCounter;
+            int words = rangeCounts != null ? rangeCounts.size() : wordCounts.size();
+            metrics.addCurrentChunkWords(words - reportedWords);
+            reportedWords = words;
+        }
+
+        private void save() throws IOException {
+            long startNanos = System.nanoTime();
+            if (rangeCounts != null) {
+                log.debug(String.format(" saving %d words counted in %d bytes off-heap", rangeCounts.size(), rangeCounts.getMemoryBytes()));
+                saveMergedChunk(chunkSize, chunkLineCounter, lineEnd(), window, rangeCounts::forEach);
+                rangeCounts.clear();
+            }
+            else if (runs != null && !runs.isEmpty()) {
+                runs.spill(wordCounts);
+                try {
+                    saveMergedChunk(chunkSize, chunkLineCounter, lineEnd(), window, runs::merge);
+                }
+                finally {
+                    runs.clear();
+                }
+            }
+            else {
+                saveChunk(chunkSize, chunkLineCounter, lineEnd(), window, wordCounts);
+            }
+
+            wordCounts.clear(); // reset word map after saving a chunk
+            chunkLineCounter = 0;
+
+            long nanos = System.nanoTime() - startNanos;
+            savingNanos += nanos;
+            metrics.addChunkFlush(nanos);
+        }
+
+        private long lineEnd() {
+            return tokenizer != null ? rangeStart + tokenizer.getLineEnd() : -1L;
+        }
+
+        private boolean isFull() {
+            if (rangeCounts != null) {
+                return false; // the whole range is one chunk, split only when saved
+            }
+            return (chunkSize > 0 && chunkLineCounter >= chunkSize)
+                    || (maxChunkWords > 0 && wordCounts.size() >= maxChunkWords)
+                    || (maxChunkBytes > 0 && estimateDocumentSize(wordCounts) >= maxChunkBytes);
+        }
     }
 
 }
@@ -0,0 +1,217 @@
+package com.github.gslowikowski.floow;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class LineIndex {
+
+    public static final Logger log = LoggerFactory.getLogger(LineIndex.class);
+
+    public static final int DEFAULT_INTERVAL = 10000;
+    public static final String FILE_SUFFIX = ".lines";
+
+    private static final int MAGIC = 0x464c4958; // "FLIX"
+    private static final long MAP_WINDOW_SIZE = 256L * 1024 * 1024;
+
+    private long fileLength;
+    private long lastModified;
+    private int interval;
+    private long[] offsets;
+
+    /**
+     * Sampled line offsets index.
+     *
+     * @param fileLength length of indexed file
+     * @param lastModified modification time of indexed file
+     * @param interval number of lines between indexed lines
+     * @param offsets byte offsets of lines 0, interval, 2 * interval, ...
+     */
+    public LineIndex(long fileLength, long lastModified, int interval, long[] offsets) {
+        this.fileLength = fileLength;
+        this.lastModified = lastModified;
+        this.interval = interval;
+        this.offsets = offsets;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * Returns the nearest indexed line not greater than given line.
+     *
+     * @param line line number (zero based)
+     * @return indexed line number
+     */
+    public int floorLine(int line) {
+        int entry = Math.min(line / interval, offsets.length - 1);
+        return entry * interval;
+    }
+
+    /**
+     * Returns byte offset of indexed line.
+     *
+     * @param indexedLine line number returned by {@link #floorLine(int)}
+     * @return byte offset of the beginning of the line
+     */
+    public long offsetOf(int indexedLine) {
+        return offsets[indexedLine / interval];
+    }
+
+    /**
+     * Returns sidecar index file of a source file.
+     *
+     * @param source source file
+     * @return index file
+     */
+    public static File indexFile(File source) {
+        return new File(source.getPath() + FILE_SUFFIX);
+    }
+
+    /**
+     * Loads index of a source file from its sidecar file, building and saving it if needed.
+     *
+     * @param source source file
+     * @param interval number of lines between indexed lines, used if index has to be built
+     * @return line index
+     * @throws IOException in case of I/O problems
+     */
+    public static LineIndex loadOrBuild(File source, int interval) throws IOException {
+        LineIndex index = load(source);
+        if (index == null) {
+            long startTs = System.currentTimeMillis();
+            index = build(source, interval);
+            index.save(indexFile(source));
+            long endTs = System.currentTimeMillis();
+            log.info(String.format("Built line index in %d seconds.", (endTs-startTs)/1000));
+        }
+        return index;
+    }
+
+    /**
+     * Loads index of a source file from its sidecar file.
+     *
+     * @param source source file
+     * @return line index or {@code null} if there is no index file or it is out of date
+     * @throws IOException in case of I/O problems
+     */
+    public static LineIndex load(File source) throws IOException {
+        File indexFile = indexFile(source);
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            if (in.readInt() != MAGIC) {
+                log.warn("Ignoring invalid line index " + indexFile);
+                return null;
+            }
+            long fileLength = in.readLong();
+            long lastModified = in.readLong();
+            if (fileLength != source.length() || lastModified != source.lastModified()) {
+                log.info("Ignoring out of date line index " + indexFile);
+                return null;
+            }
+            int interval = in.readInt();
+            long[] offsets = new long[in.readInt()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = in.readLong();
+            }
+            return new LineIndex(fileLength, lastModified, interval, offsets);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Builds index of a source file.
+     *
+     * @param source source file
+     * @param interval number of lines between indexed lines
+     * @return line index
+     * @throws IOException in case of I/O problems
+     */
+    public static LineIndex build(File source, int interval) throws IOException {
+        long lastModified = source.lastModified();
+        long[] offsets = new long[16];
+        int count = 1; // line 0 starts at offset 0
+        int lineCounter = 0;
+
+        FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+        try {
+            long fileLength = channel.size();
+            long position = 0L;
+            while (position < fileLength) {
+                long size = Math.min(MAP_WINDOW_SIZE, fileLength - position);
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                for (int i = 0; i < size; i++) {
+                    if (buf.get(i) == '\n') {
+                        lineCounter++;
+                        long lineStart = position + i + 1;
+                        if (lineCounter % interval == 0 && lineStart < fileLength) {
+                            if (count == offsets.length) {
+                                offsets = Arrays.copyOf(offsets, count * 2);
+                            }
+                            offsets[count++] = lineStart;
+                        }
+                    }
+                }
+                position += size;
+            }
+            return new LineIndex(fileLength, lastModified, interval, Arrays.copyOf(offsets, count));
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Saves index to a file.
+     *
+     * The index is written to a temporary file first and then moved, so processes started concurrently
+     * never read partially written index.
+     *
+     * @param indexFile index file
+     * @throws IOException in case of I/O problems
+     */
+    public void save(File indexFile) throws IOException {
+        File tmpFile = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getAbsoluteFile().getParentFile());
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeLong(fileLength);
+                out.writeLong(lastModified);
+                out.writeInt(interval);
+                out.writeInt(offsets.length);
+                for (long offset: offsets) {
+                    out.writeLong(offset);
+                }
+            }
+            finally {
+                out.close();
+            }
+            Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            tmpFile.delete();
+        }
+    }
+
+}
@@ -0,0 +1,434 @@
+package com.github.gslowikowski.floow;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class Metrics implements MetricsMXBean, Closeable {
+
+    public static final Logger log = LoggerFactory.getLogger(Metrics.class);
+
+    public static final String OBJECT_NAME = "com.github.gslowikowski.floow:type=Metrics";
+    public static final String HTTP_PATH = "/metrics";
+
+    /**
+     * Phases of a run, every one timed separately.
+     */
+    public enum Phase {
+        /** reading or decompressing source bytes */
+        READ,
+        /** splitting lines into words and counting them */
+        TOKENIZE,
+        /** building chunk documents */
+        ENCODE,
+        /** passing chunk documents to the writer, including waiting for room in its queue */
+        WRITE,
+        /** aggregating chunks in the database or in Java */
+        AGGREGATE
+    }
+
+    private final long startNanos = System.nanoTime();
+
+    private LongAdder bytes = new LongAdder();
+    private LongAdder lines = new LongAdder();
+    private LongAdder tokens = new LongAdder();
+    private LongAdder chunks = new LongAdder();
+    private AtomicLong currentChunkWords = new AtomicLong();
+    private AtomicLong writeQueueDepth = new AtomicLong();
+    private LongAdder[] phaseNanos = new LongAdder[Phase.values().length];
+    private LatencyHistogram chunkFlush = new LatencyHistogram();
+    private LatencyHistogram mongoWrite = new LatencyHistogram();
+
+    private ObjectName objectName = null;
+    private HttpServer httpServer = null;
+
+    /**
+     * Counters, gauges and latency histograms of import and aggregation.
+     *
+     * Importing threads update them with atomic adders, mostly once per tokenized buffer, so collecting
+     * metrics does not slow down the import. Metrics can be read via JMX (see {@link #register()}),
+     * via local HTTP endpoint (see {@link #startHttpServer(int)}) or saved as JSON report at the end of the run.
+     */
+    public Metrics() {
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseNanos[i] = new LongAdder();
+        }
+    }
+
+    void addRead(long readBytes, long nanos) {
+        bytes.add(readBytes);
+        phaseNanos[Phase.READ.ordinal()].add(nanos);
+    }
+
+    void addLines(long count) {
+        lines.add(count);
+    }
+
+    void addTokens(long count) {
+        tokens.add(count);
+    }
+
+    void addCurrentChunkWords(long delta) {
+        currentChunkWords.addAndGet(delta);
+    }
+
+    void addChunkFlush(long nanos) {
+        chunkFlush.record(nanos);
+    }
+
+    void addChunkDocument() {
+        chunks.increment();
+    }
+
+    void addWriteQueueDepth(long delta) {
+        writeQueueDepth.addAndGet(delta);
+    }
+
+    void addMongoWrite(long nanos) {
+        mongoWrite.record(nanos);
+    }
+
+    /**
+     * Adds time spent in a phase.
+     *
+     * @param phase run phase
+     * @param nanos elapsed time in nanoseconds
+     */
+    public void addPhase(Phase phase, long nanos) {
+        phaseNanos[phase.ordinal()].add(nanos);
+    }
+
+    /**
+     * Registers metrics in platform MBean server as {@value #OBJECT_NAME}.
+     *
+     * @throws JMException if metrics cannot be registered, e.g. when already registered by another instance
+     */
+    public void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        server.registerMBean(this, name);
+        objectName = name;
+    }
+
+    /**
+     * Starts HTTP server returning metrics as JSON at {@value #HTTP_PATH}, listening on loopback address only.
+     *
+     * @param port HTTP port (0 means any free port)
+     * @return bound port
+     * @throws IOException if the server cannot be started
+     */
+    public int startHttpServer(int port) throws IOException {
+        QueryServer.enableNoDelay();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(HTTP_PATH, exchange -> {
+            try {
+                byte[] body = toJson().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            }
+            finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        httpServer = server;
+        int boundPort = server.getAddress().getPort();
+        log.info(String.format("Metrics available at http://localhost:%d%s", boundPort, HTTP_PATH));
+        return boundPort;
+    }
+
+    /**
+     * Saves metrics as JSON report.
+     *
+     * @param file report file
+     * @throws IOException in case of I/O problems
+     */
+    public void writeReport(File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(toJson().getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Stops HTTP server and unregisters metrics from MBean server.
+     */
+    @Override
+    public void close() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            }
+            catch (JMException e) {
+                log.warn("Cannot unregister metrics", e);
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * Returns all metrics as JSON object.
+     *
+     * @return JSON text
+     */
+    public String toJson() {
+        Map<String, Object> report = new LinkedHashMap<String, Object>();
+        report.put("elapsedSeconds", getElapsedSeconds());
+        report.put("bytes", getBytes());
+        report.put("lines", getLines());
+        report.put("tokens", getTokens());
+        report.put("chunks", getChunks());
+        report.put("bytesPerSecond", getBytesPerSecond());
+        report.put("linesPerSecond", getLinesPerSecond());
+        report.put("tokensPerSecond", getTokensPerSecond());
+        report.put("currentChunkWords", getCurrentChunkWords());
+        report.put("writeQueueDepth", getWriteQueueDepth());
+        report.put("chunkFlushMillis", chunkFlush.toMap());
+        report.put("mongoWriteMillis", mongoWrite.toMap());
+        Map<String, Object> phases = new LinkedHashMap<String, Object>();
+        for (Phase phase: Phase.values()) {
+            phases.put(phase.name().toLowerCase(Locale.ROOT), seconds(phaseNanos[phase.ordinal()].sum()));
+        }
+        report.put("phaseSeconds", phases);
+        StringBuilder sb = new StringBuilder();
+        appendJson(sb, report);
+        return sb.toString();
+    }
+
+    @Override
+    public double getElapsedSeconds() {
+        return seconds(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getLines() {
+        return lines.sum();
+    }
+
+    @Override
+    public long getTokens() {
+        return tokens.sum();
+    }
+
+    @Override
+    public long getChunks() {
+        return chunks.sum();
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return perSecond(getBytes());
+    }
+
+    @Override
+    public double getLinesPerSecond() {
+        return perSecond(getLines());
+    }
+
+    @Override
+    public double getTokensPerSecond() {
+        return perSecond(getTokens());
+    }
+
+    @Override
+    public long getCurrentChunkWords() {
+        return currentChunkWords.get();
+    }
+
+    @Override
+    public long getWriteQueueDepth() {
+        return writeQueueDepth.get();
+    }
+
+    @Override
+    public long getChunkFlushCount() {
+        return chunkFlush.getCount();
+    }
+
+    @Override
+    public double getChunkFlushMillisP50() {
+        return chunkFlush.percentileMillis(0.5);
+    }
+
+    @Override
+    public double getChunkFlushMillisP99() {
+        return chunkFlush.percentileMillis(0.99);
+    }
+
+    @Override
+    public double getChunkFlushMillisMax() {
+        return chunkFlush.maxMillis();
+    }
+
+    @Override
+    public long getMongoWriteCount() {
+        return mongoWrite.getCount();
+    }
+
+    @Override
+    public double getMongoWriteMillisP50() {
+        return mongoWrite.percentileMillis(0.5);
+    }
+
+    @Override
+    public double getMongoWriteMillisP99() {
+        return mongoWrite.percentileMillis(0.99);
+    }
+
+    @Override
+    public double getMongoWriteMillisMax() {
+        return mongoWrite.maxMillis();
+    }
+
+    @Override
+    public double getReadSeconds() {
+        return seconds(phaseNanos[Phase.READ.ordinal()].sum());
+    }
+
+    @Override
+    public double getTokenizeSeconds() {
+        return seconds(phaseNanos[Phase.TOKENIZE.ordinal()].sum());
+    }
+
+    @Override
+    public double getEncodeSeconds() {
+        return seconds(phaseNanos[Phase.ENCODE.ordinal()].sum());
+    }
+
+    @Override
+    public double getWriteSeconds() {
+        return seconds(phaseNanos[Phase.WRITE.ordinal()].sum());
+    }
+
+    @Override
+    public double getAggregateSeconds() {
+        return seconds(phaseNanos[Phase.AGGREGATE.ordinal()].sum());
+    }
+
+    private double perSecond(long count) {
+        double elapsed = getElapsedSeconds();
+        return elapsed > 0 ? count / elapsed : 0.0;
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void appendJson(StringBuilder sb, Object value) {
+        if (value instanceof Map) {
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<String, Object> entry: ((Map<String, Object>) value).entrySet()) {
+                if (!first) {
+                    sb.append(", ");
+                }
+                first = false;
+                sb.append('"').append(entry.getKey()).append("\": ");
+                appendJson(sb, entry.getValue());
+            }
+            sb.append('}');
+        }
+        else if (value instanceof Double) {
+            sb.append(String.format(Locale.ROOT, "%.3f", (Double) value));
+        }
+        else {
+            sb.append(value);
+        }
+    }
+
+    /**
+     * Latency histogram with buckets growing by powers of two, from 1 microsecond up.
+     *
+     * Percentiles are upper bounds of buckets, so they are at most two times too high.
+     */
+    static class LatencyHistogram {
+
+        private static final int BUCKETS = 40;
+
+        private AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private LongAdder count = new LongAdder();
+        private LongAdder sumNanos = new LongAdder();
+        private AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            long micros = Math.max(nanos / 1000, 1L);
+            int bucket = Math.min(63 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+            buckets.incrementAndGet(bucket);
+            count.increment();
+            sumNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        double percentileMillis(double percentile) {
+            long total = 0L;
+            for (int i = 0; i < BUCKETS; i++) {
+                total += buckets.get(i);
+            }
+            long rank = (long) Math.ceil(total * percentile);
+            long seen = 0L;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) {
+                    return Math.min((2L << i) / 1000.0, maxMillis());
+                }
+            }
+            return 0.0;
+        }
+
+        double maxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            long n = getCount();
+            map.put("count", n);
+            map.put("mean", n > 0 ? sumNanos.sum() / 1e6 / n : 0.0);
+            map.put("p50", percentileMillis(0.5));
+            map.put("p99", percentileMillis(0.99));
+            map.put("max", maxMillis());
+            return map;
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.github.gslowikowski.floow;
+
+/**
+ * Run metrics published via JMX (see {@link Metrics}).
+ */
+public interface MetricsMXBean {
+
+    double getElapsedSeconds();
+
+    long getBytes();
+
+    long getLines();
+
+    long getTokens();
+
+    long getChunks();
+
+    double getBytesPerSecond();
+
+    double getLinesPerSecond();
+
+    double getTokensPerSecond();
+
+    long getCurrentChunkWords();
+
+    long getWriteQueueDepth();
+
+    long getChunkFlushCount();
+
+    double getChunkFlushMillisP50();
+
+    double getChunkFlushMillisP99();
+
+    double getChunkFlushMillisMax();
+
+    long getMongoWriteCount();
+
+    double getMongoWriteMillisP50();
+
+    double getMongoWriteMillisP99();
+
+    double getMongoWriteMillisMax();
+
+    double getReadSeconds();
+
+    double getTokenizeSeconds();
+
+    double getEncodeSeconds();
+
+    double getWriteSeconds();
+
+    double getAggregateSeconds();
+
+}
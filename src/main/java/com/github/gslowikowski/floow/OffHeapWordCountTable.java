@@ -0,0 +1,214 @@
+package com.github.gslowikowski.floow;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class OffHeapWordCountTable {
+
+    private static final int DEFAULT_CAPACITY = 64 * 1024;
+    private static final int DEFAULT_ARENA_CAPACITY = 1024 * 1024;
+    /**
+     * Hash, offset, length and count of an entry.
+     */
+    private static final int ENTRY_BYTES = 4 + 4 + 4 + 8;
+    private static final int HASH = 0;
+    private static final int OFFSET = 4;
+    private static final int LENGTH = 8;
+    private static final int COUNT = 12;
+    /**
+     * Maximum buffer size, a little below 2 GB like the largest arrays.
+     */
+    static final int MAX_BUFFER_BYTES = Integer.MAX_VALUE - 8;
+
+    /**
+     * Entry number + 1 for every slot, zero for empty slots.
+     */
+    private ByteBuffer slots;
+    private int mask;
+
+    private ByteBuffer entries;
+    private int capacity;
+    private int size = 0;
+
+    /**
+     * Word bytes of all entries, one after another.
+     */
+    private ByteBuffer arena;
+    private int arenaSize = 0;
+
+    /**
+     * Word counts table kept outside of the Java heap.
+     *
+     * The same open-addressing hash table as {@link WordCountTable}, but slots, entries and word bytes
+     * are stored in direct buffers, so a table of millions of words is neither scanned nor copied
+     * by the garbage collector. Buffers grow by doubling, each up to 2 GB (e.g. of word bytes),
+     * and are freed when the table is no longer referenced.
+     */
+    public OffHeapWordCountTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Word counts table kept outside of the Java heap.
+     *
+     * @param expectedSize expected number of distinct words
+     */
+    public OffHeapWordCountTable(int expectedSize) {
+        int slotCount = Integer.highestOneBit(Math.max(expectedSize, 16) * 2 - 1) * 2;
+        slots = allocate(slotCount * 4L);
+        mask = slotCount - 1;
+        capacity = slotCount / 2;
+        entries = allocate((long) capacity * ENTRY_BYTES);
+        arena = allocate(DEFAULT_ARENA_CAPACITY);
+    }
+
+    /**
+     * Increments word count.
+     *
+     * @param word buffer containing word bytes
+     * @param offset word offset in the buffer
+     * @param length word length
+     * @param hash word hash code (see {@link WordCountTable#hash(byte[], int, int)})
+     * @param count count increment
+     */
+    public void add(byte[] word, int offset, int length, int hash, long count) {
+        int slot = WordCountTable.mix(hash) & mask;
+        while (true) {
+            int entry = slots.getInt(slot * 4) - 1;
+            if (entry < 0) {
+                break;
+            }
+            int base = entry * ENTRY_BYTES;
+            if (entries.getInt(base + HASH) == hash && equals(base, word, offset, length)) {
+                entries.putLong(base + COUNT, entries.getLong(base + COUNT) + count);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == capacity) {
+            capacity = (int) (grownCapacity((long) capacity * ENTRY_BYTES, (capacity + 1L) * ENTRY_BYTES) / ENTRY_BYTES);
+            entries = grow(entries, (long) capacity * ENTRY_BYTES);
+        }
+        if ((long) arenaSize + length > arena.capacity()) {
+            arena = grow(arena, grownCapacity(arena.capacity(), (long) arenaSize + length));
+        }
+        arena.position(arenaSize);
+        arena.put(word, offset, length);
+        int base = size * ENTRY_BYTES;
+        entries.putInt(base + HASH, hash);
+        entries.putInt(base + OFFSET, arenaSize);
+        entries.putInt(base + LENGTH, length);
+        entries.putLong(base + COUNT, count);
+        arenaSize += length;
+        size++;
+        slots.putInt(slot * 4, size);
+
+        if (size * 2 > mask + 1) {
+            rehash((mask + 1) * 2);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns memory allocated outside of the heap.
+     *
+     * @return memory in bytes
+     */
+    public long getMemoryBytes() {
+        return (long) slots.capacity() + entries.capacity() + arena.capacity();
+    }
+
+    /**
+     * Visits all entries in insertion order.
+     *
+     * @param visitor receiver of word counts, the word buffer is reused for next words
+     */
+    public void forEach(ChunkFormat.WordVisitor visitor) {
+        byte[] word = new byte[64];
+        for (int entry = 0; entry < size; entry++) {
+            int base = entry * ENTRY_BYTES;
+            int length = entries.getInt(base + LENGTH);
+            if (word.length < length) {
+                word = new byte[Math.max(word.length * 2, length)];
+            }
+            arena.position(entries.getInt(base + OFFSET));
+            arena.get(word, 0, length);
+            visitor.visit(word, 0, length, entries.getLong(base + COUNT));
+        }
+    }
+
+    /**
+     * Removes all entries, keeping allocated memory for reuse.
+     */
+    public void clear() {
+        for (int slot = 0; slot <= mask; slot++) {
+            slots.putInt(slot * 4, 0);
+        }
+        size = 0;
+        arenaSize = 0;
+    }
+
+    private boolean equals(int base, byte[] word, int offset, int length) {
+        if (entries.getInt(base + LENGTH) != length) {
+            return false;
+        }
+        int entryOffset = entries.getInt(base + OFFSET);
+        for (int i = 0; i < length; i++) {
+            if (arena.get(entryOffset + i) != word[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash(int slotCount) {
+        slots = allocate(slotCount * 4L);
+        mask = slotCount - 1;
+        for (int entry = 0; entry < size; entry++) {
+            int slot = WordCountTable.mix(entries.getInt(entry * ENTRY_BYTES + HASH)) & mask;
+            while (slots.getInt(slot * 4) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots.putInt(slot * 4, entry + 1);
+        }
+    }
+
+    /**
+     * Returns new size of a full buffer, doubled (but not above {@link #MAX_BUFFER_BYTES}) or the required size if larger.
+     *
+     * @param bytes current buffer size
+     * @param requiredBytes size the buffer must have
+     * @return new buffer size
+     * @throws IllegalStateException if the required size exceeds {@link #MAX_BUFFER_BYTES}
+     */
+    static long grownCapacity(long bytes, long requiredBytes) {
+        if (requiredBytes > MAX_BUFFER_BYTES) {
+            throw new IllegalStateException("Off-heap word counts table buffer cannot exceed 2 GB");
+        }
+        return Math.max(Math.min(bytes * 2, MAX_BUFFER_BYTES), requiredBytes);
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, long bytes) {
+        ByteBuffer result = allocate(bytes);
+        ByteBuffer old = buffer.duplicate();
+        old.clear();
+        result.put(old);
+        return result;
+    }
+
+    private static ByteBuffer allocate(long bytes) {
+        if (bytes > MAX_BUFFER_BYTES) {
+            throw new IllegalStateException("Off-heap word counts table buffer cannot exceed 2 GB");
+        }
+        return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+    }
+
+}
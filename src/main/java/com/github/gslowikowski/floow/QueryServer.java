@@ -0,0 +1,505 @@
+package com.github.gslowikowski.floow;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bson.Document;
+
+import com.mongodb.client.MongoCollection;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class QueryServer implements Closeable {
+
+    public static final Logger log = LoggerFactory.getLogger(QueryServer.class);
+
+    public static final int DEFAULT_PORT = 8080;
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+    public static final long DEFAULT_POLL_MILLIS = 1000L;
+    public static final int DEFAULT_LIMIT = 10;
+    public static final int MAX_LIMIT = 1000;
+
+    private static final String WORDS_PATH = "/words";
+    private static final String TOP_PATH = "/top";
+    private static final String PREFIX_PATH = "/prefix";
+    private static final String STATS_PATH = "/stats";
+
+    private static final String NO_DELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+    private MongoCollection<Document> output;
+    private MongoCollection<Document> state;
+    private int cacheSize = DEFAULT_CACHE_SIZE;
+    private long pollMillis = DEFAULT_POLL_MILLIS;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private TokenizerType tokenizer = null;
+
+    /**
+     * Index and cache of its results, replaced together when the output collection changes.
+     */
+    private volatile Snapshot snapshot = null;
+
+    private LongAdder hits = new LongAdder();
+    private LongAdder misses = new LongAdder();
+
+    private HttpServer httpServer = null;
+    private ExecutorService handlers = null;
+    private ScheduledExecutorService poller = null;
+
+    /**
+     * HTTP server answering word count queries from memory.
+     *
+     * Aggregated word counts of the output collection are loaded into a {@link WordIndex}. Responses to GET
+     * requests are kept in an LRU cache, so repeated queries (e.g. of dashboards) are answered without
+     * computing them again. Aggregator increments generation of the output collection in its state
+     * collection (see {@link Aggregator#GENERATION_ID}) whenever it writes the collection. The server
+     * polls the generation and loads the collection again when it changes, answering queries from
+     * the previous index in the meantime. The new index replaces the old one together with an empty cache,
+     * so no stale results are returned after the switch.
+     *
+     * Queried words and prefixes are folded by the tokenizer used on import (see {@link #setTokenizer(TokenizerType)}),
+     * so e.g. "Mongo" finds "mongo". Responses repeat words as they were queried.
+     *
+     * Requests (all responses are JSON):
+     * <ul>
+     * <li>{@code GET /words/<word>} - count of a word (zero for unknown words)</li>
+     * <li>{@code GET /words?word=<word>&word=<word>...} - counts of many words</li>
+     * <li>{@code POST /words} - counts of many words, given one per line in the request body</li>
+     * <li>{@code GET /top?offset=<n>&limit=<n>} - page of the most frequent words</li>
+     * <li>{@code GET /prefix?prefix=<prefix>&limit=<n>} - the most frequent words starting with the prefix</li>
+     * <li>{@code GET /stats} - index generation, size and cache statistics</li>
+     * </ul>
+     *
+     * @param output output collection of aggregation
+     * @param state state collection of the output collection (see {@link Aggregator#STATE_SUFFIX})
+     */
+    public QueryServer(MongoCollection<Document> output, MongoCollection<Document> state) {
+        this.output = output;
+        this.state = state;
+    }
+
+    /**
+     * Sets maximum number of cached responses.
+     *
+     * @param cacheSize number of responses ({@value #DEFAULT_CACHE_SIZE} by default, zero disables the cache)
+     */
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Sets interval of checking if the output collection has changed.
+     *
+     * @param pollMillis interval in milliseconds ({@value #DEFAULT_POLL_MILLIS} by default)
+     */
+    public void setPollMillis(long pollMillis) {
+        this.pollMillis = pollMillis;
+    }
+
+    /**
+     * Sets number of threads handling requests.
+     *
+     * @param threads number of threads (number of processors by default)
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Sets tokenizer of the imported text, folding queried words the same way as the indexed ones.
+     *
+     * @param tokenizer tokenizer type ({@code null} by default, words are looked up as queried)
+     */
+    public void setTokenizer(TokenizerType tokenizer) {
+        this.tokenizer = tokenizer;
+    }
+
+    /**
+     * Loads the index and starts HTTP server listening on loopback address only.
+     *
+     * @param port HTTP port (0 means any free port)
+     * @return bound port
+     * @throws IOException if the server cannot be started
+     */
+    public int start(int port) throws IOException {
+        reloadIfChanged();
+
+        enableNoDelay();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(WORDS_PATH, this::handleWords);
+        server.createContext(TOP_PATH, exchange -> handleCached(exchange, this::top));
+        server.createContext(PREFIX_PATH, exchange -> handleCached(exchange, this::prefix));
+        server.createContext(STATS_PATH, exchange -> respond(exchange, 200, stats()));
+        handlers = Executors.newFixedThreadPool(threads);
+        server.setExecutor(handlers);
+        server.start();
+        httpServer = server;
+
+        poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "query-server-poller");
+            t.setDaemon(true);
+            return t;
+        });
+        poller.scheduleWithFixedDelay(() -> {
+            try {
+                reloadIfChanged();
+            }
+            catch (RuntimeException e) {
+                log.warn("Cannot reload " + output.getNamespace(), e);
+            }
+        }, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+
+        int boundPort = server.getAddress().getPort();
+        log.info(String.format("Serving %s at http://localhost:%d%s", output.getNamespace(), boundPort, WORDS_PATH));
+        return boundPort;
+    }
+
+    /**
+     * Loads the output collection again if its generation has changed since it was loaded.
+     *
+     * @return {@code true} if the index has been reloaded
+     */
+    boolean reloadIfChanged() {
+        Document generationDoc = state.find(new Document("_id", Aggregator.GENERATION_ID)).first();
+        long generation = generationDoc != null ? ((Number) generationDoc.get("generation")).longValue() : 0L;
+        Snapshot current = snapshot;
+        if (current != null && current.index.getGeneration() == generation) {
+            return false;
+        }
+        long startTs = System.currentTimeMillis();
+        WordIndex index = WordIndex.load(output, generation);
+        snapshot = new Snapshot(index, cacheSize);
+        long endTs = System.currentTimeMillis();
+        log.info(String.format("Loaded %d words of %s (generation %d) in %d milliseconds",
+                index.size(), output.getNamespace(), generation, endTs - startTs));
+        return true;
+    }
+
+    /**
+     * Stops HTTP server and polling.
+     */
+    @Override
+    public void close() {
+        if (poller != null) {
+            poller.shutdownNow();
+            poller = null;
+        }
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+        if (handlers != null) {
+            handlers.shutdownNow();
+            handlers = null;
+        }
+    }
+
+    /**
+     * Disables Nagle's algorithm in HTTP servers created later.
+     *
+     * JDK server sends response headers and body in separate packets, so with Nagle's algorithm every
+     * response waits for delayed acknowledgement of its headers, about 40 milliseconds.
+     * The setting is read once, when the first server is created.
+     */
+    static void enableNoDelay() {
+        if (System.getProperty(NO_DELAY_PROPERTY) == null) {
+            System.setProperty(NO_DELAY_PROPERTY, "true");
+        }
+    }
+
+    private void handleWords(HttpExchange exchange) throws IOException {
+        if ("POST".equals(exchange.getRequestMethod())) {
+            List<String> words = new ArrayList<String>();
+            BufferedReader r = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+            try {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        words.add(line);
+                    }
+                }
+            }
+            finally {
+                r.close();
+            }
+            respond(exchange, 200, counts(snapshot.index, words));
+        }
+        else {
+            handleCached(exchange, this::words);
+        }
+    }
+
+    /**
+     * Answers GET request from the cache or computes the answer using the current index.
+     */
+    private void handleCached(HttpExchange exchange, Query query) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, error("Method not allowed"));
+            return;
+        }
+        Snapshot current = snapshot;
+        String key = exchange.getRequestURI().toString();
+        byte[] body = current.cache.get(key);
+        if (body != null) {
+            hits.increment();
+        }
+        else {
+            misses.increment();
+            String json;
+            try {
+                json = query.answer(current.index, exchange.getRequestURI().getRawPath(),
+                        parseQuery(exchange.getRequestURI().getRawQuery()));
+            }
+            catch (IllegalArgumentException e) {
+                respond(exchange, 400, error(e.getMessage()));
+                return;
+            }
+            body = json.getBytes(StandardCharsets.UTF_8);
+            current.cache.put(key, body);
+        }
+        respond(exchange, 200, body);
+    }
+
+    private String words(WordIndex index, String path, Map<String, List<String>> params) throws UnsupportedEncodingException {
+        if (path.startsWith(WORDS_PATH + "/") && path.length() > WORDS_PATH.length() + 1) {
+            String word = URLDecoder.decode(path.substring(WORDS_PATH.length() + 1), "UTF-8");
+            StringBuilder sb = new StringBuilder("{\"word\": ");
+            appendString(sb, word);
+            return sb.append(", \"count\": ").append(count(index, word)).append('}').toString();
+        }
+        List<String> words = params.get("word");
+        if (words == null) {
+            throw new IllegalArgumentException("Missing word parameter");
+        }
+        return counts(index, words);
+    }
+
+    private String counts(WordIndex index, List<String> words) {
+        StringBuilder sb = new StringBuilder("{\"counts\": {");
+        for (int i = 0; i < words.size(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            appendString(sb, words.get(i));
+            sb.append(": ").append(count(index, words.get(i)));
+        }
+        return sb.append("}}").toString();
+    }
+
+    private String top(WordIndex index, String path, Map<String, List<String>> params) {
+        int offset = getIntParam(params, "offset", 0);
+        int limit = getLimitParam(params);
+        StringBuilder sb = new StringBuilder("{\"total\": ").append(index.size()).append(", \"offset\": ").append(offset);
+        appendWords(sb.append(", \"words\": "), index.top(offset, limit));
+        return sb.append('}').toString();
+    }
+
+    private String prefix(WordIndex index, String path, Map<String, List<String>> params) {
+        List<String> prefix = params.get("prefix");
+        if (prefix == null) {
+            throw new IllegalArgumentException("Missing prefix parameter");
+        }
+        String folded = fold(prefix.get(0));
+        StringBuilder sb = new StringBuilder("{\"prefix\": ");
+        appendString(sb, prefix.get(0));
+        appendWords(sb.append(", \"words\": "), folded != null
+                ? index.prefix(folded, getLimitParam(params)) : new ArrayList<WordIndex.WordCount>());
+        return sb.append('}').toString();
+    }
+
+    private long count(WordIndex index, String word) {
+        String folded = fold(word);
+        return folded != null ? index.count(folded) : 0L;
+    }
+
+    /**
+     * Tokenizes queried text the same way as the imported text.
+     *
+     * @return the only word found, the text itself if there is no tokenizer or it is empty,
+     * {@code null} if the text is not a single word, e.g. "don't", so it cannot be indexed
+     */
+    private String fold(String text) {
+        if (tokenizer == null || text.isEmpty()) {
+            return text;
+        }
+        List<String> words = new ArrayList<String>(1);
+        tokenizer.create(new Tokenizer.Handler() {
+            @Override
+            public void word(byte[] word, int length, int hash) {
+                words.add(new String(word, 0, length, StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public boolean endOfLine() {
+                return true;
+            }
+        }).tokenize(text);
+        return words.size() == 1 ? words.get(0) : null;
+    }
+
+    private byte[] stats() {
+        Snapshot current = snapshot;
+        return String.format("{\"generation\": %d, \"words\": %d, \"cachedResponses\": %d, \"cacheHits\": %d, \"cacheMisses\": %d}",
+                current.index.getGeneration(), current.index.size(), current.cache.size(), hits.sum(), misses.sum())
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, List<String>> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, List<String>> params = new LinkedHashMap<String, List<String>>();
+        if (rawQuery != null) {
+            for (String param: rawQuery.split("&")) {
+                int eq = param.indexOf('=');
+                String name = URLDecoder.decode(eq >= 0 ? param.substring(0, eq) : param, "UTF-8");
+                String value = eq >= 0 ? URLDecoder.decode(param.substring(eq + 1), "UTF-8") : "";
+                params.computeIfAbsent(name, k -> new ArrayList<String>()).add(value);
+            }
+        }
+        return params;
+    }
+
+    private static int getIntParam(Map<String, List<String>> params, String name, int defaultValue) {
+        List<String> values = params.get(name);
+        if (values == null) {
+            return defaultValue;
+        }
+        try {
+            int result = Integer.parseInt(values.get(0));
+            if (result < 0) {
+                throw new IllegalArgumentException(name + " must not be negative");
+            }
+            return result;
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException(values.get(0) + " is not a valid int value");
+        }
+    }
+
+    private static int getLimitParam(Map<String, List<String>> params) {
+        return Math.min(getIntParam(params, "limit", DEFAULT_LIMIT), MAX_LIMIT);
+    }
+
+    private static void appendWords(StringBuilder sb, List<WordIndex.WordCount> words) {
+        sb.append('[');
+        for (int i = 0; i < words.size(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append("{\"word\": ");
+            appendString(sb, words.get(i).getWord());
+            sb.append(", \"count\": ").append(words.get(i).getCount()).append('}');
+        }
+        sb.append(']');
+    }
+
+    static void appendString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            }
+            else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    private static byte[] error(String message) {
+        StringBuilder sb = new StringBuilder("{\"error\": ");
+        appendString(sb, message);
+        return sb.append('}').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        respond(exchange, status, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Computes JSON answer of a GET request.
+     */
+    private interface Query {
+
+        String answer(WordIndex index, String path, Map<String, List<String>> params) throws IOException;
+
+    }
+
+    private static class Snapshot {
+
+        final WordIndex index;
+        final ResultCache cache;
+
+        Snapshot(WordIndex index, int cacheSize) {
+            this.index = index;
+            this.cache = new ResultCache(cacheSize);
+        }
+    }
+
+    /**
+     * Cache of responses, evicting the least recently used ones.
+     */
+    static class ResultCache {
+
+        private final int maxSize;
+        private final LinkedHashMap<String, byte[]> entries;
+
+        ResultCache(int maxSize) {
+            this.maxSize = maxSize;
+            this.entries = new LinkedHashMap<String, byte[]>(16, 0.75f, true/*accessOrder*/) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                    return size() > ResultCache.this.maxSize;
+                }
+            };
+        }
+
+        synchronized byte[] get(String key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(String key, byte[] value) {
+            if (maxSize > 0) {
+                entries.put(key, value);
+            }
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+
+}
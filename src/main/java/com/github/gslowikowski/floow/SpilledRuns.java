@@ -0,0 +1,219 @@
+package com.github.gslowikowski.floow;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class SpilledRuns implements Closeable {
+
+    public static final Logger log = LoggerFactory.getLogger(SpilledRuns.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private File directory;
+    private List<File> runs = new ArrayList<File>();
+
+    /**
+     * Word counts spilled to disk.
+     *
+     * Every run is a file of word counts sorted by word bytes. Entries are encoded like in
+     * {@link ChunkFormat#BLOB} chunks: varint word length, word bytes and varint count.
+     * Runs are merged in a single pass, so memory used by merging does not depend on the number of words.
+     *
+     * @param directory directory of run files ({@code null} means the default temporary directory)
+     */
+    public SpilledRuns(File directory) {
+        this.directory = directory;
+    }
+
+    public boolean isEmpty() {
+        return runs.isEmpty();
+    }
+
+    /**
+     * Writes all entries of a table to a new run.
+     *
+     * @param wordCounts word counts (not modified)
+     * @throws IOException in case of I/O problems
+     */
+    public void spill(WordCountTable wordCounts) throws IOException {
+        if (wordCounts.isEmpty()) {
+            return;
+        }
+        File run = File.createTempFile("floow-run", ".tmp", directory);
+        runs.add(run);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE);
+        try {
+            ChunkFormat.ByteSink entry = new ChunkFormat.ByteSink(64);
+            for (int i: wordCounts.sortedEntries(0, wordCounts.size())) {
+                entry.clear();
+                entry.writeVarint(wordCounts.getWordLength(i));
+                wordCounts.copyWord(i, entry);
+                entry.writeVarint(wordCounts.getCount(i));
+                entry.writeTo(out);
+            }
+        }
+        finally {
+            out.close();
+        }
+        log.debug(String.format(" spilled %d words to %s", wordCounts.size(), run));
+    }
+
+    /**
+     * Merges all runs, visiting every word once, in order of word bytes, with counts of all runs summed up.
+     *
+     * @param visitor receiver of word counts
+     * @throws IOException in case of I/O problems
+     */
+    public void merge(ChunkFormat.WordVisitor visitor) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(Math.max(runs.size(), 1));
+        try {
+            for (File run: runs) {
+                RunReader reader = new RunReader(run);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+                else {
+                    reader.close();
+                }
+            }
+
+            byte[] word = new byte[64];
+            while (!queue.isEmpty()) {
+                RunReader first = queue.poll();
+                int length = first.length;
+                if (word.length < length) {
+                    word = new byte[Math.max(word.length * 2, length)];
+                }
+                System.arraycopy(first.word, 0, word, 0, length);
+                long count = first.count;
+                advance(queue, first);
+                while (!queue.isEmpty() && queue.peek().hasWord(word, length)) {
+                    RunReader same = queue.poll();
+                    count += same.count;
+                    advance(queue, same);
+                }
+                visitor.visit(word, 0, length, count);
+            }
+        }
+        finally {
+            for (RunReader reader: queue) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Deletes all runs.
+     */
+    public void clear() {
+        for (File run: runs) {
+            if (!run.delete()) {
+                log.warn("Cannot delete " + run);
+            }
+        }
+        runs.clear();
+    }
+
+    @Override
+    public void close() {
+        clear();
+    }
+
+    private static void advance(PriorityQueue<RunReader> queue, RunReader reader) throws IOException {
+        if (reader.next()) {
+            queue.add(reader);
+        }
+        else {
+            reader.close();
+        }
+    }
+
+    /**
+     * Sequential reader of a run.
+     */
+    private static class RunReader implements Comparable<RunReader> {
+
+        private DataInputStream in;
+        private byte[] word = new byte[64];
+        private int length;
+        private long count;
+
+        RunReader(File run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), BUFFER_SIZE));
+        }
+
+        boolean next() throws IOException {
+            int first = in.read();
+            if (first < 0) {
+                return false;
+            }
+            length = (int) readVarint(in, first);
+            if (word.length < length) {
+                word = new byte[Math.max(word.length * 2, length)];
+            }
+            in.readFully(word, 0, length);
+            count = readVarint(in, in.read());
+            return true;
+        }
+
+        boolean hasWord(byte[] other, int otherLength) {
+            if (length != otherLength) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (word[i] != other[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int compareTo(RunReader other) {
+            int min = Math.min(length, other.length);
+            for (int i = 0; i < min; i++) {
+                int cmp = (word[i] & 0xff) - (other.word[i] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return length - other.length;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+
+        private static long readVarint(InputStream in, int b) throws IOException {
+            long result = 0L;
+            int shift = 0;
+            while (true) {
+                if (b < 0) {
+                    throw new EOFException();
+                }
+                result |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+                shift += 7;
+                b = in.read();
+            }
+        }
+    }
+
+}
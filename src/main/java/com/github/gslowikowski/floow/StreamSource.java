@@ -0,0 +1,228 @@
+package com.github.gslowikowski.floow;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class StreamSource implements Closeable {
+
+    public static final Logger log = LoggerFactory.getLogger(StreamSource.class);
+
+    /**
+     * Source name meaning standard input.
+     */
+    public static final String STDIN = "-";
+
+    public static final long DEFAULT_POLL_MILLIS = 500L;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int QUEUE_SIZE = 16;
+    private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+    private BlockingQueue<ByteBuffer> buffers = new ArrayBlockingQueue<ByteBuffer>(QUEUE_SIZE);
+    private volatile IOException failure = null;
+    private volatile boolean closed = false;
+    private Thread reader;
+
+    /**
+     * Stream read until its end, e.g. standard input.
+     *
+     * Data is read by a background thread and returned as soon as it is available,
+     * so lines written slowly by other processes are processed without waiting for full buffers.
+     *
+     * @param in input stream (closed by the caller)
+     */
+    public StreamSource(InputStream in) {
+        reader = start(() -> readStream(in));
+    }
+
+    /**
+     * Growing file, read from its beginning and followed like by {@code tail -F}.
+     *
+     * When the end of the file is reached, its size is checked every {@code pollMillis} milliseconds.
+     * A truncated file is read again from the beginning. A file replaced by another one (e.g. rotated log)
+     * is read to its end, then the new file is read from the beginning. The stream never ends,
+     * it is followed until closed.
+     *
+     * @param file followed file
+     * @param pollMillis interval of checking the file for new data
+     */
+    public StreamSource(File file, long pollMillis) {
+        reader = start(() -> followFile(file, pollMillis));
+    }
+
+    /**
+     * Returns next buffer of data.
+     *
+     * @param timeoutMillis maximum time of waiting for data
+     * @return buffer, empty buffer if no data is available within the timeout, {@code null} at the end of stream
+     * @throws IOException in case of I/O problems
+     */
+    public ByteBuffer next(long timeoutMillis) throws IOException {
+        ByteBuffer buf;
+        try {
+            buf = buffers.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Reading stream interrupted");
+        }
+        if (buf == END_OF_STREAM) {
+            buffers.offer(END_OF_STREAM); // for next calls
+            if (failure != null) {
+                throw failure;
+            }
+            return null;
+        }
+        return buf != null ? buf : ByteBuffer.allocate(0);
+    }
+
+    /**
+     * Stops reading.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        reader.interrupt();
+    }
+
+    private Thread start(IORunnable task) {
+        Thread thread = new Thread(() -> {
+            try {
+                task.run();
+            }
+            catch (InterruptedIOException e) {
+                // closed
+            }
+            catch (IOException e) {
+                failure = e;
+            }
+            finally {
+                end();
+            }
+        }, "stream-reader");
+        // reading standard input cannot be interrupted
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Queues end of stream marker after all read data, or instead of it if reading failed or was stopped.
+     */
+    private void end() {
+        if (failure != null || closed) {
+            buffers.clear();
+        }
+        try {
+            buffers.put(END_OF_STREAM);
+        }
+        catch (InterruptedException e) {
+            buffers.clear(); // closed while waiting for room
+            buffers.offer(END_OF_STREAM);
+        }
+    }
+
+    private void readStream(InputStream in) throws IOException {
+        while (!closed) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            int read = in.read(buf);
+            if (read < 0) {
+                return;
+            }
+            if (read > 0) {
+                put(ByteBuffer.wrap(buf, 0, read));
+            }
+        }
+    }
+
+    private void followFile(File file, long pollMillis) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        Object fileKey = fileKey(file);
+        long position = 0L;
+        try {
+            while (!closed) {
+                ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+                int read = channel.read(buf, position);
+                if (read > 0) {
+                    position += read;
+                    buf.flip();
+                    put(buf);
+                    continue;
+                }
+
+                // at the end of the file
+                Object currentKey = fileKey(file);
+                if (currentKey != null && !Objects.equals(currentKey, fileKey)) {
+                    log.info(String.format("%s has been replaced, reading the new file", file));
+                    channel.close();
+                    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                    fileKey = currentKey;
+                    position = 0L;
+                }
+                else if (channel.size() < position) {
+                    log.info(String.format("%s has been truncated, reading it from the beginning", file));
+                    position = 0L;
+                }
+                else {
+                    sleep(pollMillis);
+                }
+            }
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Returns file identity (e.g. inode) or {@code null} if it is not available or the file does not exist.
+     */
+    private static Object fileKey(File file) throws IOException {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        }
+        catch (NoSuchFileException e) {
+            return null; // e.g. rotated, but not created again yet
+        }
+    }
+
+    private void put(ByteBuffer buf) throws InterruptedIOException {
+        try {
+            buffers.put(buf);
+        }
+        catch (InterruptedException e) {
+            throw new InterruptedIOException("Reading stream interrupted");
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            throw new InterruptedIOException("Reading stream interrupted");
+        }
+    }
+
+    private interface IORunnable {
+
+        void run() throws IOException;
+
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.github.gslowikowski.floow;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Splitter of text into lower-cased words, reporting them to a {@link Handler}.
+ *
+ * Tokenizers keep their state between calls, so words and lines may span many buffers.
+ * Every word is reported as UTF-8 bytes with hash code computed by {@link WordCountTable#hash(byte[], int, int)}.
+ */
+public interface Tokenizer {
+
+    /**
+     * Receiver of words and line ends found by the tokenizer.
+     */
+    interface Handler {
+
+        /**
+         * Called for every word found.
+         *
+         * The buffer is reused by the tokenizer, it must not be retained after this method returns.
+         *
+         * @param word buffer containing lower-cased word bytes
+         * @param length word length
+         * @param hash word hash code (see {@link WordCountTable#hash(byte[], int, int)})
+         */
+        void word(byte[] word, int length, int hash);
+
+        /**
+         * Called at the end of every line.
+         *
+         * @return {@code true} if tokenizing should be continued
+         */
+        boolean endOfLine();
+
+    }
+
+    /**
+     * Tokenizes bytes between buffer position and limit.
+     *
+     * If handler stops tokenizing, buffer position is set just after the last processed line end.
+     *
+     * @param buf buffer containing UTF-8 text
+     * @return {@code false} if handler stopped tokenizing
+     */
+    boolean tokenize(ByteBuffer buf);
+
+    /**
+     * Tokenizes single line of text.
+     *
+     * @param line line without line end characters
+     * @return {@code false} if handler stopped tokenizing
+     */
+    boolean tokenize(CharSequence line);
+
+    /**
+     * Finishes tokenizing, reports the last word and the last line if not terminated by a line end.
+     *
+     * @return {@code false} if handler stopped tokenizing
+     */
+    boolean finish();
+
+    /**
+     * Returns number of bytes from the beginning of the first buffer to the end of the last line
+     * (including its line end), e.g. while handling that line end.
+     *
+     * Only bytes given to {@link #tokenize(ByteBuffer)} are counted.
+     *
+     * @return offset of the end of the last line
+     */
+    long getLineEnd();
+
+}
@@ -0,0 +1,49 @@
+package com.github.gslowikowski.floow;
+
+import java.util.Locale;
+
+/**
+ * Tokenizer implementations selectable by name.
+ */
+public enum TokenizerType {
+
+    /**
+     * ASCII letters only, every other character is a separator (see {@link AsciiTokenizer}).
+     */
+    ASCII {
+        @Override
+        public Tokenizer create(Tokenizer.Handler handler) {
+            return new AsciiTokenizer(handler);
+        }
+    },
+
+    /**
+     * Letters of all scripts, case-folded (see {@link UnicodeTokenizer}).
+     */
+    UNICODE {
+        @Override
+        public Tokenizer create(Tokenizer.Handler handler) {
+            return new UnicodeTokenizer(handler);
+        }
+    };
+
+    /**
+     * Creates new tokenizer.
+     *
+     * @param handler receiver of words and line ends
+     * @return tokenizer
+     */
+    public abstract Tokenizer create(Tokenizer.Handler handler);
+
+    /**
+     * Returns tokenizer type by name, ignoring case.
+     *
+     * @param name type name
+     * @return tokenizer type
+     * @throws IllegalArgumentException for unknown names
+     */
+    public static TokenizerType fromName(String name) {
+        return valueOf(name.toUpperCase(Locale.ENGLISH));
+    }
+
+}
@@ -0,0 +1,255 @@
+package com.github.gslowikowski.floow;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class UnicodeTokenizer implements Tokenizer {
+
+    private static final int INITIAL_WORD_CAPACITY = 64;
+
+    /**
+     * Lower-cased letter for every ASCII byte, zero for non-letters.
+     */
+    private static final byte[] ASCII_FOLD = new byte[128];
+
+    /**
+     * Case-folded character for every letter or mark of Basic Multilingual Plane, zero for separators.
+     */
+    private static final char[] FOLD = new char[0x10000];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            ASCII_FOLD[c] = (byte) c;
+            ASCII_FOLD[Character.toUpperCase(c)] = (byte) c;
+        }
+        for (int c = 0; c < FOLD.length; c++) {
+            FOLD[c] = (char) fold(c);
+        }
+    }
+
+    private Handler handler;
+
+    private byte[] word = new byte[INITIAL_WORD_CAPACITY];
+    private int length = 0;
+    private int hash = 0;
+    private boolean lineStarted = false;
+
+    /**
+     * Code point being decoded, number of its continuation bytes still expected and its minimum value
+     * (smaller values are overlong encodings).
+     */
+    private int codePoint = 0;
+    private int pending = 0;
+    private int minCodePoint = 0;
+
+    /**
+     * Number of bytes tokenized in previous buffers and offset of the end of the last line.
+     */
+    private long consumed = 0L;
+    private long lineEnd = 0L;
+
+    /**
+     * Tokenizer splitting UTF-8 text into case-folded words of any script.
+     *
+     * Words are sequences of letters and combining marks, so e.g. "Łódź", "straße" and "नमस्ते" are single words,
+     * while digits, punctuation and white space are separators. Every character is folded by a precomputed table
+     * ({@code Character.toLowerCase(Character.toUpperCase(c))}), so case variants like "ſ", "S" and "s" are
+     * the same word. ASCII bytes are handled by a separate 128-byte table, so ASCII text is tokenized
+     * almost as fast as by {@link AsciiTokenizer}, to which results for ASCII text are equal.
+     * Malformed UTF-8 sequences are separators. Tokenizer keeps its state between calls, so words,
+     * characters and lines may span many buffers.
+     *
+     * @param handler receiver of words and line ends
+     */
+    public UnicodeTokenizer(Handler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public boolean tokenize(ByteBuffer buf) {
+        int limit = buf.limit();
+        long base = consumed - buf.position();
+        for (int i = buf.position(); i < limit; i++) {
+            byte b = buf.get(i);
+            if (b >= 0) {
+                if (pending > 0) {
+                    pending = 0;
+                    endOfWord(); // truncated sequence
+                }
+                byte folded = ASCII_FOLD[b];
+                if (folded != 0) {
+                    append(folded);
+                }
+                else {
+                    endOfWord();
+                    if (b == '\n') {
+                        lineStarted = false;
+                        lineEnd = base + i + 1;
+                        if (!handler.endOfLine()) {
+                            buf.position(i + 1);
+                            consumed = lineEnd;
+                            return false;
+                        }
+                        continue;
+                    }
+                }
+            }
+            else {
+                decode(b);
+            }
+            lineStarted = true;
+        }
+        buf.position(limit);
+        consumed = base + limit;
+        return true;
+    }
+
+    @Override
+    public boolean tokenize(CharSequence line) {
+        for (int i = 0, len = line.length(); i < len; i++) {
+            char c = line.charAt(i);
+            if (c < 0x80) {
+                byte folded = ASCII_FOLD[c];
+                if (folded != 0) {
+                    append(folded);
+                }
+                else {
+                    endOfWord();
+                }
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(line.charAt(i + 1))) {
+                character(Character.toCodePoint(c, line.charAt(++i)));
+            }
+            else {
+                character(c);
+            }
+        }
+        endOfWord();
+        lineStarted = false;
+        return handler.endOfLine();
+    }
+
+    @Override
+    public boolean finish() {
+        pending = 0;
+        endOfWord();
+        if (lineStarted) {
+            lineStarted = false;
+            lineEnd = consumed;
+            return handler.endOfLine();
+        }
+        return true;
+    }
+
+    @Override
+    public long getLineEnd() {
+        return lineEnd;
+    }
+
+    /**
+     * Decodes non-ASCII byte of UTF-8 sequence.
+     */
+    private void decode(byte b) {
+        if ((b & 0xc0) == 0x80) {
+            // continuation byte
+            if (pending == 0) {
+                endOfWord(); // unexpected
+                return;
+            }
+            codePoint = codePoint << 6 | (b & 0x3f);
+            if (--pending == 0) {
+                if (codePoint < minCodePoint) {
+                    endOfWord(); // overlong encoding
+                }
+                else {
+                    character(codePoint);
+                }
+            }
+            return;
+        }
+
+        if (pending > 0) {
+            endOfWord(); // truncated sequence
+        }
+        if ((b & 0xe0) == 0xc0) {
+            codePoint = b & 0x1f;
+            pending = 1;
+            minCodePoint = 0x80;
+        }
+        else if ((b & 0xf0) == 0xe0) {
+            codePoint = b & 0x0f;
+            pending = 2;
+            minCodePoint = 0x800;
+        }
+        else if ((b & 0xf8) == 0xf0) {
+            codePoint = b & 0x07;
+            pending = 3;
+            minCodePoint = 0x10000;
+        }
+        else {
+            pending = 0;
+            endOfWord(); // invalid lead byte
+        }
+    }
+
+    private void character(int c) {
+        int folded = c < FOLD.length ? FOLD[c] : fold(c);
+        if (folded == 0) {
+            endOfWord();
+        }
+        else if (folded < 0x80) {
+            append((byte) folded);
+        }
+        else if (folded < 0x800) {
+            append((byte) (0xc0 | folded >> 6));
+            append((byte) (0x80 | folded & 0x3f));
+        }
+        else if (folded < 0x10000) {
+            append((byte) (0xe0 | folded >> 12));
+            append((byte) (0x80 | folded >> 6 & 0x3f));
+            append((byte) (0x80 | folded & 0x3f));
+        }
+        else {
+            append((byte) (0xf0 | folded >> 18));
+            append((byte) (0x80 | folded >> 12 & 0x3f));
+            append((byte) (0x80 | folded >> 6 & 0x3f));
+            append((byte) (0x80 | folded & 0x3f));
+        }
+    }
+
+    /**
+     * Returns case-folded code point of a letter or mark, zero for other code points (including surrogates).
+     */
+    private static int fold(int c) {
+        if (c > Character.MAX_CODE_POINT || !isWordCharacter(c)) {
+            return 0;
+        }
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    private static boolean isWordCharacter(int c) {
+        if (Character.isLetter(c)) {
+            return true;
+        }
+        int type = Character.getType(c);
+        return type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK
+                || type == Character.ENCLOSING_MARK;
+    }
+
+    private void append(byte b) {
+        if (length == word.length) {
+            word = Arrays.copyOf(word, length * 2);
+        }
+        word[length++] = b;
+        hash = 31 * hash + b;
+    }
+
+    private void endOfWord() {
+        if (length > 0) {
+            handler.word(word, length, hash);
+            length = 0;
+            hash = 0;
+        }
+    }
+
+}
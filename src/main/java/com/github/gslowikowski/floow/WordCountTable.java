@@ -0,0 +1,383 @@
+package com.github.gslowikowski.floow;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class WordCountTable {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final int DEFAULT_ARENA_CAPACITY = 16 * 1024;
+    /**
+     * Hash, offset, length and count of an entry plus at most four slots (the table is at most half full).
+     */
+    private static final int ENTRY_MEMORY_BYTES = 4 + 4 + 4 + 8 + 4 * 4;
+
+    /**
+     * Entry number + 1 for every slot, zero for empty slots.
+     */
+    private int[] slots;
+    private int mask;
+
+    private int[] hashes;
+    private int[] offsets;
+    private int[] lengths;
+    private long[] counts;
+    private int size = 0;
+
+    /**
+     * Word bytes of all entries, one after another.
+     */
+    private byte[] arena;
+    private int arenaSize = 0;
+
+    /**
+     * Word counts table.
+     *
+     * Open-addressing hash table keyed by word bytes. Words are copied into one shared byte arena
+     * and counts are kept in primitive arrays, so incrementing a count does not allocate anything.
+     * Arrays are reused after {@link #clear()}, strings are created only when entries are read.
+     */
+    public WordCountTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Word counts table.
+     *
+     * @param expectedSize expected number of distinct words
+     */
+    public WordCountTable(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 16) * 2 - 1) * 2;
+        slots = new int[capacity];
+        mask = capacity - 1;
+        hashes = new int[capacity / 2];
+        offsets = new int[capacity / 2];
+        lengths = new int[capacity / 2];
+        counts = new long[capacity / 2];
+        arena = new byte[DEFAULT_ARENA_CAPACITY];
+    }
+
+    /**
+     * Increments word count by one.
+     *
+     * @param word buffer containing word bytes
+     * @param length word length
+     * @param hash word hash code
+     */
+    public void add(byte[] word, int length, int hash) {
+        add(word, 0, length, hash, 1);
+    }
+
+    /**
+     * Increments word count.
+     *
+     * @param word buffer containing word bytes
+     * @param offset word offset in the buffer
+     * @param length word length
+     * @param hash word hash code
+     * @param count count increment
+     */
+    public void add(byte[] word, int offset, int length, int hash, long count) {
+        int slot = mix(hash) & mask;
+        while (true) {
+            int entry = slots[slot] - 1;
+            if (entry < 0) {
+                break;
+            }
+            if (hashes[entry] == hash && equals(entry, word, offset, length)) {
+                counts[entry] += count;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == hashes.length) {
+            growEntries();
+        }
+        if (arenaSize + length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + length));
+        }
+        System.arraycopy(word, offset, arena, arenaSize, length);
+        hashes[size] = hash;
+        offsets[size] = arenaSize;
+        lengths[size] = length;
+        counts[size] = count;
+        arenaSize += length;
+        size++;
+        slots[slot] = size;
+
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+    }
+
+    /**
+     * Checks if table contains a word.
+     *
+     * @param word buffer containing word bytes
+     * @param length word length
+     * @param hash word hash code
+     * @return {@code true} if word was added
+     */
+    public boolean contains(byte[] word, int length, int hash) {
+        int slot = mix(hash) & mask;
+        while (true) {
+            int entry = slots[slot] - 1;
+            if (entry < 0) {
+                return false;
+            }
+            if (hashes[entry] == hash && equals(entry, word, 0, length)) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Adds all counts of another table.
+     *
+     * @param other table to add
+     */
+    public void addAll(WordCountTable other) {
+        for (int entry = 0; entry < other.size; entry++) {
+            add(other.arena, other.offsets[entry], other.lengths[entry], other.hashes[entry], other.counts[entry]);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns word of an entry.
+     *
+     * @param entry entry number (from zero to {@code size() - 1}, in insertion order)
+     * @return word
+     */
+    public String getWord(int entry) {
+        return new String(arena, offsets[entry], lengths[entry], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns length of an entry word in bytes.
+     *
+     * @param entry entry number (from zero to {@code size() - 1}, in insertion order)
+     * @return word length
+     */
+    public int getWordLength(int entry) {
+        return lengths[entry];
+    }
+
+    /**
+     * Returns count of an entry.
+     *
+     * @param entry entry number (from zero to {@code size() - 1}, in insertion order)
+     * @return word count
+     */
+    public long getCount(int entry) {
+        return counts[entry];
+    }
+
+    /**
+     * Copies word bytes of an entry.
+     *
+     * @param entry entry number
+     * @param sink destination of word bytes
+     */
+    void copyWord(int entry, ChunkFormat.ByteSink sink) {
+        sink.write(arena, offsets[entry], lengths[entry]);
+    }
+
+    /**
+     * Returns entries ordered by word bytes (unsigned), which for UTF-8 is the order of code points.
+     *
+     * @param fromEntry first entry to sort (inclusive)
+     * @param toEntry last entry to sort (exclusive)
+     * @return sorted entry numbers
+     */
+    public int[] sortedEntries(int fromEntry, int toEntry) {
+        Integer[] entries = new Integer[toEntry - fromEntry];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = fromEntry + i;
+        }
+        Arrays.sort(entries, this::compareWords);
+        int[] result = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            result[i] = entries[i];
+        }
+        return result;
+    }
+
+    private int compareWords(int entry1, int entry2) {
+        int offset1 = offsets[entry1];
+        int offset2 = offsets[entry2];
+        int length = Math.min(lengths[entry1], lengths[entry2]);
+        for (int i = 0; i < length; i++) {
+            int cmp = (arena[offset1 + i] & 0xff) - (arena[offset2 + i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return lengths[entry1] - lengths[entry2];
+    }
+
+    /**
+     * Finds entries with the highest counts.
+     *
+     * @param fromEntry first entry to consider (inclusive)
+     * @param toEntry last entry to consider (exclusive)
+     * @param k maximum number of entries to return
+     * @return entry numbers ordered by descending count
+     */
+    public int[] topEntries(int fromEntry, int toEntry, int k) {
+        // min-heap of the best entries found so far, the worst of them at the root
+        int[] heap = new int[Math.min(k, toEntry - fromEntry)];
+        int heapSize = 0;
+        for (int entry = fromEntry; entry < toEntry; entry++) {
+            if (heapSize < heap.length) {
+                heap[heapSize++] = entry;
+                siftUp(heap, heapSize - 1);
+            }
+            else if (heap.length > 0 && counts[entry] > counts[heap[0]]) {
+                heap[0] = entry;
+                siftDown(heap, heapSize);
+            }
+        }
+        // removing the worst entry one by one fills the array from the end
+        while (heapSize > 1) {
+            int worst = heap[0];
+            heap[0] = heap[--heapSize];
+            heap[heapSize] = worst;
+            siftDown(heap, heapSize);
+        }
+        return heap;
+    }
+
+    private void siftUp(int[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (counts[heap[parent]] <= counts[heap[i]]) {
+                return;
+            }
+            swap(heap, i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int heapSize) {
+        int i = 0;
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < heapSize && counts[heap[left]] < counts[heap[smallest]]) {
+                smallest = left;
+            }
+            if (right < heapSize && counts[heap[right]] < counts[heap[smallest]]) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(heap, i, smallest);
+            i = smallest;
+        }
+    }
+
+    private static void swap(int[] array, int i, int j) {
+        int tmp = array[i];
+        array[i] = array[j];
+        array[j] = tmp;
+    }
+
+    /**
+     * Returns total length of all words in bytes.
+     *
+     * @return sum of word lengths
+     */
+    public long getWordBytes() {
+        return arenaSize;
+    }
+
+    /**
+     * Returns approximate memory used by entries, including hash table slots.
+     *
+     * @return memory in bytes
+     */
+    public long getMemoryBytes() {
+        return (long) size * ENTRY_MEMORY_BYTES + arenaSize;
+    }
+
+    /**
+     * Removes all entries, keeping allocated memory for reuse.
+     */
+    public void clear() {
+        Arrays.fill(slots, 0);
+        size = 0;
+        arenaSize = 0;
+    }
+
+    private boolean equals(int entry, byte[] word, int offset, int length) {
+        if (lengths[entry] != length) {
+            return false;
+        }
+        int entryOffset = offsets[entry];
+        for (int i = 0; i < length; i++) {
+            if (arena[entryOffset + i] != word[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void growEntries() {
+        int capacity = hashes.length * 2;
+        hashes = Arrays.copyOf(hashes, capacity);
+        offsets = Arrays.copyOf(offsets, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        mask = capacity - 1;
+        for (int entry = 0; entry < size; entry++) {
+            int slot = mix(hashes[entry]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = entry + 1;
+        }
+    }
+
+    /**
+     * Computes word hash code the same way as the tokenizer does.
+     *
+     * For ASCII words it is equal to {@code String.hashCode()}.
+     *
+     * @param word buffer containing UTF-8 word bytes
+     * @param offset word offset in the buffer
+     * @param length word length in bytes
+     * @return word hash code
+     */
+    public static int hash(byte[] word, int offset, int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + word[offset + i];
+        }
+        return h;
+    }
+
+    /**
+     * Spreads hash code bits, so that similar words do not cluster in neighbouring slots.
+     */
+    static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
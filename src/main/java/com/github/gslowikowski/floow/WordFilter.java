@@ -0,0 +1,103 @@
+package com.github.gslowikowski.floow;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+public class WordFilter {
+
+    private int minLength;
+    private WordCountTable stopwords = new WordCountTable();
+
+    /**
+     * Filter of words reported by tokenizers, dropping short words and stopwords before they are counted.
+     *
+     * Stopwords are kept in a {@link WordCountTable}, so checking a word does not create any strings.
+     * Filter is not modified while filtering, so it can be shared by many import threads.
+     *
+     * @param minLength minimum word length in characters (0 or 1 means all words)
+     */
+    public WordFilter(int minLength) {
+        this.minLength = minLength;
+    }
+
+    /**
+     * Adds stopwords, tokenized the same way as the imported text, so they are folded like the words they match.
+     *
+     * Every line may contain many words, e.g. the line "don't" adds two stopwords: "don" and "t".
+     *
+     * @param r stopwords reader
+     * @param type tokenizer of imported text
+     * @throws IOException in case of I/O problems
+     */
+    public void addStopwords(BufferedReader r, TokenizerType type) throws IOException {
+        Tokenizer tokenizer = type.create(new Tokenizer.Handler() {
+            @Override
+            public void word(byte[] word, int length, int hash) {
+                if (!stopwords.contains(word, length, hash)) {
+                    stopwords.add(word, length, hash);
+                }
+            }
+
+            @Override
+            public boolean endOfLine() {
+                return true;
+            }
+        });
+        String line;
+        while ((line = r.readLine()) != null) {
+            tokenizer.tokenize(line);
+        }
+    }
+
+    public int getStopwordCount() {
+        return stopwords.size();
+    }
+
+    /**
+     * Checks if a word should be counted.
+     *
+     * @param word buffer containing UTF-8 word bytes
+     * @param length word length in bytes
+     * @param hash word hash code
+     * @return {@code true} for words at least minimum length long and not being stopwords
+     */
+    public boolean accepts(byte[] word, int length, int hash) {
+        if (minLength > 1 && length < minLength * 4 && characters(word, length) < minLength) {
+            return false;
+        }
+        return stopwords.isEmpty() || !stopwords.contains(word, length, hash);
+    }
+
+    /**
+     * Wraps tokenizer handler, so it receives accepted words only.
+     *
+     * @param handler receiver of accepted words and all line ends
+     * @return filtering handler
+     */
+    public Tokenizer.Handler wrap(Tokenizer.Handler handler) {
+        return new Tokenizer.Handler() {
+            @Override
+            public void word(byte[] word, int length, int hash) {
+                if (accepts(word, length, hash)) {
+                    handler.word(word, length, hash);
+                }
+            }
+
+            @Override
+            public boolean endOfLine() {
+                return handler.endOfLine();
+            }
+        };
+    }
+
+    private static int characters(byte[] word, int length) {
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if ((word[i] & 0xc0) != 0x80) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,181 @@
+package com.github.gslowikowski.floow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.IntStream;
+
+import org.bson.Document;
+
+import com.mongodb.client.MongoCollection;
+
+public class WordIndex {
+
+    private static final int LOAD_BATCH_SIZE = 10000;
+
+    private String[] words;
+    private long[] counts;
+    /**
+     * Positions of words ordered by count descending, then by word.
+     */
+    private int[] ranking;
+    private long generation;
+
+    /**
+     * Immutable in-memory index of aggregated word counts.
+     *
+     * Words are kept in a sorted array, so single words are found by binary search and words having
+     * a common prefix are adjacent. Positions of words ordered by their counts are precomputed,
+     * so pages of the most frequent words are array slices.
+     *
+     * @param words words (any order, no duplicates)
+     * @param counts counts of words
+     * @param generation generation of the output collection the words were loaded from
+     */
+    public WordIndex(List<String> words, long[] counts, long generation) {
+        int n = words.size();
+        int[] byWord = IntStream.range(0, n).boxed()
+                .sorted(Comparator.comparing(words::get))
+                .mapToInt(Integer::intValue)
+                .toArray();
+        this.words = new String[n];
+        this.counts = new long[n];
+        for (int i = 0; i < n; i++) {
+            this.words[i] = words.get(byWord[i]);
+            this.counts[i] = counts[byWord[i]];
+        }
+        // words are sorted already, so equal counts keep alphabetical order
+        this.ranking = IntStream.range(0, n).boxed()
+                .sorted((i1, i2) -> Long.compare(this.counts[i2], this.counts[i1]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+        this.generation = generation;
+    }
+
+    /**
+     * Loads aggregated word counts of an output collection.
+     *
+     * Documents are {@code {_id: word, count: n}}, or {@code {_id: word, value: n}} written by mapReduce.
+     *
+     * @param output output collection of aggregation
+     * @param generation generation of the output collection
+     * @return index
+     * @throws IllegalStateException if a document has no word count
+     */
+    public static WordIndex load(MongoCollection<Document> output, long generation) {
+        List<String> words = new ArrayList<String>();
+        long[] counts = new long[1024];
+        for (Document doc: output.find().projection(new Document("count", 1).append("value", 1)).batchSize(LOAD_BATCH_SIZE)) {
+            Object count = doc.containsKey("count") ? doc.get("count") : doc.get("value");
+            if (!(count instanceof Number) || !(doc.get("_id") instanceof String)) {
+                throw new IllegalStateException(String.format("%s is not a collection of word counts, found %s",
+                        output.getNamespace().getCollectionName(), doc.toJson()));
+            }
+            if (words.size() == counts.length) {
+                counts = Arrays.copyOf(counts, counts.length * 2);
+            }
+            counts[words.size()] = ((Number) count).longValue();
+            words.add(doc.getString("_id"));
+        }
+        return new WordIndex(words, counts, generation);
+    }
+
+    /**
+     * Returns number of words.
+     *
+     * @return number of distinct words
+     */
+    public int size() {
+        return words.length;
+    }
+
+    /**
+     * Returns generation of the output collection the words were loaded from.
+     *
+     * @return generation
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns count of a word.
+     *
+     * @param word word
+     * @return count, zero for unknown words
+     */
+    public long count(String word) {
+        int pos = Arrays.binarySearch(words, word);
+        return pos >= 0 ? counts[pos] : 0L;
+    }
+
+    /**
+     * Returns a page of words ordered by count descending, then by word.
+     *
+     * @param offset number of words to skip
+     * @param limit maximum number of words
+     * @return words with their counts
+     */
+    public List<WordCount> top(int offset, int limit) {
+        List<WordCount> result = new ArrayList<WordCount>();
+        for (int i = Math.max(offset, 0), end = (int) Math.min((long) i + limit, words.length); i < end; i++) {
+            result.add(wordCount(ranking[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the most frequent words starting with a prefix, ordered by count descending, then by word.
+     *
+     * @param prefix word prefix
+     * @param limit maximum number of words
+     * @return words with their counts
+     */
+    public List<WordCount> prefix(String prefix, int limit) {
+        int from = Arrays.binarySearch(words, prefix);
+        if (from < 0) {
+            from = -from - 1;
+        }
+        // keep the best words in a heap having the worst of them on top
+        Comparator<Integer> order = (i1, i2) -> counts[i1] != counts[i2] ? Long.compare(counts[i2], counts[i1]) : Integer.compare(i1, i2);
+        PriorityQueue<Integer> best = new PriorityQueue<Integer>(order.reversed());
+        for (int i = from; i < words.length && words[i].startsWith(prefix); i++) {
+            best.add(i);
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+        List<WordCount> result = new ArrayList<WordCount>(best.size());
+        best.stream().sorted(order).forEach(i -> result.add(wordCount(i)));
+        return result;
+    }
+
+    private WordCount wordCount(int pos) {
+        return new WordCount(words[pos], counts[pos]);
+    }
+
+    /**
+     * Word with its count.
+     */
+    public static class WordCount {
+
+        private final String word;
+        private final long count;
+
+        WordCount(String word, long count) {
+            this.word = word;
+            this.count = count;
+        }
+
+        public String getWord() {
+            return word;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+
+}
@@ -0,0 +1,441 @@
+package com.github.gslowikowski.floow;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.bson.Document;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoCommandException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class Worker {
+
+    public static final Logger log = LoggerFactory.getLogger(Worker.class);
+
+    /**
+     * Suffix of collection keeping segments of source files imported by workers.
+     */
+    public static final String SEGMENTS_SUFFIX = "_segments";
+
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    public static final int DEFAULT_LEASE_SECONDS = 60;
+
+    private static final String PENDING = "pending";
+    private static final String LEASED = "leased";
+    private static final String DONE = "done";
+
+    private static final int DUPLICATE_KEY = 11000;
+
+    /**
+     * Creates importer saving chunks of a segment.
+     */
+    public interface ImporterFactory {
+
+        /**
+         * @param id additional identifier of chunks of the segment
+         * @param writer chunk documents writer
+         * @return importer
+         */
+        Importer create(String id, ChunkWriter writer);
+
+    }
+
+    private MongoCollection<Document> collection;
+    private MongoCollection<Document> segments;
+    private String source;
+    private File file;
+    private ImporterFactory importers;
+
+    private String workerId;
+    /**
+     * Identifier of the split of the source, chunk identifiers start with it.
+     */
+    private String run;
+    private long leaseMillis = DEFAULT_LEASE_SECONDS * 1000L;
+    private int writers = ChunkWriter.DEFAULT_THREADS;
+    private int writeQueue = ChunkWriter.DEFAULT_QUEUE_SIZE;
+    private Compactor compactor = null;
+    private ExecutorService compaction = null;
+    private List<Future<?>> compactions = Collections.synchronizedList(new ArrayList<Future<?>>());
+
+    /**
+     * Segments leased by this worker, by segment identifier.
+     */
+    private Map<String, Lease> leases = new ConcurrentHashMap<String, Lease>();
+
+    /**
+     * Importer coordinating with other processes importing the same source.
+     *
+     * The source file is split into byte range segments, stored in {@code <collection>_segments} collection
+     * by the first worker. Every worker thread claims one pending segment at a time, leasing it for a limited time.
+     * Leases are renewed in the background while segments are imported. Segments of workers, which stopped
+     * renewing their leases, are claimed again by other workers, so all workers finish at the same time
+     * regardless of their speed.
+     *
+     * Once all segments are imported, workers started again import nothing, until the source file changes
+     * (its length or modification time). Then the first of them splits the file again and replaces previous chunks.
+     *
+     * @param database database containing input collection
+     * @param collection collection storing imported data
+     * @param source source file name
+     * @param file source file
+     * @param importers creates importers saving chunks of segments
+     */
+    public Worker(MongoDatabase database, MongoCollection<Document> collection, String source, File file, ImporterFactory importers) {
+        this.collection = collection;
+        this.segments = database.getCollection(collection.getNamespace().getCollectionName() + SEGMENTS_SUFFIX);
+        this.source = source;
+        this.file = file;
+        this.importers = importers;
+        this.workerId = ManagementFactory.getRuntimeMXBean().getName() + "-" + Long.toHexString(System.nanoTime());
+    }
+
+    /**
+     * Sets time after which segments not renewed by their workers can be claimed by others.
+     *
+     * @param seconds lease time ({@value #DEFAULT_LEASE_SECONDS} seconds by default)
+     */
+    public void setLeaseSeconds(int seconds) {
+        this.leaseMillis = seconds * 1000L;
+    }
+
+    /**
+     * Sets background writers used for every segment (see {@link ChunkWriter}).
+     *
+     * @param threads number of writer threads
+     * @param queueSize maximum number of documents waiting for writing
+     */
+    public void setWriters(int threads, int queueSize) {
+        this.writers = threads;
+        this.writeQueue = queueSize;
+    }
+
+    /**
+     * Sets compactor of chunks of imported segments.
+     *
+     * Chunks of every segment imported by this worker are compacted by a background thread,
+     * while other segments are still imported.
+     *
+     * @param compactor compactor of the source or {@code null} to keep chunks as imported (default)
+     */
+    public void setCompactor(Compactor compactor) {
+        this.compactor = compactor;
+    }
+
+    /**
+     * Imports segments until all segments of the source are imported by this or other workers.
+     *
+     * @param threads number of threads importing segments
+     * @param segmentBytes approximate segment size, used if the source is not split yet
+     * @param chunkSize aggregation chunk size
+     * @return number of segments imported by this worker
+     * @throws IOException in case of I/O problems
+     * @throws IllegalStateException if the source is still imported by workers, but the file has changed
+     */
+    public int run(int threads, long segmentBytes, int chunkSize) throws IOException {
+        plan(segmentBytes);
+
+        AtomicInteger imported = new AtomicInteger();
+        ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        compaction = compactor != null ? Executors.newSingleThreadExecutor() : null;
+        try {
+            renewer.scheduleWithFixedDelay(this::renewLeases, leaseMillis / 3, leaseMillis / 3, TimeUnit.MILLISECONDS);
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int i = 0; i < threads; i++) {
+                String owner = workerId + "-" + i;
+                results.add(executor.submit(() -> {
+                    importSegments(owner, chunkSize, imported);
+                    return null;
+                }));
+            }
+            for (Future<Void> result: results) {
+                result.get();
+            }
+            // no more segments are completed
+            for (Future<?> compacted: compactions) {
+                compacted.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        finally {
+            executor.shutdownNow();
+            renewer.shutdownNow();
+            if (compaction != null) {
+                compaction.shutdownNow();
+            }
+        }
+
+        removeAbandonedChunks();
+        return imported.get();
+    }
+
+    /**
+     * Splits the source into segments, unless other worker did it already.
+     */
+    private void plan(long segmentBytes) throws IOException {
+        long fileLength = file.length();
+        long fileModified = file.lastModified();
+        int parts = (int) Math.max(1L, (fileLength + segmentBytes - 1) / segmentBytes);
+        String newRun = Long.toString(System.currentTimeMillis(), 36);
+        Document plan = new Document("fileLength", fileLength).append("fileModified", fileModified).append("parts", parts).append("run", newRun);
+        Document planned;
+        try {
+            planned = segments.findOneAndUpdate(new Document("_id", source), new Document("$setOnInsert", plan),
+                    new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+        }
+        catch (MongoCommandException e) {
+            if (e.getErrorCode() != DUPLICATE_KEY) {
+                throw e;
+            }
+            planned = segments.find(new Document("_id", source)).first(); // inserted concurrently
+        }
+        if (!isPlanOf(planned, fileLength, fileModified)) {
+            if (segments.count(new Document("source", source).append("run", planned.getString("run")).append("state", new Document("$ne", DONE))) > 0) {
+                throw new IllegalStateException(String.format("Source was split for a file of %s bytes, which is still imported, drop %s collection to import it again",
+                        planned.get("fileLength"), segments.getNamespace().getCollectionName()));
+            }
+            // the file has changed since it was imported, the first worker noticing it splits the file again
+            log.info(String.format("Source %s has changed since it was imported, importing it again", source));
+            Document replaced = segments.findOneAndUpdate(new Document("_id", source).append("run", planned.getString("run")),
+                    new Document("$set", plan), new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+            planned = replaced != null ? replaced : segments.find(new Document("_id", source)).first();
+            if (!isPlanOf(planned, fileLength, fileModified)) {
+                throw new IllegalStateException("Source file has changed while splitting it");
+            }
+        }
+        run = planned.getString("run");
+        if (run.equals(newRun)) {
+            // the first worker removes data of previous imports of the source
+            Importer.ensureIndex(collection);
+            collection.deleteMany(new Document("source", source).append("id", new Document("$not", Pattern.compile("^" + run + "-"))));
+            segments.deleteMany(new Document("source", source).append("run", new Document("$ne", run)));
+        }
+
+        // all workers split the same file the same way, segments inserted first win
+        List<WriteModel<Document>> inserts = new ArrayList<WriteModel<Document>>();
+        List<FileRange> ranges = FileRange.split(file, planned.getInteger("parts"));
+        for (int i = 0; i < ranges.size(); i++) {
+            FileRange range = ranges.get(i);
+            Document segment = new Document("source", source)
+                    .append("run", run)
+                    .append("segmentNo", i)
+                    .append("start", range.getStart())
+                    .append("end", range.getEnd())
+                    .append("state", PENDING)
+                    .append("attempts", 0);
+            inserts.add(new UpdateOneModel<Document>(new Document("_id", segmentId(i)), new Document("$setOnInsert", segment),
+                    new UpdateOptions().upsert(true)));
+        }
+        try {
+            segments.bulkWrite(inserts, new BulkWriteOptions().ordered(false));
+        }
+        catch (MongoBulkWriteException e) {
+            for (BulkWriteError error: e.getWriteErrors()) {
+                if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                    throw e;
+                }
+            }
+        }
+        log.debug(String.format(" source split into %d segments", ranges.size()));
+        if (segments.count(new Document("source", source).append("run", run).append("state", new Document("$ne", DONE))) == 0) {
+            log.info(String.format("Source %s is already imported, it is imported again when the file changes", source));
+        }
+    }
+
+    private static boolean isPlanOf(Document plan, long fileLength, long fileModified) {
+        return ((Number) plan.get("fileLength")).longValue() == fileLength
+                && plan.get("fileModified") != null && ((Number) plan.get("fileModified")).longValue() == fileModified;
+    }
+
+    private void importSegments(String owner, int chunkSize, AtomicInteger imported) throws IOException, InterruptedException {
+        while (true) {
+            Document segment = claim(owner);
+            if (segment == null) {
+                if (segments.count(new Document("source", source).append("run", run).append("state", new Document("$ne", DONE))) == 0) {
+                    return;
+                }
+                // wait for segments of other workers, they may have to be claimed again
+                Thread.sleep(leaseMillis / 3);
+                continue;
+            }
+
+            Lease lease = new Lease(segment.getString("_id"), owner, segment.getInteger("attempts"));
+            leases.put(lease.segmentId, lease);
+            String id = chunksId(segment.getInteger("segmentNo"), lease.attempt);
+            try {
+                log.debug(String.format(" importing segment %s as %s", lease.segmentId, id));
+                FileRange range = new FileRange(file, ((Number) segment.get("start")).longValue(), ((Number) segment.get("end")).longValue());
+                ChunkWriter writer = new LeasedChunkWriter(lease);
+                try {
+                    importers.create(id, writer).importInChunks(range, 0/*skipLines*/, 0/*limitLines*/, chunkSize);
+                }
+                catch (Throwable e) {
+                    writer.closeAfter(e);
+                    throw e;
+                }
+                writer.close(); // waits for queued chunks
+            }
+            catch (IllegalStateException e) {
+                if (!lease.lost) {
+                    throw e;
+                }
+                // other worker imports the segment again, its chunks replace chunks saved so far
+            }
+            finally {
+                leases.remove(lease.segmentId);
+            }
+
+            if (complete(lease)) {
+                imported.incrementAndGet();
+                if (compaction != null) {
+                    // all chunks of the segment are written
+                    compactions.add(compaction.submit(() -> compactor.compact(id)));
+                }
+            }
+            else {
+                log.warn("Lease of segment " + lease.segmentId + " expired before it was imported");
+            }
+        }
+    }
+
+    private Document claim(String owner) {
+        long now = System.currentTimeMillis();
+        Document filter = new Document("source", source).append("run", run).append("$or", Arrays.asList(
+                new Document("state", PENDING),
+                new Document("state", LEASED).append("leaseUntil", new Document("$lt", new Date(now)))));
+        Document update = new Document("$set", new Document("state", LEASED)
+                    .append("owner", owner)
+                    .append("leaseUntil", new Date(now + leaseMillis)))
+                .append("$inc", new Document("attempts", 1));
+        return segments.findOneAndUpdate(filter, update,
+                new FindOneAndUpdateOptions().sort(new Document("segmentNo", 1)).returnDocument(ReturnDocument.AFTER));
+    }
+
+    private boolean complete(Lease lease) {
+        return segments.updateOne(lease.filter(), new Document("$set", new Document("state", DONE))).getMatchedCount() > 0;
+    }
+
+    private void renewLeases() {
+        for (Lease lease: leases.values()) {
+            try {
+                Date leaseUntil = new Date(System.currentTimeMillis() + leaseMillis);
+                if (segments.updateOne(lease.filter(), new Document("$set", new Document("leaseUntil", leaseUntil))).getMatchedCount() == 0) {
+                    lease.lost = true;
+                }
+            }
+            catch (RuntimeException e) {
+                log.warn("Renewing lease of segment " + lease.segmentId + " failed", e);
+            }
+        }
+    }
+
+    /**
+     * Removes chunks of segments imported again after their leases expired.
+     *
+     * Only chunks of the attempt which completed the segment are kept.
+     */
+    private void removeAbandonedChunks() {
+        for (Document segment: segments.find(new Document("source", source).append("run", run).append("state", DONE).append("attempts", new Document("$gt", 1)))) {
+            List<String> abandoned = new ArrayList<String>();
+            for (int attempt = 1; attempt < segment.getInteger("attempts"); attempt++) {
+                abandoned.add(chunksId(segment.getInteger("segmentNo"), attempt));
+            }
+            collection.deleteMany(new Document("source", source).append("id", new Document("$in", abandoned)));
+        }
+    }
+
+    private String segmentId(int segmentNo) {
+        return source + "/" + run + "/" + segmentNo;
+    }
+
+    private String chunksId(int segmentNo, int attempt) {
+        return String.format("%s-%d-%d", run, segmentNo, attempt);
+    }
+
+    /**
+     * Segment leased by a worker thread.
+     */
+    private static class Lease {
+
+        private String segmentId;
+        private String owner;
+        private int attempt;
+        private volatile boolean lost = false;
+
+        Lease(String segmentId, String owner, int attempt) {
+            this.segmentId = segmentId;
+            this.owner = owner;
+            this.attempt = attempt;
+        }
+
+        Document filter() {
+            return new Document("_id", segmentId).append("owner", owner).append("attempts", attempt).append("state", LEASED);
+        }
+    }
+
+    /**
+     * Chunk writer stopping the import as soon as the segment lease is lost.
+     */
+    private class LeasedChunkWriter extends ChunkWriter {
+
+        private Lease lease;
+
+        LeasedChunkWriter(Lease lease) {
+            super(collection, writers, writeQueue, ChunkWriter.DEFAULT_BATCH_SIZE);
+            this.lease = lease;
+        }
+
+        @Override
+        public void write(Document doc) throws IOException {
+            if (lease.lost) {
+                throw new IllegalStateException("Lease of segment " + lease.segmentId + " expired");
+            }
+            super.write(doc);
+        }
+    }
+
+}
@@ -1,9 +1,11 @@
 package com.github.gslowikowski.floow;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.bson.Document;
+import org.bson.types.ObjectId;
 
 import com.mongodb.MongoClient;
 import com.mongodb.client.MongoCollection;
@@ -14,6 +16,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
 
 public class AggregatorTest {
 
@@ -22,6 +26,8 @@ public class AggregatorTest {
     private static final String COLLECTION = "words";
     private static final String COLLECTION_AGGR = "words_aggr";
     private static final String COLLECTION_MR = "words_mr";
+    private static final String COLLECTION_CLIENT = "words_client";
+    private static final String COLLECTION_TOPK = "words_topk";
  
     private MongoClient client = null;
     private MongoDatabase db = null;
@@ -68,6 +74,70 @@ public class AggregatorTest {
         assertEquals(1, results.get(6).get("count"));
     }
 
+    @Test
+    public void testAggregatePartitioned() throws InterruptedException {
+        Aggregator aggr = new Aggregator(db, collection, SOURCE);
+
+        aggr.aggregatePartitioned(COLLECTION_AGGR, 3/*partitions*/);
+
+        List<Document> results = new ArrayList<>();
+        db.getCollection(COLLECTION_AGGR).find().sort(new Document("count", -1).append("_id", 1)).into(results);
+
+        assertEquals(7, results.size());
+        assertEquals("awesome", results.get(0).get("_id"));
+        assertEquals(4, results.get(0).get("count"));
+        assertEquals("is", results.get(1).get("_id"));
+        assertEquals(3, results.get(1).get("count"));
+        assertEquals("mongo", results.get(2).get("_id"));
+        assertEquals(2, results.get(2).get("count"));
+        assertEquals("too", results.get(6).get("_id"));
+        assertEquals(1, results.get(6).get("count"));
+    }
+
+    @Test
+    public void testAggregatePartitionedEmpty() throws InterruptedException {
+        Aggregator aggr = new Aggregator(db, collection, "missing.txt");
+
+        aggr.aggregatePartitioned(COLLECTION_AGGR, 3/*partitions*/);
+
+        assertEquals(0, db.getCollection(COLLECTION_AGGR).count());
+    }
+
+    @Test
+    public void testClientAggregate() throws InterruptedException {
+        Aggregator aggr = new Aggregator(db, collection, SOURCE);
+
+        aggr.clientAggregate(COLLECTION_CLIENT, 2/*threads*/);
+
+        List<Document> results = new ArrayList<>();
+        db.getCollection(COLLECTION_CLIENT).find().sort(new Document("count", -1).append("_id", 1)).into(results);
+
+        assertEquals(7, results.size());
+        assertEquals("awesome", results.get(0).get("_id"));
+        assertEquals(4, results.get(0).get("count"));
+        assertEquals("is", results.get(1).get("_id"));
+        assertEquals(3, results.get(1).get("count"));
+        assertEquals("mongo", results.get(2).get("_id"));
+        assertEquals(2, results.get(2).get("count"));
+        assertEquals("am", results.get(3).get("_id"));
+        assertEquals(1, results.get(3).get("count"));
+        assertEquals("floow", results.get(4).get("_id"));
+        assertEquals(1, results.get(4).get("count"));
+        assertEquals("i", results.get(5).get("_id"));
+        assertEquals(1, results.get(5).get("count"));
+        assertEquals("too", results.get(6).get("_id"));
+        assertEquals(1, results.get(6).get("count"));
+    }
+
+    @Test
+    public void testClientAggregateEmpty() throws InterruptedException {
+        Aggregator aggr = new Aggregator(db, collection, "missing.txt");
+
+        aggr.clientAggregate(COLLECTION_CLIENT, 2/*threads*/);
+
+        assertEquals(0, db.getCollection(COLLECTION_CLIENT).count());
+    }
+
     @Test
     public void testMapReduce() {
         Aggregator aggr = new Aggregator(collection, SOURCE);
@@ -94,6 +164,181 @@ public class AggregatorTest {
         assertEquals(1.0, results.get(6).get("value"));
     }
 
+    @Test
+    public void testAggregateIncremental() {
+        db.getCollection(COLLECTION_AGGR + Aggregator.STATE_SUFFIX).drop();
+        Aggregator aggr = new Aggregator(db, collection, SOURCE);
+
+        aggr.aggregateIncremental(COLLECTION_AGGR, null);
+
+        MongoCollection<Document> output = db.getCollection(COLLECTION_AGGR);
+        assertEquals(7, output.count());
+        assertEquals(2, output.find(new Document("_id", "mongo")).first().get("count"));
+        assertEquals(3, collection.count(new Document("folded", COLLECTION_AGGR)));
+
+        List<Document> words = new ArrayList<>();
+        words.add(new Document("word", "mongo")
+                .append("cnt", 5));
+        words.add(new Document("word", "rocks")
+                .append("cnt", 1));
+        collection.insertOne(new Document("source", SOURCE)
+                .append("id", "serverId1")
+                .append("chunkNo", 0)
+                .append("chunkSize", 1)
+                .append("words", words));
+
+        aggr.aggregateIncremental(COLLECTION_AGGR, "serverId1");
+
+        assertEquals(8, output.count());
+        assertEquals(7, output.find(new Document("_id", "mongo")).first().get("count"));
+        assertEquals(1, output.find(new Document("_id", "rocks")).first().get("count"));
+        assertEquals(4, collection.count(new Document("folded", COLLECTION_AGGR)));
+
+        // removing aggregated chunk forces rebuilding
+        collection.deleteMany(new Document("id", "serverId1"));
+
+        aggr.aggregateIncremental(COLLECTION_AGGR, null);
+
+        assertEquals(7, output.count());
+        assertEquals(2, output.find(new Document("_id", "mongo")).first().get("count"));
+    }
+
+    @Test
+    public void testAggregateIncrementalInterrupted() {
+        MongoCollection<Document> state = db.getCollection(COLLECTION_AGGR + Aggregator.STATE_SUFFIX);
+        state.drop();
+        Aggregator aggr = new Aggregator(db, collection, SOURCE);
+        aggr.aggregateIncremental(COLLECTION_AGGR, null);
+
+        // counts of a new chunk were added, but the chunk was not marked as aggregated
+        ObjectId token = new ObjectId();
+        collection.insertOne(new Document("source", SOURCE)
+                .append("chunkNo", 3)
+                .append("chunkSize", 1)
+                .append("words", Arrays.asList(new Document("word", "mongo").append("cnt", 5)))
+                .append("folding", Arrays.asList(new Document("output", COLLECTION_AGGR).append("token", token))));
+        state.updateOne(new Document("_id", SOURCE), new Document("$set", new Document("folding", token)));
+        MongoCollection<Document> output = db.getCollection(COLLECTION_AGGR);
+        output.updateOne(new Document("_id", "mongo"), new Document("$inc", new Document("count", 5)));
+
+        aggr.aggregateIncremental(COLLECTION_AGGR, null);
+
+        assertEquals(7, output.find(new Document("_id", "mongo")).first().get("count"));
+        assertEquals(4, collection.count(new Document("folded", COLLECTION_AGGR)));
+        assertEquals(0, collection.count(new Document("folding.token", new Document("$exists", true))));
+        assertFalse(state.find(new Document("_id", SOURCE)).first().containsKey("folding"));
+    }
+
+    @Test
+    public void testAggregateIncrementalShared() {
+        db.getCollection(COLLECTION_AGGR + Aggregator.STATE_SUFFIX).drop();
+        collection.insertOne(new Document("source", "other.txt")
+                .append("chunkNo", 0)
+                .append("chunkSize", 1)
+                .append("words", Arrays.asList(new Document("word", "mongo").append("cnt", 5))));
+        Aggregator aggr = new Aggregator(db, collection, SOURCE);
+        Aggregator other = new Aggregator(db, collection, "other.txt");
+
+        aggr.aggregateIncremental(COLLECTION_AGGR, null);
+        other.aggregateIncremental(COLLECTION_AGGR, null);
+
+        MongoCollection<Document> output = db.getCollection(COLLECTION_AGGR);
+        assertEquals(7, output.count());
+        assertEquals(7, output.find(new Document("_id", "mongo")).first().get("count"));
+
+        // removing aggregated chunk cannot rebuild shared output
+        collection.deleteOne(new Document("source", SOURCE).append("chunkNo", 0));
+        try {
+            aggr.aggregateIncremental(COLLECTION_AGGR, null);
+            fail("Shared output rebuilt");
+        }
+        catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(7, output.find(new Document("_id", "mongo")).first().get("count"));
+    }
+
+    @Test
+    public void testAggregateSharedOutput() {
+        db.getCollection(COLLECTION_AGGR + Aggregator.STATE_SUFFIX).drop();
+        collection.insertOne(new Document("source", "other.txt")
+                .append("chunkNo", 0)
+                .append("chunkSize", 1)
+                .append("words", Arrays.asList(new Document("word", "mongo").append("cnt", 5))));
+        Aggregator aggr = new Aggregator(db, collection, SOURCE);
+        Aggregator other = new Aggregator(db, collection, "other.txt");
+        aggr.aggregateIncremental(COLLECTION_AGGR, null);
+        other.aggregateIncremental(COLLECTION_AGGR, null);
+
+        // full rewrite would lose counts of the other source
+        try {
+            aggr.aggregate(COLLECTION_AGGR);
+            fail("Shared output rewritten");
+        }
+        catch (IllegalStateException e) {
+            // expected
+        }
+        MongoCollection<Document> output = db.getCollection(COLLECTION_AGGR);
+        assertEquals(7, output.find(new Document("_id", "mongo")).first().get("count"));
+
+        collection.insertOne(new Document("source", SOURCE)
+                .append("chunkNo", 3)
+                .append("chunkSize", 1)
+                .append("words", Arrays.asList(new Document("word", "mongo").append("cnt", 1))));
+        aggr.aggregateIncremental(COLLECTION_AGGR, null);
+
+        assertEquals(8, output.find(new Document("_id", "mongo")).first().get("count"));
+    }
+
+    @Test
+    public void testTopK() {
+        collection.drop();
+        collection.insertOne(new Document("source", SOURCE)
+                .append("chunkNo", 0)
+                .append("topK", Arrays.asList(new Document("word", "a").append("cnt", 5), new Document("word", "b").append("cnt", 3)))
+                .append("topKMin", 3));
+        collection.insertOne(new Document("source", SOURCE)
+                .append("chunkNo", 1)
+                .append("topK", Arrays.asList(new Document("word", "b").append("cnt", 4), new Document("word", "c").append("cnt", 2)))
+                .append("topKMin", 2));
+        Aggregator aggr = new Aggregator(db, collection, SOURCE);
+
+        List<Document> results = aggr.topK(COLLECTION_TOPK, 2);
+
+        assertEquals(2, results.size());
+        assertEquals("b", results.get(0).get("_id"));
+        assertEquals(7, results.get(0).get("count"));
+        assertEquals(7, results.get(0).get("maxCount"));
+        assertEquals("a", results.get(1).get("_id"));
+        assertEquals(5, results.get(1).get("count"));
+        assertEquals(7, results.get(1).get("maxCount"));
+        assertEquals(2, db.getCollection(COLLECTION_TOPK).count());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTopKInvalid() {
+        Aggregator aggr = new Aggregator(db, collection, SOURCE);
+
+        aggr.topK(COLLECTION_TOPK, 0);
+    }
+
+    @Test
+    public void testAggregateColumnar() {
+        collection.insertOne(new Document("source", SOURCE)
+                .append("chunkNo", 3)
+                .append("chunkSize", 1)
+                .append("words", Arrays.asList("mongo", "floow"))
+                .append("counts", Arrays.asList(3, 1)));
+        Aggregator aggr = new Aggregator(collection, SOURCE);
+
+        aggr.aggregate(COLLECTION_AGGR);
+
+        MongoCollection<Document> output = db.getCollection(COLLECTION_AGGR);
+        assertEquals(7, output.count());
+        assertEquals(5, output.find(new Document("_id", "mongo")).first().get("count"));
+        assertEquals(2, output.find(new Document("_id", "floow")).first().get("count"));
+    }
+
     private List<Document> getDocumentsToAggregate() {
         List<Document> result = new ArrayList<>();
 
@@ -0,0 +1,127 @@
+package com.github.gslowikowski.floow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+
+public class AsciiTokenizerTest {
+
+    private static final String TEXT = "Mongo is awesome, Mongo is awesome.\nFloow is awesome...\n\nI am\tawesome too! Zażółć gęślą jaźń\nlast";
+
+    @Test
+    public void testTokenizeBytesLikeRegexSplit() {
+        Collector collector = new Collector(0);
+        AsciiTokenizer tokenizer = new AsciiTokenizer(collector);
+
+        assertTrue(tokenizer.tokenize(ByteBuffer.wrap(TEXT.getBytes(StandardCharsets.UTF_8))));
+        assertTrue(tokenizer.finish());
+
+        assertEquals(regexSplit(TEXT), collector.words);
+        assertEquals(5, collector.lines);
+    }
+
+    @Test
+    public void testTokenizeWordsSpanningBuffers() {
+        byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        Collector collector = new Collector(0);
+        AsciiTokenizer tokenizer = new AsciiTokenizer(collector);
+
+        for (int i = 0; i < bytes.length; i += 3) {
+            tokenizer.tokenize(ByteBuffer.wrap(bytes, i, Math.min(3, bytes.length - i)));
+        }
+        tokenizer.finish();
+
+        assertEquals(regexSplit(TEXT), collector.words);
+        assertEquals(5, collector.lines);
+    }
+
+    @Test
+    public void testTokenizeLines() {
+        Collector collector = new Collector(0);
+        AsciiTokenizer tokenizer = new AsciiTokenizer(collector);
+
+        for (String line: TEXT.split("\n")) {
+            tokenizer.tokenize(line);
+        }
+
+        assertEquals(regexSplit(TEXT), collector.words);
+        assertEquals(5, collector.lines);
+    }
+
+    @Test
+    public void testStopAtLineEnd() {
+        ByteBuffer buf = ByteBuffer.wrap(TEXT.getBytes(StandardCharsets.UTF_8));
+        Collector collector = new Collector(2);
+        AsciiTokenizer tokenizer = new AsciiTokenizer(collector);
+
+        assertFalse(tokenizer.tokenize(buf));
+
+        assertEquals(Arrays.asList("mongo", "is", "awesome", "mongo", "is", "awesome", "floow", "is", "awesome"), collector.words);
+        assertEquals(56, buf.position());
+        assertEquals(56, tokenizer.getLineEnd());
+    }
+
+    @Test
+    public void testLineEnds() {
+        byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        Collector collector = new Collector(0);
+        AsciiTokenizer tokenizer = new AsciiTokenizer(collector);
+        collector.tokenizer = tokenizer;
+
+        for (int i = 0; i < bytes.length; i += 5) {
+            tokenizer.tokenize(ByteBuffer.wrap(bytes, i, Math.min(5, bytes.length - i)));
+        }
+        tokenizer.finish();
+
+        assertEquals(Arrays.asList(36L, 56L, 57L, 102L, (long) bytes.length), collector.lineEnds);
+    }
+
+    private static List<String> regexSplit(String text) {
+        List<String> result = new ArrayList<>();
+        for (String word: text.toLowerCase(Locale.UK).split("[^a-z]")) {
+            if (word.length() > 0) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    private static class Collector implements AsciiTokenizer.Handler {
+
+        private int maxLines;
+        private List<String> words = new ArrayList<>();
+        private int lines = 0;
+        private AsciiTokenizer tokenizer = null;
+        private List<Long> lineEnds = new ArrayList<>();
+
+        Collector(int maxLines) {
+            this.maxLines = maxLines;
+        }
+
+        @Override
+        public void word(byte[] word, int length, int hash) {
+            String s = new String(word, 0, length, StandardCharsets.US_ASCII);
+            assertEquals(s.hashCode(), hash);
+            words.add(s);
+        }
+
+        @Override
+        public boolean endOfLine() {
+            lines++;
+            if (tokenizer != null) {
+                lineEnds.add(tokenizer.getLineEnd());
+            }
+            return maxLines == 0 || lines < maxLines;
+        }
+    }
+
+}
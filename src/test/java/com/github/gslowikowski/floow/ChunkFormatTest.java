@@ -0,0 +1,94 @@
+package com.github.gslowikowski.floow;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.junit.Test;
+
+public class ChunkFormatTest {
+
+    @Test
+    public void testList() {
+        Document doc = encode(ChunkFormat.LIST);
+
+        List<?> words = (List<?>) doc.get("words");
+        assertEquals(3, words.size());
+        assertEquals(new Document("word", "mongo").append("cnt", 2), words.get(0));
+        assertEquals(expected(), decode(doc));
+    }
+
+    @Test
+    public void testColumnar() {
+        Document doc = encode(ChunkFormat.COLUMNAR);
+
+        assertEquals(3, ((List<?>) doc.get("words")).size());
+        assertEquals(2, ((List<?>) doc.get("counts")).get(0));
+        assertEquals(expected(), decode(doc));
+    }
+
+    @Test
+    public void testBlob() {
+        Document doc = encode(ChunkFormat.BLOB);
+
+        assertTrue(doc.get("blob") instanceof Binary);
+        // sorted by word: 'awesome', 'is', 'mongo'
+        byte[] data = ((Binary) doc.get("blob")).getData();
+        assertArrayEquals("awesome".getBytes(StandardCharsets.UTF_8), Arrays.copyOfRange(data, 1, 8));
+        assertEquals(new ArrayList<>(expected().keySet()), new ArrayList<>(decode(doc).keySet()));
+        assertEquals(expected(), decode(doc));
+    }
+
+    @Test
+    public void testBlobLargeCount() {
+        WordCountTable table = new WordCountTable();
+        byte[] word = "mongo".getBytes(StandardCharsets.UTF_8);
+        table.add(word, 0, word.length, WordCountTable.hash(word, 0, word.length), 3000000000L);
+        Document doc = new Document();
+        ChunkFormat.BLOB.append(doc, table, 0, table.size());
+
+        assertEquals(Long.valueOf(3000000000L), decode(doc).get("mongo"));
+    }
+
+    @Test
+    public void testFromName() {
+        assertEquals(ChunkFormat.COLUMNAR, ChunkFormat.fromName("columnar"));
+        assertEquals(ChunkFormat.BLOB, ChunkFormat.fromName("Blob"));
+    }
+
+    private static Document encode(ChunkFormat format) {
+        WordCountTable table = new WordCountTable();
+        for (String word: "mongo is awesome mongo".split(" ")) {
+            byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+            table.add(bytes, bytes.length, WordCountTable.hash(bytes, 0, bytes.length));
+        }
+        Document doc = new Document();
+        format.append(doc, table, 0, table.size());
+        return doc;
+    }
+
+    private static Map<String, Long> expected() {
+        Map<String, Long> expected = new LinkedHashMap<>();
+        expected.put("awesome", 1L);
+        expected.put("is", 1L);
+        expected.put("mongo", 2L);
+        return expected;
+    }
+
+    private static Map<String, Long> decode(Document doc) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        ChunkFormat.decode(doc, (word, offset, length, count) ->
+            counts.put(new String(word, offset, length, StandardCharsets.UTF_8), count));
+        return counts;
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.github.gslowikowski.floow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.bson.Document;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+public class ChunkWriterTest {
+
+    private static final String DATABASE = "floowtest";
+    private static final String COLLECTION = "words";
+
+    private MongoClient client = null;
+    private MongoDatabase db = null;
+    private MongoCollection<Document> collection = null;
+
+    @Before
+    public void setUp() {
+        client = new MongoClient();
+        db = client.getDatabase(DATABASE);
+        collection = db.getCollection(COLLECTION);
+        collection.drop();
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        client = null;
+    }
+
+    @Test
+    public void testSynchronousWrite() throws IOException {
+        ChunkWriter writer = new ChunkWriter(collection);
+
+        writer.write(new Document("source", "dump.txt").append("chunkNo", 0));
+
+        assertEquals(1, collection.count());
+        writer.close();
+    }
+
+    @Test
+    public void testBackgroundWrite() throws IOException {
+        ChunkWriter writer = new ChunkWriter(collection, 2/*threads*/, 1/*queueSize*/, 3/*batchSize*/);
+
+        for (int i = 0; i < 10; i++) {
+            writer.write(new Document("source", "dump.txt").append("chunkNo", i));
+        }
+        writer.close();
+
+        assertEquals(10, collection.count());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(1, collection.count(new Document("chunkNo", i)));
+        }
+    }
+
+    @Test
+    public void testCloseAfterFailure() throws IOException {
+        ChunkWriter writer = new ChunkWriter(collection, 1/*threads*/, 1/*queueSize*/, 1/*batchSize*/);
+        writer.write(new Document("_id", 1).append("source", "dump.txt").append("chunkNo", 0));
+        writer.write(new Document("_id", 1).append("source", "dump.txt").append("chunkNo", 1));
+
+        IOException importFailure = new IOException("Import failed");
+        writer.closeAfter(importFailure);
+
+        // writing failure does not replace the import failure
+        assertEquals(1, importFailure.getSuppressed().length);
+        assertTrue(importFailure.getSuppressed()[0] instanceof IllegalStateException);
+    }
+
+}
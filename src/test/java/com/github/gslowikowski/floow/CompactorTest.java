@@ -0,0 +1,180 @@
+package com.github.gslowikowski.floow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+public class CompactorTest {
+
+    private static final String DATABASE = "floowtest";
+    private static final String COLLECTION = "words";
+    private static final String OUTPUT_COLLECTION = "words_aggr";
+
+    private static final String SOURCE = "dump.txt";
+
+    private MongoClient client = null;
+    private MongoDatabase db = null;
+    private MongoCollection<Document> collection = null;
+    private File file = null;
+
+    @Before
+    public void setUp() throws URISyntaxException {
+        client = new MongoClient();
+        db = client.getDatabase(DATABASE);
+        collection = db.getCollection(COLLECTION);
+        collection.drop();
+        db.getCollection(OUTPUT_COLLECTION).drop();
+        db.getCollection(OUTPUT_COLLECTION + Aggregator.STATE_SUFFIX).drop();
+        file = new File(Thread.currentThread().getContextClassLoader().getResource(SOURCE).toURI());
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        client = null;
+    }
+
+    @Test
+    public void testCompact() throws IOException {
+        importChunks("serverId1");
+        importChunks("serverId2");
+        assertEquals(6, collection.count());
+
+        Compactor compactor = new Compactor(SOURCE, collection);
+        compactor.compact("serverId1");
+
+        assertEquals(3, compactor.getMergedDocuments());
+        assertEquals(1, compactor.getCreatedDocuments());
+        // chunks of other identifiers are not touched
+        assertEquals(3, collection.count(new Document("id", "serverId2")));
+
+        List<Document> results = new ArrayList<>();
+        collection.find(new Document("id", "serverId1")).into(results);
+        assertEquals(1, results.size());
+        Document compacted = results.get(0);
+        assertEquals(0, compacted.get("chunkNo"));
+        assertEquals(3, compacted.get("chunks"));
+        assertEquals(74L, compacted.get("offset"));
+        assertTrue(!compacted.containsKey(Compactor.PENDING_FIELD));
+        List<Document> words = (List<Document>) compacted.get("words");
+        assertTrue(words.contains(new Document("word", "mongo").append("cnt", 2)));
+        assertTrue(words.contains(new Document("word", "awesome").append("cnt", 4)));
+        assertTrue(words.contains(new Document("word", "floow").append("cnt", 1)));
+
+        // compacted chunk stands for all merged chunks when resuming
+        Checkpoint checkpoint = new Importer(SOURCE, "serverId1", collection).resume();
+        assertEquals(2, checkpoint.getChunkNo());
+        assertEquals(74L, checkpoint.getOffset());
+        assertEquals(3L, checkpoint.getLines());
+        assertEquals(1, collection.count(new Document("id", "serverId1")));
+    }
+
+    @Test
+    public void testCompactPending() throws IOException {
+        importChunks(null);
+        // swap interrupted after the compacted chunk was saved
+        insertPending();
+
+        Compactor.completePending(collection, new Document("source", SOURCE));
+
+        assertEquals(1, collection.count());
+        assertTrue(!collection.find().first().containsKey(Compactor.PENDING_FIELD));
+    }
+
+    @Test
+    public void testAggregatePending() throws IOException {
+        importChunks(null);
+        // swap interrupted after the compacted chunk was saved
+        insertPending();
+
+        Aggregator aggr = new Aggregator(db, collection, SOURCE);
+        aggr.aggregate(OUTPUT_COLLECTION);
+
+        assertEquals(4, db.getCollection(OUTPUT_COLLECTION).find(new Document("_id", "awesome")).first().get("count"));
+        assertEquals(1, collection.count());
+    }
+
+    @Test
+    public void testAggregatePendingAfterRemoval() throws IOException, InterruptedException {
+        importChunks(null);
+        // swap interrupted after merged chunks were removed
+        List<?> merged = insertPending();
+        collection.deleteMany(new Document("_id", new Document("$in", merged)));
+
+        Aggregator aggr = new Aggregator(db, collection, SOURCE);
+        aggr.aggregate(OUTPUT_COLLECTION);
+        assertEquals(4, db.getCollection(OUTPUT_COLLECTION).find(new Document("_id", "awesome")).first().get("count"));
+        assertEquals(2, db.getCollection(OUTPUT_COLLECTION).find(new Document("_id", "mongo")).first().get("count"));
+
+        aggr.clientAggregate(OUTPUT_COLLECTION, 2/*threads*/);
+        assertEquals(4, db.getCollection(OUTPUT_COLLECTION).find(new Document("_id", "awesome")).first().get("count"));
+        assertTrue(!collection.find().first().containsKey(Compactor.PENDING_FIELD));
+    }
+
+    @Test
+    public void testCompactAggregatedIncrementally() throws IOException {
+        importChunks(null);
+        Aggregator aggr = new Aggregator(db, collection, SOURCE);
+        aggr.aggregateIncremental(OUTPUT_COLLECTION, null);
+
+        new Compactor(SOURCE, collection).compact(null);
+        assertEquals(1, collection.count());
+        assertEquals(Arrays.asList(OUTPUT_COLLECTION), collection.find().first().get("folded"));
+
+        // compacted chunks are not aggregated again, nor is the output rebuilt
+        db.getCollection(OUTPUT_COLLECTION).updateOne(new Document("_id", "mongo"), new Document("$inc", new Document("count", 10)));
+        aggr.aggregateIncremental(OUTPUT_COLLECTION, null);
+
+        assertEquals(12, db.getCollection(OUTPUT_COLLECTION).find(new Document("_id", "mongo")).first().get("count"));
+        assertEquals(3L, db.getCollection(OUTPUT_COLLECTION + Aggregator.STATE_SUFFIX).find(new Document("_id", SOURCE)).first().get("folded"));
+    }
+
+    /**
+     * Saves the compacted chunk of all imported chunks, still marked as pending.
+     * 
+     * @return identifiers of merged chunks
+     */
+    private List<Object> insertPending() {
+        List<Object> merged = new ArrayList<>();
+        collection.find().map(doc -> doc.get("_id")).into(merged);
+        List<Document> words = Arrays.asList(
+                new Document("word", "mongo").append("cnt", 2),
+                new Document("word", "is").append("cnt", 3),
+                new Document("word", "awesome").append("cnt", 4),
+                new Document("word", "floow").append("cnt", 1),
+                new Document("word", "i").append("cnt", 1),
+                new Document("word", "am").append("cnt", 1),
+                new Document("word", "too").append("cnt", 1));
+        collection.insertOne(new Document("_id", new ObjectId()).append("source", SOURCE).append("chunkNo", 0).append("chunks", 3)
+                .append("lines", 3).append("offset", 74L).append("words", words)
+                .append(Compactor.PENDING_FIELD, merged));
+        return merged;
+    }
+
+    /**
+     * Imports the source in chunks of single lines.
+     */
+    private void importChunks(String serverId) throws IOException {
+        Importer imp = new Importer(SOURCE, serverId, collection);
+        imp.cleanData();
+        imp.importInChunks(new FileRange(file, 0L, file.length()), 0/*skipLines*/, 0/*limitLines*/, 1/*chunkSize*/);
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.github.gslowikowski.floow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileRangeTest {
+
+    private static final String CONTENT = "Mongo is awesome, Mongo is awesome.\nFloow is awesome...\nI am awesome too!\n";
+
+    private File file = null;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("floow", ".txt");
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(CONTENT.getBytes("UTF-8"));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        file = null;
+    }
+
+    @Test
+    public void testSplitAlignsToLines() throws IOException {
+        List<FileRange> ranges = FileRange.split(file, 2);
+
+        assertEquals(2, ranges.size());
+        assertEquals(0L, ranges.get(0).getStart());
+        assertEquals(56L, ranges.get(0).getEnd());
+        assertEquals(56L, ranges.get(1).getStart());
+        assertEquals(file.length(), ranges.get(1).getEnd());
+
+        assertEquals(2, readLines(ranges.get(0)).size());
+        assertEquals("Floow is awesome...", readLines(ranges.get(0)).get(1));
+        assertEquals(1, readLines(ranges.get(1)).size());
+        assertEquals("I am awesome too!", readLines(ranges.get(1)).get(0));
+    }
+
+    @Test
+    public void testSplitIntoMorePartsThanLines() throws IOException {
+        List<FileRange> ranges = FileRange.split(file, 10);
+
+        assertEquals(3, ranges.size());
+        List<String> lines = new ArrayList<>();
+        for (FileRange range: ranges) {
+            lines.addAll(readLines(range));
+        }
+        assertEquals(3, lines.size());
+        assertEquals("Mongo is awesome, Mongo is awesome.", lines.get(0));
+        assertEquals("Floow is awesome...", lines.get(1));
+        assertEquals("I am awesome too!", lines.get(2));
+    }
+
+    private List<String> readLines(FileRange range) throws IOException {
+        List<String> result = new ArrayList<>();
+        BufferedReader r = range.openReader();
+        try {
+            String line = r.readLine();
+            while (line != null) {
+                result.add(line);
+                line = r.readLine();
+            }
+            assertNull(r.readLine());
+        }
+        finally {
+            r.close();
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.github.gslowikowski.floow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileSchedulerTest {
+
+    private File dir = null;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("floow").toFile();
+        write(new File(dir, "a.txt"), "Mongo is awesome\n");
+        write(new File(dir, "a.txt" + LineIndex.FILE_SUFFIX), "index");
+        write(new File(dir, "b.log"), "Floow is awesome\n");
+        new File(dir, "sub").mkdir();
+        write(new File(dir, "sub/c.txt"), "I am awesome too\n");
+    }
+
+    @After
+    public void tearDown() {
+        for (String name: new String[] {"a.txt", "a.txt" + LineIndex.FILE_SUFFIX, "b.log", "sub/c.txt", "sub", ""}) {
+            new File(dir, name).delete();
+        }
+        dir = null;
+    }
+
+    @Test
+    public void testExpandDirectory() throws IOException {
+        String source = dir.getPath();
+
+        assertTrue(FileScheduler.isMultiFile(source));
+        assertEquals(Arrays.asList(new File(dir, "a.txt"), new File(dir, "b.log"), new File(dir, "sub/c.txt")),
+                FileScheduler.expand(source));
+    }
+
+    @Test
+    public void testExpandPattern() throws IOException {
+        String source = dir.getPath() + File.separator + "*.txt";
+        assertTrue(FileScheduler.isMultiFile(source));
+        assertEquals(Arrays.asList(new File(dir, "a.txt")), FileScheduler.expand(source));
+
+        List<File> all = FileScheduler.expand(dir.getPath() + File.separator + "**.txt");
+        assertEquals(Arrays.asList(new File(dir, "a.txt"), new File(dir, "sub/c.txt")), all);
+        assertEquals(new File(dir, "sub/c.txt").getPath(), FileScheduler.sourceName(all.get(1)));
+    }
+
+    @Test
+    public void testSingleFileIsNotMultiFile() {
+        assertFalse(FileScheduler.isMultiFile(new File(dir, "a.txt").getPath()));
+    }
+
+    private static void write(File file, String text) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+}
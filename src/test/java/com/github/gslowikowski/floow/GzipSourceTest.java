@@ -0,0 +1,152 @@
+package com.github.gslowikowski.floow;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GzipSourceTest {
+
+    private static final String LINE = "Mongo is awesome, Mongo is awesome.\nFloow is awesome...\nI am awesome too!\n";
+
+    private byte[] content = null;
+    private File file = null;
+
+    @Before
+    public void setUp() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            sb.append(i).append(' ').append(LINE);
+        }
+        content = sb.toString().getBytes(StandardCharsets.UTF_8);
+        file = File.createTempFile("floow", ".gz");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        file = null;
+    }
+
+    @Test
+    public void testReadBgzf() throws IOException {
+        writeBgzf(file, content, 10000);
+
+        assertEquals((content.length + 9999) / 10000 + 1, GzipSource.bgzfBlocks(file).size()); // with empty EOF block
+        assertArrayEquals(content, readAll(file, 4));
+        assertArrayEquals(content, readAll(file, 1));
+    }
+
+    @Test
+    public void testReadMultiMemberGzip() throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            int half = content.length / 2;
+            for (int[] member: new int[][] {{0, half}, {half, content.length}}) {
+                GZIPOutputStream gzip = new GZIPOutputStream(new NonClosingOutputStream(out));
+                gzip.write(content, member[0], member[1] - member[0]);
+                gzip.close();
+            }
+        }
+        finally {
+            out.close();
+        }
+
+        assertTrue(GzipSource.isGzip(file));
+        assertNull(GzipSource.bgzfBlocks(file));
+        assertArrayEquals(content, readAll(file, 4));
+    }
+
+    @Test
+    public void testIsGzip() throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        }
+        finally {
+            out.close();
+        }
+
+        assertFalse(GzipSource.isGzip(file));
+    }
+
+    private static byte[] readAll(File file, int threads) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        GzipSource gzip = new GzipSource(file, threads);
+        try {
+            ByteBuffer buf;
+            while ((buf = gzip.next()) != null) {
+                result.write(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            }
+        }
+        finally {
+            gzip.close();
+        }
+        return result.toByteArray();
+    }
+
+    private static void writeBgzf(File file, byte[] data, int blockSize) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            for (int offset = 0; offset < data.length; offset += blockSize) {
+                writeBgzfBlock(out, data, offset, Math.min(blockSize, data.length - offset));
+            }
+            writeBgzfBlock(out, data, 0, 0);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static void writeBgzfBlock(OutputStream out, byte[] data, int offset, int length) throws IOException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+        byte[] compressed = new byte[length + 1024];
+        int compressedLength = deflater.deflate(compressed);
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+
+        int totalSize = 18 + compressedLength + 8;
+        out.write(new byte[] {0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+                (byte) (totalSize - 1), (byte) ((totalSize - 1) >> 8)});
+        out.write(compressed, 0, compressedLength);
+        writeInt(out, (int) crc.getValue());
+        writeInt(out, length);
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(new byte[] {(byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24)});
+    }
+
+    private static class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+}
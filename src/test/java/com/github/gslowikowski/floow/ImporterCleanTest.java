@@ -65,6 +65,25 @@ public class ImporterCleanTest {
         assertEquals(3, results.size());
     }
 
+    @Test
+    public void testCleanDataPartitioned() {
+        MongoCollection<Document> partition = db.getCollection(Importer.partitionName(COLLECTION, SOURCE));
+        partition.drop();
+        partition.insertMany(getInitialDocuments());
+        Importer imp = new Importer(SOURCE, null, partition);
+        imp.setPartitioned(true);
+
+        imp.cleanData();
+
+        assertEquals(0, partition.count());
+        // index is created again after dropping
+        List<Document> indexes = new ArrayList<>();
+        partition.listIndexes().into(indexes);
+        assertEquals(2, indexes.size());
+        // chunks in the shared collection are not removed
+        assertEquals(4, collection.count());
+    }
+
     private List<Document> getInitialDocuments() {
         List<Document> result = new ArrayList<>();
 
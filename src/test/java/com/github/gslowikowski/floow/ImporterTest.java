@@ -4,9 +4,13 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 import org.bson.Document;
@@ -73,6 +77,7 @@ public class ImporterTest {
         assertTrue(words.contains(new Document("word", "floow").append("cnt", 1)));
         assertTrue(words.contains(new Document("word", "is").append("cnt", 3)));
         assertTrue(words.contains(new Document("word", "awesome").append("cnt", 3)));
+        assertEquals(0, results.get(0).get("topKMin"));
 
         assertEquals("dump.txt", results.get(1).get("source"));
         assertEquals(1, results.get(1).get("chunkNo"));
@@ -114,4 +119,233 @@ public class ImporterTest {
         assertTrue(words.contains(new Document("word", "awesome").append("cnt", 1)));
     }
 
+    @Test
+    public void testImportInParallel() throws IOException, URISyntaxException {
+        Importer imp = new Importer(SOURCE, null/*id*/, collection);
+
+        File f = new File(Thread.currentThread().getContextClassLoader().getResource(SOURCE).toURI());
+        imp.cleanData();
+        imp.importInParallel(f, 3/*threads*/, CHUNK_SIZE);
+
+        List<Document> results = new ArrayList<>();
+        db.getCollection(COLLECTION).find().sort(new Document("chunkNo", 1)).into(results);
+
+        assertEquals(3, results.size());
+
+        List<Document> words = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals("dump.txt", results.get(i).get("source"));
+            assertEquals(i, results.get(i).get("chunkNo"));
+            words.addAll((List<Document>)results.get(i).get("words"));
+        }
+        assertTrue(words.contains(new Document("word", "mongo").append("cnt", 2)));
+        assertTrue(words.contains(new Document("word", "floow").append("cnt", 1)));
+        assertTrue(words.contains(new Document("word", "too").append("cnt", 1)));
+    }
+
+    @Test
+    public void testImportFileRangeWithSkipAndLimit() throws IOException, URISyntaxException {
+        Importer imp = new Importer(SOURCE, "serverId1"/*id*/, collection);
+
+        File f = new File(Thread.currentThread().getContextClassLoader().getResource(SOURCE).toURI());
+        imp.cleanData();
+        imp.importInChunks(new FileRange(f, 0L, f.length()), 1/*skipLines*/, 1/*limitLines*/, CHUNK_SIZE);
+
+        List<Document> results = new ArrayList<>();
+        db.getCollection(COLLECTION).find().into(results);
+
+        assertEquals(1, results.size());
+
+        assertEquals("dump.txt", results.get(0).get("source"));
+        assertEquals("serverId1", results.get(0).get("id"));
+        assertEquals(0, results.get(0).get("chunkNo"));
+        List<Document> words = (List<Document>)results.get(0).get("words");
+        assertEquals(3, words.size());
+        assertTrue(words.contains(new Document("word", "floow").append("cnt", 1)));
+        assertTrue(words.contains(new Document("word", "is").append("cnt", 1)));
+        assertTrue(words.contains(new Document("word", "awesome").append("cnt", 1)));
+    }
+
+    @Test
+    public void testImportWithSpill() throws IOException, URISyntaxException {
+        Importer imp = new Importer(SOURCE, null/*id*/, collection);
+        imp.setSpillLimit(1L/*spill every word*/, null);
+
+        File f = new File(Thread.currentThread().getContextClassLoader().getResource(SOURCE).toURI());
+        imp.cleanData();
+        imp.importInChunks(new FileRange(f, 0L, f.length()), 0/*skipLines*/, 0/*limitLines*/, CHUNK_SIZE);
+
+        List<Document> results = new ArrayList<>();
+        db.getCollection(COLLECTION).find().sort(new Document("chunkNo", 1)).into(results);
+
+        assertEquals(2, results.size());
+
+        List<Document> words = (List<Document>)results.get(0).get("words");
+        assertEquals(4, words.size());
+        assertTrue(words.contains(new Document("word", "mongo").append("cnt", 2)));
+        assertTrue(words.contains(new Document("word", "awesome").append("cnt", 3)));
+        assertTrue(words.contains(new Document("word", "is").append("cnt", 3)));
+        assertTrue(words.contains(new Document("word", "floow").append("cnt", 1)));
+    }
+
+    @Test
+    public void testImportWholeRange() throws IOException, URISyntaxException {
+        Importer imp = new Importer(SOURCE, null/*id*/, collection);
+        imp.setWholeRange(true);
+
+        File f = new File(Thread.currentThread().getContextClassLoader().getResource(SOURCE).toURI());
+        imp.cleanData();
+        imp.importInChunks(new FileRange(f, 0L, f.length()), 0/*skipLines*/, 0/*limitLines*/, CHUNK_SIZE);
+
+        List<Document> results = new ArrayList<>();
+        db.getCollection(COLLECTION).find().into(results);
+
+        // chunk size is ignored
+        assertEquals(1, results.size());
+        assertEquals(3, results.get(0).get("lines"));
+        assertEquals(f.length(), results.get(0).get("offset"));
+
+        List<Document> words = (List<Document>)results.get(0).get("words");
+        assertEquals(7, words.size());
+        assertTrue(words.contains(new Document("word", "mongo").append("cnt", 2)));
+        assertTrue(words.contains(new Document("word", "awesome").append("cnt", 4)));
+        assertTrue(words.contains(new Document("word", "too").append("cnt", 1)));
+    }
+
+    @Test
+    public void testImportWholeRangeInParts() throws IOException, URISyntaxException {
+        Importer imp = new Importer(SOURCE, null/*id*/, collection);
+        imp.setWholeRange(true);
+        imp.setChunkLimits(0/*maxWords*/, 1L/*maxBytes, a word per part*/);
+
+        File f = new File(Thread.currentThread().getContextClassLoader().getResource(SOURCE).toURI());
+        imp.cleanData();
+        imp.importInChunks(new FileRange(f, 0L, f.length()), 0/*skipLines*/, 0/*limitLines*/, CHUNK_SIZE);
+
+        List<Document> results = new ArrayList<>();
+        db.getCollection(COLLECTION).find().sort(new Document("chunkNo", 1)).into(results);
+
+        assertEquals(7, results.size());
+        // only the last part records lines and offset
+        for (int i = 0; i < results.size() - 1; i++) {
+            assertEquals(0, results.get(i).get("lines"));
+            assertTrue(!results.get(i).containsKey("offset"));
+        }
+        assertEquals(3, results.get(6).get("lines"));
+        assertEquals(f.length(), results.get(6).get("offset"));
+    }
+
+    @Test
+    public void testResume() throws IOException, URISyntaxException {
+        Importer imp = new Importer(SOURCE, null/*id*/, collection);
+
+        File f = new File(Thread.currentThread().getContextClassLoader().getResource(SOURCE).toURI());
+        imp.cleanData();
+        imp.importInChunks(new FileRange(f, 0L, f.length()), 0/*skipLines*/, 0/*limitLines*/, 1/*chunkSize*/);
+        assertEquals(36L, collection.find(new Document("chunkNo", 0)).first().get("offset"));
+        assertEquals(74L, collection.find(new Document("chunkNo", 2)).first().get("offset"));
+
+        // the second chunk was lost, the third one was saved out of order
+        collection.deleteOne(new Document("chunkNo", 1));
+
+        imp = new Importer(SOURCE, null/*id*/, collection);
+        Checkpoint checkpoint = imp.resume();
+        assertEquals(0, checkpoint.getChunkNo());
+        assertEquals(36L, checkpoint.getOffset());
+        assertEquals(1L, checkpoint.getLines());
+        assertEquals(1, collection.count());
+
+        imp.importInChunks(new FileRange(f, checkpoint.getOffset(), f.length()), 0/*skipLines*/, 0/*limitLines*/, 1/*chunkSize*/);
+
+        List<Document> results = new ArrayList<>();
+        db.getCollection(COLLECTION).find().sort(new Document("chunkNo", 1)).into(results);
+
+        assertEquals(3, results.size());
+        assertEquals(1, results.get(1).get("chunkNo"));
+        assertEquals(56L, results.get(1).get("offset"));
+        List<Document> words = (List<Document>)results.get(1).get("words");
+        assertTrue(words.contains(new Document("word", "floow").append("cnt", 1)));
+        assertEquals(2, results.get(2).get("chunkNo"));
+        assertEquals(74L, results.get(2).get("offset"));
+    }
+
+    @Test
+    public void testImportWithChunkWordsLimit() throws IOException {
+        Importer imp = new Importer(SOURCE, null/*id*/, collection);
+        imp.setChunkLimits(3/*maxWords*/, 0L/*maxBytes*/);
+
+        BufferedReader r = new BufferedReader(
+                new InputStreamReader(Thread.currentThread().getContextClassLoader().getResourceAsStream(SOURCE)));
+        try {
+            imp.cleanData();
+            imp.importInChunks(r, 0/*skipLines*/, 0/*limitLines*/, 0/*chunkSize*/);
+        }
+        finally {
+            r.close();
+        }
+
+        List<Document> results = new ArrayList<>();
+        db.getCollection(COLLECTION).find().sort(new Document("chunkNo", 1)).into(results);
+
+        assertEquals(3, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i, results.get(i).get("chunkNo"));
+            assertEquals(1, results.get(i).get("lines"));
+        }
+        assertEquals(4, ((List<Document>)results.get(2).get("words")).size());
+    }
+
+    @Test
+    public void testImportWithTopK() throws IOException {
+        Importer imp = new Importer(SOURCE, null/*id*/, collection);
+        imp.setChunkTopK(2);
+
+        BufferedReader r = new BufferedReader(
+                new InputStreamReader(Thread.currentThread().getContextClassLoader().getResourceAsStream(SOURCE)));
+        try {
+            imp.cleanData();
+            imp.importInChunks(r, 0/*skipLines*/, 1/*limitLines*/, CHUNK_SIZE);
+        }
+        finally {
+            r.close();
+        }
+
+        List<Document> results = new ArrayList<>();
+        db.getCollection(COLLECTION).find().into(results);
+
+        assertEquals(1, results.size());
+        List<Document> topWords = (List<Document>)results.get(0).get("topK");
+        assertEquals(2, topWords.size());
+        assertEquals(2, topWords.get(0).get("cnt"));
+        assertEquals(2, topWords.get(1).get("cnt"));
+        assertEquals(2, results.get(0).get("topKMin"));
+    }
+
+    @Test
+    public void testImportStream() throws IOException {
+        Importer imp = new Importer(SOURCE, null/*id*/, collection);
+        List<Long> windows = new ArrayList<>();
+
+        InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream(SOURCE);
+        StreamSource stream = new StreamSource(in);
+        try {
+            imp.cleanData();
+            imp.importStream(stream, CHUNK_SIZE, 60000L/*windowMillis*/, (windowStart, windowEnd) -> windows.add(windowStart));
+        }
+        finally {
+            stream.close();
+            in.close();
+        }
+
+        List<Document> results = new ArrayList<>();
+        db.getCollection(COLLECTION).find().sort(new Document("chunkNo", 1)).into(results);
+
+        // the stream ends before the window
+        assertTrue(windows.size() >= 1);
+        assertEquals(2, results.size());
+        assertEquals(2, results.get(0).get("lines"));
+        assertEquals(1, results.get(1).get("lines"));
+        assertEquals(new Date(windows.get(windows.size() - 1)), results.get(1).get("window"));
+    }
+
 }
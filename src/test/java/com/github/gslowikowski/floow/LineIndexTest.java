@@ -0,0 +1,82 @@
+package com.github.gslowikowski.floow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LineIndexTest {
+
+    private static final String CONTENT = "Mongo is awesome, Mongo is awesome.\nFloow is awesome...\nI am awesome too!\n";
+
+    private File file = null;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("floow", ".txt");
+        write(file, CONTENT);
+    }
+
+    @After
+    public void tearDown() {
+        LineIndex.indexFile(file).delete();
+        file.delete();
+        file = null;
+    }
+
+    @Test
+    public void testBuild() throws IOException {
+        LineIndex index = LineIndex.build(file, 1);
+
+        assertEquals(0, index.floorLine(0));
+        assertEquals(0L, index.offsetOf(0));
+        assertEquals(1, index.floorLine(1));
+        assertEquals(36L, index.offsetOf(1));
+        assertEquals(2, index.floorLine(2));
+        assertEquals(56L, index.offsetOf(2));
+        assertEquals(2, index.floorLine(5));
+    }
+
+    @Test
+    public void testSampledIndex() throws IOException {
+        LineIndex index = LineIndex.build(file, 2);
+
+        assertEquals(0, index.floorLine(1));
+        assertEquals(2, index.floorLine(2));
+        assertEquals(56L, index.offsetOf(2));
+    }
+
+    @Test
+    public void testLoadOrBuild() throws IOException {
+        assertNull(LineIndex.load(file));
+
+        LineIndex.loadOrBuild(file, 2);
+        LineIndex index = LineIndex.load(file);
+
+        assertNotNull(index);
+        assertEquals(2, index.getInterval());
+        assertEquals(56L, index.offsetOf(index.floorLine(3)));
+
+        write(file, CONTENT + CONTENT);
+        assertNull(LineIndex.load(file));
+    }
+
+    private static void write(File f, String content) throws IOException {
+        OutputStream out = new FileOutputStream(f);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+}
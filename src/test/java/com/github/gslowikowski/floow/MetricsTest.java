@@ -0,0 +1,89 @@
+package com.github.gslowikowski.floow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class MetricsTest {
+
+    @Test
+    public void testLatencyHistogram() {
+        Metrics.LatencyHistogram histogram = new Metrics.LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1500000L); // 1.5 ms
+        }
+        histogram.record(300000000L); // 300 ms
+
+        assertEquals(100, histogram.getCount());
+        double p50 = histogram.percentileMillis(0.5);
+        assertTrue("p50 " + p50, p50 >= 1.5 && p50 <= 3.0);
+        double p99 = histogram.percentileMillis(0.99);
+        assertTrue("p99 " + p99, p99 >= 1.5 && p99 <= 3.0);
+        assertEquals(300.0, histogram.percentileMillis(1.0), 0.001);
+        assertEquals(300.0, histogram.maxMillis(), 0.001);
+    }
+
+    @Test
+    public void testJson() {
+        Metrics metrics = new Metrics();
+        metrics.addRead(1000L, 2000000000L);
+        metrics.addLines(10L);
+        metrics.addTokens(50L);
+        metrics.addPhase(Metrics.Phase.TOKENIZE, 500000000L);
+
+        String json = metrics.toJson();
+        assertTrue(json, json.contains("\"bytes\": 1000,"));
+        assertTrue(json, json.contains("\"lines\": 10,"));
+        assertTrue(json, json.contains("\"tokens\": 50,"));
+        assertTrue(json, json.contains("\"phaseSeconds\": {\"read\": 2.000, \"tokenize\": 0.500, \"encode\": 0.000,"));
+    }
+
+    @Test
+    public void testPublish() throws IOException, JMException {
+        Metrics metrics = new Metrics();
+        try {
+            metrics.register();
+            metrics.addLines(42L);
+            assertEquals(42L, ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(Metrics.OBJECT_NAME), "Lines"));
+
+            int port = metrics.startHttpServer(0);
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + Metrics.HTTP_PATH).openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertTrue(read(connection.getInputStream()).contains("\"lines\": 42,"));
+        }
+        finally {
+            metrics.close();
+        }
+
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(Metrics.OBJECT_NAME)));
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+        }
+        finally {
+            in.close();
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+}
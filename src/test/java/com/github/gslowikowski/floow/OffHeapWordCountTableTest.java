@@ -0,0 +1,114 @@
+package com.github.gslowikowski.floow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class OffHeapWordCountTableTest {
+
+    @Test
+    public void testAdd() {
+        OffHeapWordCountTable table = new OffHeapWordCountTable();
+
+        add(table, "mongo", 1);
+        add(table, "is", 1);
+        add(table, "awesome", 1);
+        add(table, "mongo", 2);
+
+        assertEquals(3, table.size());
+        Map<String, Long> counts = counts(table);
+        assertEquals(Arrays.asList("mongo", "is", "awesome"), new ArrayList<String>(counts.keySet()));
+        assertEquals(3L, counts.get("mongo").longValue());
+        assertEquals(1L, counts.get("is").longValue());
+        assertEquals(1L, counts.get("awesome").longValue());
+    }
+
+    @Test
+    public void testGrowAndClear() {
+        OffHeapWordCountTable table = new OffHeapWordCountTable(16);
+        Map<String, Long> expected = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            String word = "w" + (i % 30011);
+            add(table, word, 1);
+            expected.merge(word, 1L, Long::sum);
+        }
+
+        assertEquals(expected.size(), table.size());
+        assertEquals(expected, counts(table));
+
+        long memoryBytes = table.getMemoryBytes();
+        table.clear();
+        assertTrue(table.isEmpty());
+        // memory is kept for reuse
+        assertEquals(memoryBytes, table.getMemoryBytes());
+
+        add(table, "floow", 1);
+        assertEquals(1, table.size());
+        assertEquals(1L, counts(table).get("floow").longValue());
+    }
+
+    @Test
+    public void testLongWords() {
+        OffHeapWordCountTable table = new OffHeapWordCountTable(16);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            char[] chars = new char[1000];
+            Arrays.fill(chars, (char) ('a' + i % 26));
+            words.add(new String(chars) + i);
+        }
+        for (String word: words) {
+            add(table, word, 1);
+        }
+        for (String word: words) {
+            add(table, word, 1);
+        }
+
+        // word bytes do not fit into the initial arena
+        assertTrue(table.getMemoryBytes() > 3000 * 1000);
+        Map<String, Long> counts = counts(table);
+        assertEquals(words, new ArrayList<String>(counts.keySet()));
+        for (long count: counts.values()) {
+            assertEquals(2L, count);
+        }
+    }
+
+    @Test
+    public void testGrownCapacity() {
+        assertEquals(2048L, OffHeapWordCountTable.grownCapacity(1024, 1025));
+        assertEquals(5000L, OffHeapWordCountTable.grownCapacity(1024, 5000));
+        // doubling above 2 GB is capped
+        long max = OffHeapWordCountTable.MAX_BUFFER_BYTES;
+        assertEquals(max, OffHeapWordCountTable.grownCapacity(1536L * 1024 * 1024, 1536L * 1024 * 1024 + 1));
+        assertEquals(max, OffHeapWordCountTable.grownCapacity(max - 1, max));
+        try {
+            OffHeapWordCountTable.grownCapacity(max, max + 1);
+            fail("Buffer grown above 2 GB");
+        }
+        catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private static void add(OffHeapWordCountTable table, String word, long count) {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        table.add(bytes, 0, bytes.length, word.hashCode(), count);
+    }
+
+    private static Map<String, Long> counts(OffHeapWordCountTable table) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        table.forEach((word, offset, length, count) ->
+            result.put(new String(word, offset, length, StandardCharsets.UTF_8), count));
+        return result;
+    }
+
+}
@@ -0,0 +1,18 @@
+package com.github.gslowikowski.floow;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PartitionNameTest {
+
+    private static final String COLLECTION = "words";
+
+    @Test
+    public void testPartitionName() {
+        assertEquals("words.dump.txt", Importer.partitionName(COLLECTION, "dump.txt"));
+        assertEquals("words.-", Importer.partitionName(COLLECTION, "-"));
+        assertEquals("words.dumps__.txt_" + Integer.toHexString("dumps/*.txt".hashCode()), Importer.partitionName(COLLECTION, "dumps/*.txt"));
+    }
+
+}
@@ -0,0 +1,133 @@
+package com.github.gslowikowski.floow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.bson.Document;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.UpdateOptions;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryServerTest {
+
+    private static final String DATABASE = "floowtest";
+    private static final String COLLECTION_AGGR = "words_aggr";
+
+    private MongoClient client = null;
+    private MongoCollection<Document> output = null;
+    private MongoCollection<Document> state = null;
+    private QueryServer server = null;
+    private int port = 0;
+
+    @Before
+    public void setUp() throws IOException {
+        client = new MongoClient();
+        MongoDatabase db = client.getDatabase(DATABASE);
+        output = db.getCollection(COLLECTION_AGGR);
+        output.drop();
+        output.insertMany(Arrays.asList(
+            new Document("_id", "awesome").append("count", 4),
+            new Document("_id", "is").append("count", 3),
+            new Document("_id", "mongo").append("count", 2),
+            new Document("_id", "am").append("count", 1)
+        ));
+        state = db.getCollection(COLLECTION_AGGR + Aggregator.STATE_SUFFIX);
+        state.drop();
+
+        server = new QueryServer(output, state);
+        server.setPollMillis(60000L); // reloaded by test
+        server.setTokenizer(TokenizerType.ASCII);
+        port = server.start(0);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        server = null;
+        client.close();
+        client = null;
+    }
+
+    @Test
+    public void testQueries() throws IOException {
+        assertEquals("{\"word\": \"awesome\", \"count\": 4}", get("/words/awesome"));
+        assertEquals("{\"word\": \"floow\", \"count\": 0}", get("/words/floow"));
+        assertEquals("{\"counts\": {\"is\": 3, \"am\": 1}}", get("/words?word=is&word=am"));
+        assertEquals("{\"total\": 4, \"offset\": 1, \"words\": [{\"word\": \"is\", \"count\": 3}, {\"word\": \"mongo\", \"count\": 2}]}",
+                get("/top?offset=1&limit=2"));
+        assertEquals("{\"prefix\": \"a\", \"words\": [{\"word\": \"awesome\", \"count\": 4}, {\"word\": \"am\", \"count\": 1}]}",
+                get("/prefix?prefix=a"));
+    }
+
+    @Test
+    public void testFoldedQueries() throws IOException {
+        assertEquals("{\"word\": \"Awesome\", \"count\": 4}", get("/words/Awesome"));
+        assertEquals("{\"counts\": {\"IS\": 3, \"don't\": 0}}", get("/words?word=IS&word=don%27t"));
+        assertEquals("{\"prefix\": \"Mo\", \"words\": [{\"word\": \"mongo\", \"count\": 2}]}",
+                get("/prefix?prefix=Mo"));
+    }
+
+    @Test
+    public void testReload() throws IOException {
+        assertEquals("{\"word\": \"awesome\", \"count\": 4}", get("/words/awesome"));
+        assertFalse(server.reloadIfChanged());
+
+        // the same generation is served until aggregator increments it
+        output.updateOne(new Document("_id", "awesome"), new Document("$inc", new Document("count", 1)));
+        assertEquals("{\"word\": \"awesome\", \"count\": 4}", get("/words/awesome"));
+
+        state.updateOne(new Document("_id", Aggregator.GENERATION_ID), new Document("$inc", new Document("generation", 1L)),
+                new UpdateOptions().upsert(true));
+        assertTrue(server.reloadIfChanged());
+        assertEquals("{\"word\": \"awesome\", \"count\": 5}", get("/words/awesome"));
+        assertEquals("{\"generation\": 1, \"words\": 4, \"cachedResponses\": 1, \"cacheHits\": 1, \"cacheMisses\": 2}", get("/stats"));
+    }
+
+    @Test
+    public void testMapReduceOutput() throws IOException {
+        output.drop();
+        output.insertMany(Arrays.asList(
+            new Document("_id", "awesome").append("value", 4.0),
+            new Document("_id", "mongo").append("value", 2.0)
+        ));
+        state.updateOne(new Document("_id", Aggregator.GENERATION_ID), new Document("$inc", new Document("generation", 1L)),
+                new UpdateOptions().upsert(true));
+
+        assertTrue(server.reloadIfChanged());
+        assertEquals("{\"word\": \"awesome\", \"count\": 4}", get("/words/awesome"));
+    }
+
+    private String get(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+        try {
+            assertEquals(200, connection.getResponseCode());
+            InputStream in = connection.getInputStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+        finally {
+            connection.disconnect();
+        }
+    }
+
+}
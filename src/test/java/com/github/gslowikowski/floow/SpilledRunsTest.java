@@ -0,0 +1,63 @@
+package com.github.gslowikowski.floow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SpilledRunsTest {
+
+    @Test
+    public void testMerge() throws IOException {
+        File directory = new File(System.getProperty("java.io.tmpdir"));
+        SpilledRuns runs = new SpilledRuns(directory);
+        try {
+            runs.spill(table("mongo", "is", "awesome", "mongo"));
+            runs.spill(table("floow", "is", "awesome"));
+            runs.spill(new WordCountTable()); // empty tables are not spilled
+            runs.spill(table("été", "i", "am", "awesome", "too"));
+
+            List<String> words = new ArrayList<>();
+            List<Long> counts = new ArrayList<>();
+            runs.merge((word, offset, length, count) -> {
+                words.add(new String(word, offset, length, StandardCharsets.UTF_8));
+                counts.add(count);
+            });
+
+            // ordered by unsigned UTF-8 bytes
+            assertEquals(Arrays.asList("am", "awesome", "floow", "i", "is", "mongo", "too", "été"), words);
+            assertEquals(Arrays.asList(1L, 3L, 1L, 1L, 2L, 2L, 1L, 1L), counts);
+        }
+        finally {
+            runs.close();
+        }
+
+        assertTrue(runs.isEmpty());
+    }
+
+    @Test
+    public void testMergeNothing() throws IOException {
+        SpilledRuns runs = new SpilledRuns(null);
+        runs.merge((word, offset, length, count) -> {
+            throw new AssertionError("no words expected");
+        });
+        assertTrue(runs.isEmpty());
+    }
+
+    private static WordCountTable table(String... words) {
+        WordCountTable table = new WordCountTable();
+        for (String word: words) {
+            byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+            table.add(bytes, bytes.length, WordCountTable.hash(bytes, 0, bytes.length));
+        }
+        return table;
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.github.gslowikowski.floow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class StreamSourceTest {
+
+    private static final long TIMEOUT_MILLIS = 5000L;
+
+    @Test
+    public void testStream() throws IOException {
+        PipedOutputStream out = new PipedOutputStream();
+        StreamSource stream = new StreamSource(new PipedInputStream(out));
+        try {
+            out.write("Mongo is awesome\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            assertEquals("Mongo is awesome\n", readText(stream, 17));
+
+            // no data yet
+            assertEquals(0, stream.next(10L).remaining());
+
+            out.write("Floow".getBytes(StandardCharsets.UTF_8));
+            out.close();
+            assertEquals("Floow", readText(stream, 5));
+            assertNull(stream.next(TIMEOUT_MILLIS));
+            assertNull(stream.next(TIMEOUT_MILLIS));
+        }
+        finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    public void testFollowFile() throws IOException {
+        File file = File.createTempFile("floow", ".txt");
+        try {
+            write(file, "Mongo is awesome\n", false);
+            StreamSource stream = new StreamSource(file, 10L/*pollMillis*/);
+            try {
+                assertEquals("Mongo is awesome\n", readText(stream, 17));
+
+                write(file, "Floow is awesome\n", true);
+                assertEquals("Floow is awesome\n", readText(stream, 17));
+
+                // truncated
+                write(file, "I am\n", false);
+                assertEquals("I am\n", readText(stream, 5));
+            }
+            finally {
+                stream.close();
+            }
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Reads given number of bytes, which may come in many buffers.
+     */
+    private static String readText(StreamSource stream, int length) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (sb.length() < length && System.currentTimeMillis() < deadline) {
+            ByteBuffer buf = stream.next(TIMEOUT_MILLIS);
+            if (buf == null) {
+                break;
+            }
+            sb.append(StandardCharsets.UTF_8.decode(buf));
+        }
+        return sb.toString();
+    }
+
+    private static void write(File file, String text, boolean append) throws IOException {
+        OutputStream out = new FileOutputStream(file, append);
+        try {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+}
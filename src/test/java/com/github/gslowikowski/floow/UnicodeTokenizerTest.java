@@ -0,0 +1,121 @@
+package com.github.gslowikowski.floow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class UnicodeTokenizerTest {
+
+    private static final String TEXT = "Mongo is awesome, MONGO is awesome.\nZażółć GĘŚLĄ jaźń...\n\nStraße STRASSE ſtraße 42x\nनमस्ते दुनिया 𐐀𐐨c\nlast";
+
+    private static final List<String> WORDS = Arrays.asList("mongo", "is", "awesome", "mongo", "is", "awesome",
+            "zażółć", "gęślą", "jaźń", "straße", "strasse", "straße", "x", "नमस्ते", "दुनिया", "𐐨𐐨c", "last");
+
+    @Test
+    public void testTokenizeBytes() {
+        Collector collector = new Collector(0);
+        UnicodeTokenizer tokenizer = new UnicodeTokenizer(collector);
+
+        tokenizer.tokenize(ByteBuffer.wrap(TEXT.getBytes(StandardCharsets.UTF_8)));
+        tokenizer.finish();
+
+        assertEquals(WORDS, collector.words);
+        assertEquals(6, collector.lines);
+    }
+
+    @Test
+    public void testTokenizeCharactersSpanningBuffers() {
+        byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        Collector collector = new Collector(0);
+        UnicodeTokenizer tokenizer = new UnicodeTokenizer(collector);
+
+        for (int i = 0; i < bytes.length; i++) {
+            tokenizer.tokenize(ByteBuffer.wrap(bytes, i, 1));
+        }
+        tokenizer.finish();
+
+        assertEquals(WORDS, collector.words);
+    }
+
+    @Test
+    public void testTokenizeLines() {
+        Collector collector = new Collector(0);
+        UnicodeTokenizer tokenizer = new UnicodeTokenizer(collector);
+
+        for (String line: TEXT.split("\n")) {
+            tokenizer.tokenize(line);
+        }
+
+        assertEquals(WORDS, collector.words);
+        assertEquals(6, collector.lines);
+    }
+
+    @Test
+    public void testMalformedSequencesAreSeparators() {
+        Collector collector = new Collector(0);
+        UnicodeTokenizer tokenizer = new UnicodeTokenizer(collector);
+
+        byte[] bytes = {'a', (byte) 0xc5, 'b', (byte) 0x80, 'c', (byte) 0xc0, (byte) 0xa1, 'd', (byte) 0xff, 'e', (byte) 0xc5, (byte) 0xbc};
+        tokenizer.tokenize(ByteBuffer.wrap(bytes));
+        tokenizer.finish();
+
+        assertEquals(Arrays.asList("a", "b", "c", "d", "eż"), collector.words);
+    }
+
+    @Test
+    public void testSameAsAsciiTokenizerForAsciiText() {
+        byte[] bytes = "Mongo is awesome, Mongo is awesome.\nFloow is awesome...\n\nI am\tawesome too! 42\nlast".getBytes(StandardCharsets.UTF_8);
+        Collector ascii = new Collector(0);
+        new AsciiTokenizer(ascii).tokenize(ByteBuffer.wrap(bytes));
+        Collector unicode = new Collector(0);
+        new UnicodeTokenizer(unicode).tokenize(ByteBuffer.wrap(bytes));
+
+        assertEquals(ascii.words, unicode.words);
+        assertEquals(ascii.lines, unicode.lines);
+    }
+
+    @Test
+    public void testStopAtLineEnd() {
+        ByteBuffer buf = ByteBuffer.wrap(TEXT.getBytes(StandardCharsets.UTF_8));
+        Collector collector = new Collector(2);
+        UnicodeTokenizer tokenizer = new UnicodeTokenizer(collector);
+
+        assertFalse(tokenizer.tokenize(buf));
+
+        assertEquals(WORDS.subList(0, 9), collector.words);
+        int secondLineEnd = TEXT.substring(0, TEXT.indexOf("...\n") + 4).getBytes(StandardCharsets.UTF_8).length;
+        assertEquals(secondLineEnd, buf.position());
+        assertEquals(secondLineEnd, tokenizer.getLineEnd());
+    }
+
+    private static class Collector implements Tokenizer.Handler {
+
+        private int maxLines;
+        private List<String> words = new ArrayList<>();
+        private int lines = 0;
+
+        Collector(int maxLines) {
+            this.maxLines = maxLines;
+        }
+
+        @Override
+        public void word(byte[] word, int length, int hash) {
+            assertEquals(WordCountTable.hash(word, 0, length), hash);
+            words.add(new String(word, 0, length, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public boolean endOfLine() {
+            lines++;
+            return maxLines == 0 || lines < maxLines;
+        }
+    }
+
+}
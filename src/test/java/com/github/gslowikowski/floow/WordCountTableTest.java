@@ -0,0 +1,100 @@
+package com.github.gslowikowski.floow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class WordCountTableTest {
+
+    @Test
+    public void testAdd() {
+        WordCountTable table = new WordCountTable();
+
+        add(table, "mongo");
+        add(table, "is");
+        add(table, "awesome");
+        add(table, "mongo");
+
+        assertEquals(3, table.size());
+        assertEquals("mongo", table.getWord(0));
+        assertEquals(2, table.getCount(0));
+        assertEquals("is", table.getWord(1));
+        assertEquals(1, table.getCount(1));
+        assertEquals("awesome", table.getWord(2));
+        assertEquals(1, table.getCount(2));
+    }
+
+    @Test
+    public void testGrowAndClear() {
+        WordCountTable table = new WordCountTable(16);
+        Map<String, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            String word = "w" + (i % 30011);
+            add(table, word);
+            expected.merge(word, 1, Integer::sum);
+        }
+
+        assertEquals(expected.size(), table.size());
+        for (int i = 0; i < table.size(); i++) {
+            assertEquals(expected.get(table.getWord(i)).intValue(), table.getCount(i));
+        }
+
+        table.clear();
+        assertTrue(table.isEmpty());
+
+        add(table, "floow");
+        assertEquals(1, table.size());
+        assertEquals("floow", table.getWord(0));
+        assertEquals(1, table.getCount(0));
+    }
+
+    @Test
+    public void testAddAll() {
+        WordCountTable table = new WordCountTable();
+        add(table, "mongo");
+        add(table, "is");
+        WordCountTable other = new WordCountTable();
+        add(other, "is");
+        add(other, "awesome");
+
+        table.addAll(other);
+
+        assertEquals(3, table.size());
+        assertEquals(1, table.getCount(0));
+        assertEquals(2, table.getCount(1));
+        assertEquals("awesome", table.getWord(2));
+        assertEquals(1, table.getCount(2));
+    }
+
+    @Test
+    public void testTopEntries() {
+        WordCountTable table = new WordCountTable();
+        for (int i = 0; i < 50; i++) {
+            for (int j = 0; j <= i; j++) {
+                add(table, "w" + i);
+            }
+        }
+
+        int[] top = table.topEntries(0, table.size(), 3);
+        assertEquals(3, top.length);
+        assertEquals("w49", table.getWord(top[0]));
+        assertEquals("w48", table.getWord(top[1]));
+        assertEquals("w47", table.getWord(top[2]));
+
+        top = table.topEntries(10, 12, 3);
+        assertEquals(2, top.length);
+        assertEquals("w11", table.getWord(top[0]));
+        assertEquals("w10", table.getWord(top[1]));
+    }
+
+    private static void add(WordCountTable table, String word) {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        table.add(bytes, bytes.length, word.hashCode());
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.github.gslowikowski.floow;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class WordFilterTest {
+
+    @Test
+    public void testStopwordsAndMinLength() throws IOException {
+        WordFilter filter = new WordFilter(3);
+        filter.addStopwords(new BufferedReader(new StringReader("The\nis, AND\nÜber\n")), TokenizerType.UNICODE);
+        assertEquals(4, filter.getStopwordCount());
+
+        List<String> words = new ArrayList<>();
+        Tokenizer tokenizer = TokenizerType.UNICODE.create(filter.wrap(new Tokenizer.Handler() {
+            @Override
+            public void word(byte[] word, int length, int hash) {
+                words.add(new String(word, 0, length, StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public boolean endOfLine() {
+                return true;
+            }
+        }));
+        tokenizer.tokenize(ByteBuffer.wrap("The Mongo is über awesome and so is żuk, ĘŚ\n".getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(Arrays.asList("mongo", "awesome", "żuk"), words);
+    }
+
+}
@@ -0,0 +1,49 @@
+package com.github.gslowikowski.floow;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class WordIndexTest {
+
+    private WordIndex index = new WordIndex(Arrays.asList("mongo", "is", "awesome", "floow", "am", "i", "too", "awe"),
+            new long[] {2, 3, 4, 1, 1, 1, 1, 2}, 7L);
+
+    @Test
+    public void testCount() {
+        assertEquals(8, index.size());
+        assertEquals(7L, index.getGeneration());
+        assertEquals(4L, index.count("awesome"));
+        assertEquals(1L, index.count("i"));
+        assertEquals(0L, index.count("unknown"));
+        assertEquals(0L, index.count(""));
+    }
+
+    @Test
+    public void testTop() {
+        assertEquals(Arrays.asList("awesome", "is", "awe", "mongo"), words(index.top(0, 4)));
+        assertEquals(Arrays.asList("am", "floow", "i", "too"), words(index.top(4, 10)));
+        assertEquals(3L, index.top(1, 1).get(0).getCount());
+        assertEquals(0, index.top(8, 10).size());
+        assertEquals(0, index.top(0, 0).size());
+    }
+
+    @Test
+    public void testPrefix() {
+        assertEquals(Arrays.asList("awesome", "awe", "am"), words(index.prefix("a", 10)));
+        assertEquals(Arrays.asList("awesome", "awe"), words(index.prefix("a", 2)));
+        assertEquals(Arrays.asList("awesome", "awe"), words(index.prefix("awe", 10)));
+        assertEquals(Arrays.asList("is", "i"), words(index.prefix("i", 10)));
+        assertEquals(Arrays.asList(), words(index.prefix("x", 10)));
+        assertEquals(8, index.prefix("", 10).size());
+    }
+
+    private static List<String> words(List<WordIndex.WordCount> wordCounts) {
+        return wordCounts.stream().map(WordIndex.WordCount::getWord).collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.github.gslowikowski.floow;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bson.Document;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+public class WorkerTest {
+
+    private static final String DATABASE = "floowtest";
+    private static final String COLLECTION = "words";
+    private static final String COLLECTION_SEGMENTS = "words_segments";
+
+    private static final String SOURCE = "dump.txt";
+    private static final int CHUNK_SIZE = 1;
+
+    private MongoClient client = null;
+    private MongoDatabase db = null;
+    private MongoCollection<Document> collection = null;
+    private MongoCollection<Document> segments = null;
+    private File file = null;
+
+    @Before
+    public void setUp() throws URISyntaxException {
+        client = new MongoClient();
+        db = client.getDatabase(DATABASE);
+        collection = db.getCollection(COLLECTION);
+        collection.drop();
+        segments = db.getCollection(COLLECTION_SEGMENTS);
+        segments.drop();
+        file = new File(Thread.currentThread().getContextClassLoader().getResource(SOURCE).toURI());
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        client = null;
+    }
+
+    @Test
+    public void testRunConcurrentWorkers() throws Exception {
+        // chunks of previous import
+        collection.insertOne(new Document("source", SOURCE).append("chunkNo", 0));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> imported1 = executor.submit(() -> createWorker().run(2/*threads*/, 20L/*segmentBytes*/, CHUNK_SIZE));
+            Future<Integer> imported2 = executor.submit(() -> createWorker().run(1/*threads*/, 20L/*segmentBytes*/, CHUNK_SIZE));
+
+            assertEquals(3, imported1.get() + imported2.get());
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        // 74 bytes long file split into segments of about 20 bytes, aligned to line boundaries
+        assertEquals(3, segments.count(new Document("source", SOURCE).append("state", "done")));
+        assertEquals(3, collection.count());
+        assertEquals(4, countWord("awesome"));
+        assertEquals(2, countWord("mongo"));
+    }
+
+    @Test
+    public void testReclaimExpiredLease() throws IOException {
+        segments.insertOne(new Document("_id", SOURCE).append("fileLength", file.length()).append("fileModified", file.lastModified())
+                .append("parts", 1).append("run", "r"));
+        segments.insertOne(new Document("_id", SOURCE + "/r/0")
+                .append("source", SOURCE)
+                .append("run", "r")
+                .append("segmentNo", 0)
+                .append("start", 0L)
+                .append("end", file.length())
+                .append("state", "leased")
+                .append("owner", "dead worker")
+                .append("leaseUntil", new Date(System.currentTimeMillis() - 1000L))
+                .append("attempts", 1));
+        // chunk saved by the dead worker
+        collection.insertOne(new Document("source", SOURCE).append("id", "r-0-1").append("chunkNo", 0));
+
+        int imported = createWorker().run(1/*threads*/, 20L/*segmentBytes*/, CHUNK_SIZE);
+
+        assertEquals(1, imported);
+        assertEquals(2, segments.find(new Document("_id", SOURCE + "/r/0")).first().get("attempts"));
+        assertEquals(0, collection.count(new Document("id", "r-0-1")));
+        assertEquals(3, collection.count(new Document("id", "r-0-2")));
+        assertEquals(4, countWord("awesome"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSplitForDifferentFile() throws IOException {
+        segments.insertOne(new Document("_id", SOURCE).append("fileLength", 1L).append("fileModified", 0L).append("parts", 1).append("run", "r"));
+        // still imported by other worker
+        segments.insertOne(new Document("_id", SOURCE + "/r/0").append("source", SOURCE).append("run", "r").append("segmentNo", 0)
+                .append("state", "pending").append("attempts", 0));
+
+        createWorker().run(1/*threads*/, 20L/*segmentBytes*/, CHUNK_SIZE);
+    }
+
+    @Test
+    public void testRunAgain() throws IOException {
+        assertEquals(3, createWorker().run(1/*threads*/, 20L/*segmentBytes*/, CHUNK_SIZE));
+
+        // imported already
+        assertEquals(0, createWorker().run(1/*threads*/, 20L/*segmentBytes*/, CHUNK_SIZE));
+        assertEquals(3, collection.count());
+
+        // the file has changed since it was imported
+        segments.updateOne(new Document("_id", SOURCE), new Document("$set", new Document("fileModified", 0L)));
+
+        assertEquals(3, createWorker().run(1/*threads*/, 20L/*segmentBytes*/, CHUNK_SIZE));
+        assertEquals(3, segments.count(new Document("source", SOURCE)));
+        assertEquals(3, collection.count());
+        assertEquals(4, countWord("awesome"));
+    }
+
+    private Worker createWorker() {
+        Worker worker = new Worker(db, collection, SOURCE, file, (id, writer) -> new Importer(SOURCE, id, collection, writer));
+        worker.setLeaseSeconds(1);
+        return worker;
+    }
+
+    private int countWord(String word) {
+        int count = 0;
+        for (Document chunk: collection.find()) {
+            for (Document wordWithCount: (List<Document>) chunk.get("words")) {
+                if (word.equals(wordWithCount.get("word"))) {
+                    count += wordWithCount.getInteger("cnt");
+                }
+            }
+        }
+        return count;
+    }
+
+}